@@ -0,0 +1,32 @@
+package ru.store.benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * Distribution of the keys the benchmarked operations touch
+ */
+public enum AccessPattern {
+
+    /**
+     * Every stored key is equally likely
+     */
+    UNIFORM {
+        @Override
+        int nextIndex(SplittableRandom random, int countKeys) {
+            return random.nextInt(countKeys);
+        }
+    },
+
+    /**
+     * 90% of the operations touch the hottest 1% of the keys (at least one key)
+     */
+    HOT_KEY {
+        @Override
+        int nextIndex(SplittableRandom random, int countKeys) {
+            int countHot = Math.max(1, countKeys / 100);
+            return random.nextInt(10) < 9 ? random.nextInt(countHot) : random.nextInt(countKeys);
+        }
+    };
+
+    abstract int nextIndex(SplittableRandom random, int countKeys);
+}
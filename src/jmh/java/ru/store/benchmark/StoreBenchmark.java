@@ -0,0 +1,132 @@
+package ru.store.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.store.api.EngineType;
+import ru.store.api.KeyValueFactory;
+import ru.store.api.KeyValueStore;
+import ru.store.exceptions.StoreEngineOperationException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Latency of put/get/remove of {@link KeyValueStore}, sync and async, by engine, value size and access pattern.
+ * The count of threads is given to the runner ({@code -t}), see {@link StoreBenchmarks}.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+
+    /**
+     * Total size of the stored values, the count of keys shrinks as the values grow
+     */
+    private static final long STORED_BYTES = 256L * 1024 * 1024;
+    private static final int MAX_COUNT_KEYS = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Store {
+
+        @Param({"FILE_PER_KEY", "LOG_STRUCTURED"})
+        public EngineType engine;
+
+        @Param({"16", "1024", "65536", "1048576", "67108864"})
+        public int valueSize;
+
+        @Param({"UNIFORM", "HOT_KEY"})
+        public AccessPattern access;
+
+        KeyValueStore<String, byte[]> store;
+        String[] keys;
+        byte[] value;
+        private Path dataPath;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, StoreEngineOperationException {
+            dataPath = Files.createTempDirectory("store-benchmark");
+            store = KeyValueFactory.create(dataPath.toString(), engine).build();
+
+            value = new byte[valueSize];
+            new Random(42).nextBytes(value);
+            keys = new String[(int) Math.max(1, Math.min(MAX_COUNT_KEYS, STORED_BYTES / valueSize))];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "key" + i;
+                store.put(keys[i], value);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            store.close();
+            try (Stream<Path> paths = Files.walk(dataPath)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+
+        private final SplittableRandom random = new SplittableRandom();
+        private String removedKey;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            removedKey = "removed-" + Thread.currentThread().getId();
+        }
+
+        String next(Store store) {
+            return store.keys[store.access.nextIndex(random, store.keys.length)];
+        }
+    }
+
+    @Benchmark
+    public boolean putSync(Store store, Keys keys) {
+        return store.store.put(keys.next(store), store.value);
+    }
+
+    @Benchmark
+    public Boolean putAsync(Store store, Keys keys) {
+        return store.store.put(keys.next(store), store.value, new CompletableFuture<>()).join();
+    }
+
+    @Benchmark
+    public byte[] getSync(Store store, Keys keys) {
+        return store.store.get(keys.next(store));
+    }
+
+    @Benchmark
+    public byte[] getAsync(Store store, Keys keys) {
+        return store.store.get(keys.next(store), new CompletableFuture<>()).join();
+    }
+
+    /**
+     * Removes a key of the thread which is put before, the score includes the put
+     */
+    @Benchmark
+    public void putRemove(Store store, Keys keys) {
+        store.store.put(keys.removedKey, store.value);
+        store.store.remove(keys.removedKey);
+    }
+}
@@ -0,0 +1,36 @@
+package ru.store.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link StoreBenchmark} for every count of threads, the results of a count are written as JSON
+ * into {@code <prefix>-threads-<count>.json} to be compared between releases.
+ * <p>
+ * Arguments: prefix of the result files (jmh-result by default), comma separated counts of threads (1,4,16 by default)
+ * and an optional regexp of the benchmarks to run.
+ */
+public final class StoreBenchmarks {
+
+    private StoreBenchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String prefix = args.length > 0 ? args[0] : "jmh-result";
+        String[] threads = (args.length > 1 ? args[1] : "1,4,16").split(",");
+        String include = args.length > 2 ? args[2] : StoreBenchmark.class.getSimpleName();
+
+        for (String countThreads : threads) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(countThreads.trim()))
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(prefix + "-threads-" + countThreads.trim() + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package ru.store.api;
+
+/**
+ * Storage engine behind the {@link KeyValueStore}
+ */
+public enum EngineType {
+
+    /**
+     * Every key is stored in its own file
+     */
+    FILE_PER_KEY,
+
+    /**
+     * Puts and removes are appended to segment files, the key directory is kept in memory
+     */
+    LOG_STRUCTURED
+}
@@ -2,7 +2,21 @@ package ru.store.api;
 
 import ru.store.exceptions.StoreEngineOperationException;
 import ru.store.impl.*;
+import ru.store.impl.async.EngineExecutors;
+import ru.store.impl.async.ExecutionMode;
+import ru.store.impl.async.OverloadPolicy;
+import ru.store.impl.cache.CachingStoreEngine;
+import ru.store.impl.cache.OffHeapValueCache;
+import ru.store.impl.cache.TinyLfuValueCache;
+import ru.store.impl.cache.ValueCache;
+import ru.store.impl.codec.Codec;
+import ru.store.impl.durability.Durability;
+import ru.store.impl.log.LogStructuredStoreEngine;
+import ru.store.impl.metrics.InstrumentedStoreEngine;
+import ru.store.impl.metrics.StoreMetrics;
+import ru.store.impl.writebehind.WriteBehindStoreEngine;
 
+import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 
 /**
@@ -14,31 +28,382 @@ public final class KeyValueFactory {
     }
 
     public static KeyValueBuilder<String, byte[]> create(String path) throws StoreEngineOperationException {
-       return  new KeyValueBuilder<>(new KeyValueFSStoreWrapper(new FSStoreEngine(path, "temp1", 10, 10)));
+       return create(path, EngineType.FILE_PER_KEY);
+    }
+
+    public static KeyValueBuilder<String, byte[]> create(String path, EngineType engineType) throws StoreEngineOperationException {
+       return new KeyValueBuilder<>(new EngineSettings(path, engineType), Function.identity());
     }
 
     public static KeyValueStore<String, byte[]> create() {
         try {
             return KeyValueFactory.create("").build();
-        } catch (StoreEngineOperationException e) {
+        } catch (StoreEngineOperationException | IllegalStateException e) {
             return null;
         }
     }
 
+    /**
+     * Settings of the engine shared by the builder and the builders derived from it
+     */
+    private static final class EngineSettings {
+
+        private final String path;
+        private final EngineType engineType;
+        private Durability durability = Durability.FULL;
+        private long syncPeriodMillis = -1;
+        private int groupCommitBatchSize;
+        private long groupCommitWindowMillis;
+        private long mmapThreshold = -1;
+        private ValueCache readCache;
+        private int readChunkSize = -1;
+        private int scanPrefetch;
+        private long snapshotPeriodMillis;
+        private long writeBehindMaxDirtyBytes;
+        private long writeBehindMaxAgeMillis;
+        private long bloomFilterKeys;
+        private double bloomFilterFalsePositiveRate;
+        private ExecutionMode executionMode = ExecutionMode.FIXED_POOLS;
+        private ExecutorService executor;
+        private int maxReads;
+        private long maxReadBytes;
+        private int maxWrites;
+        private long maxWriteBytes;
+        private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+        private StoreMetrics metrics;
+        private Codec codec;
+        private int compressionThreshold;
+        private StoreEngine<String, byte[]> engine;
+
+        private EngineSettings(String path, EngineType engineType) {
+            this.path = path;
+            this.engineType = engineType;
+        }
+
+        /**
+         * @return injected executor or a new one of the execution mode
+         */
+        private ExecutorService executor(int countThreads) {
+            return executor != null ? executor : EngineExecutors.newExecutor(executionMode, countThreads);
+        }
+
+        /**
+         * @return whether the engine shuts down its executors, which it does unless they're injected
+         */
+        private boolean ownsExecutors() {
+            return executor == null;
+        }
+
+        /**
+         * @return engine created by the first call, the later calls share it
+         */
+        private synchronized StoreEngine<String, byte[]> engine() throws StoreEngineOperationException {
+            if (engine == null) {
+                engine = createEngine();
+            }
+            return engine;
+        }
+
+        private StoreEngine<String, byte[]> createEngine() throws StoreEngineOperationException {
+            StoreEngine<String, byte[]> engine = createBaseEngine();
+            if (writeBehindMaxDirtyBytes > 0) {
+                WriteBehindStoreEngine writeBehind =
+                        new WriteBehindStoreEngine(engine, writeBehindMaxDirtyBytes, writeBehindMaxAgeMillis);
+                engine = writeBehind;
+                if (metrics != null) {
+                    registerGauges(writeBehind);
+                }
+            }
+            if (readCache != null) {
+                engine = new CachingStoreEngine(engine, readCache);
+                if (metrics != null) {
+                    registerGauges(readCache);
+                }
+            }
+            if (metrics == null) {
+                return engine;
+            }
+            metrics.register();
+            return new InstrumentedStoreEngine(engine, metrics);
+        }
+
+        private void registerGauges(FSStoreEngine fsEngine) {
+            metrics.gauge("readerQueueDepth", fsEngine::getReaderQueueDepth);
+            metrics.gauge("writerQueueDepth", fsEngine::getWriterQueueDepth);
+            metrics.gauge("readAdmissionQueueDepth", () -> fsEngine.getReadAdmission().getQueueDepth());
+            metrics.gauge("writeAdmissionQueueDepth", () -> fsEngine.getWriteAdmission().getQueueDepth());
+            metrics.gauge("rejectedOperations",
+                          () -> fsEngine.getReadAdmission().getRejectedCount() + fsEngine.getWriteAdmission().getRejectedCount());
+            metrics.gauge("retries", fsEngine::getRetryCount);
+            metrics.gauge("coalescedWrites", fsEngine::getCoalescedWriteCount);
+            metrics.gauge("bloomFilterNegatives", () -> {
+                BloomFilter filter = fsEngine.getBloomFilter();
+                return filter == null ? 0 : filter.getNegativeCount();
+            });
+        }
+
+        private void registerGauges(WriteBehindStoreEngine writeBehind) {
+            metrics.gauge("dirtyBytes", writeBehind::getDirtyBytes);
+            metrics.gauge("dirtyKeys", writeBehind::getDirtyCount);
+            metrics.gauge("flushLagMillis", writeBehind::getFlushLagMillis);
+            metrics.gauge("flushFailures", writeBehind::getFlushFailureCount);
+        }
+
+        private void registerGauges(ValueCache cache) {
+            metrics.gauge("cacheHits", cache::getHitCount);
+            metrics.gauge("cacheMisses", cache::getMissCount);
+            metrics.gauge("cacheEvictions", cache::getEvictionCount);
+        }
+
+        private StoreEngine<String, byte[]> createBaseEngine() throws StoreEngineOperationException {
+            switch (engineType) {
+                case LOG_STRUCTURED:
+                    LogStructuredStoreEngine logEngine = new LogStructuredStoreEngine(path, executor(10), executor(10), ownsExecutors());
+                    if (syncPeriodMillis > 0) {
+                        logEngine.setSyncPeriodMillis(syncPeriodMillis);
+                    }
+                    logEngine.setDurability(durability);
+                    if (mmapThreshold > 0) {
+                        logEngine.setMmapThreshold(mmapThreshold);
+                    }
+                    if (groupCommitBatchSize > 0) {
+                        logEngine.enableGroupCommit(groupCommitBatchSize, groupCommitWindowMillis);
+                    }
+                    return logEngine;
+                case FILE_PER_KEY:
+                default:
+                    FSStoreEngine fsEngine = new FSStoreEngine(path, FSStoreEngine.newTempPath(path), executor(10), executor(10), ownsExecutors());
+                    if (syncPeriodMillis > 0) {
+                        fsEngine.setSyncPeriodMillis(syncPeriodMillis);
+                    }
+                    fsEngine.setDurability(durability);
+                    if (mmapThreshold > 0) {
+                        fsEngine.setMmapThreshold(mmapThreshold);
+                    }
+                    if (readChunkSize > 0) {
+                        fsEngine.setReadChunkSize(readChunkSize);
+                    }
+                    fsEngine.setScanPrefetch(scanPrefetch);
+                    if (snapshotPeriodMillis > 0) {
+                        fsEngine.setSnapshotPeriodMillis(snapshotPeriodMillis);
+                    }
+                    if (bloomFilterKeys > 0) {
+                        fsEngine.setBloomFilter(bloomFilterKeys, bloomFilterFalsePositiveRate);
+                    }
+                    if (groupCommitBatchSize > 0) {
+                        fsEngine.enableGroupCommit(groupCommitBatchSize, groupCommitWindowMillis);
+                    }
+                    if (maxReads > 0) {
+                        fsEngine.setReadLimits(maxReads, maxReadBytes, overloadPolicy);
+                    }
+                    if (maxWrites > 0) {
+                        fsEngine.setWriteLimits(maxWrites, maxWriteBytes, overloadPolicy);
+                    }
+                    if (codec != null) {
+                        fsEngine.setCompression(codec, compressionThreshold);
+                    }
+                    if (metrics != null) {
+                        registerGauges(fsEngine);
+                    }
+                    return fsEngine;
+            }
+        }
+    }
+
     public static class KeyValueBuilder<K, V> {
 
-        private KeyValueStore<K, V> keyValueStore;
+        private final EngineSettings engineSettings;
+
+        private final Function<KeyValueStore<String, byte[]>, KeyValueStore<K, V>> storeDecorator;
+
+        private KeyValueBuilder(EngineSettings engineSettings, Function<KeyValueStore<String, byte[]>, KeyValueStore<K, V>> storeDecorator) {
+            this.engineSettings = engineSettings;
+            this.storeDecorator = storeDecorator;
+        }
+
+        public <K1, V1> KeyValueBuilder<K1, V1> withKeyResolver(Function<K1, K> keyResolver, SerializerProvider<V1, V> valueSerializer) {
+            return withKeyResolver(keyResolver, null, valueSerializer);
+        }
+
+        /**
+         * @param inverseKeyResolver turns the stored keys back into the keys of the store, the scans need it
+         */
+        public <K1, V1> KeyValueBuilder<K1, V1> withKeyResolver(Function<K1, K> keyResolver, Function<K, K1> inverseKeyResolver,
+                                                                SerializerProvider<V1, V> valueSerializer) {
+            return new KeyValueBuilder<>(engineSettings,
+                                         storeDecorator.andThen(store -> new KeyValueStoreWithResolvers<>(store, keyResolver, inverseKeyResolver,
+                                                                                                          valueSerializer)));
+        }
+
+        public KeyValueBuilder<K, V> withDurability(Durability durability) {
+            engineSettings.durability = durability;
+            return this;
+        }
+
+        /**
+         * {@link Durability#PERIODIC} with the given period of the background sync
+         */
+        public KeyValueBuilder<K, V> withPeriodicSync(long syncPeriodMillis) {
+            engineSettings.durability = Durability.PERIODIC;
+            engineSettings.syncPeriodMillis = syncPeriodMillis;
+            return this;
+        }
+
+        public KeyValueBuilder<K, V> withGroupCommit(int maxBatchSize, long windowMillis) {
+            engineSettings.groupCommitBatchSize = maxBatchSize;
+            engineSettings.groupCommitWindowMillis = windowMillis;
+            return this;
+        }
+
+        /**
+         * Values starting from the given size are read through a memory mapping of the file
+         */
+        public KeyValueBuilder<K, V> withMmapThreshold(long mmapThreshold) {
+            engineSettings.mmapThreshold = mmapThreshold;
+            return this;
+        }
+
+        /**
+         * Size of the chunks of streamed reads of {@link EngineType#FILE_PER_KEY}
+         */
+        public KeyValueBuilder<K, V> withReadChunkSize(int readChunkSize) {
+            engineSettings.readChunkSize = readChunkSize;
+            return this;
+        }
+
+        /**
+         * Count of values of {@link EngineType#FILE_PER_KEY} read ahead of the consumer of a scan of the entries,
+         * e.g. for backups which take every value
+         */
+        public KeyValueBuilder<K, V> withScanPrefetch(int scanPrefetch) {
+            engineSettings.scanPrefetch = scanPrefetch;
+            return this;
+        }
+
+        /**
+         * Writes the snapshot of the keys of {@link EngineType#FILE_PER_KEY} periodically, not only on close,
+         * so after a crash the store opens walking only the shards modified since the last snapshot
+         */
+        public KeyValueBuilder<K, V> withSnapshotPeriod(long snapshotPeriodMillis) {
+            engineSettings.snapshotPeriodMillis = snapshotPeriodMillis;
+            return this;
+        }
+
+        /**
+         * Acknowledges writes and removes once they are in memory and flushes them in the background,
+         * see {@link WriteBehindStoreEngine}. Writes not flushed yet are lost on a crash, {@link KeyValueStore#flush()}
+         * and {@link KeyValueStore#close()} flush them.
+         *
+         * @param maxDirtyBytes max total size of the values not flushed yet, writes over it wait for a flush
+         * @param maxAgeMillis  max time a write stays in memory
+         */
+        public KeyValueBuilder<K, V> withWriteBehind(long maxDirtyBytes, long maxAgeMillis) {
+            engineSettings.writeBehindMaxDirtyBytes = maxDirtyBytes;
+            engineSettings.writeBehindMaxAgeMillis = maxAgeMillis;
+            return this;
+        }
+
+        /**
+         * Answers most lookups of absent keys of {@link EngineType#FILE_PER_KEY} by a bloom filter,
+         * see {@link FSStoreEngine#setBloomFilter(long, double)}
+         */
+        public KeyValueBuilder<K, V> withBloomFilter(long expectedKeys, double falsePositiveRate) {
+            engineSettings.bloomFilterKeys = expectedKeys;
+            engineSettings.bloomFilterFalsePositiveRate = falsePositiveRate;
+            return this;
+        }
+
+        /**
+         * Caches values in the heap up to the given total size, see {@link TinyLfuValueCache}
+         */
+        public KeyValueBuilder<K, V> withReadCache(long maxWeightBytes) {
+            return withReadCache(new TinyLfuValueCache(maxWeightBytes));
+        }
+
+        /**
+         * Caches values in direct memory up to the given total size, see {@link OffHeapValueCache}
+         */
+        public KeyValueBuilder<K, V> withOffHeapReadCache(long maxBytes) {
+            return withReadCache(new OffHeapValueCache(maxBytes));
+        }
+
+        /**
+         * @param readCache cache of values, it can be kept to watch its hit/miss/eviction counters
+         */
+        public KeyValueBuilder<K, V> withReadCache(ValueCache readCache) {
+            engineSettings.readCache = readCache;
+            return this;
+        }
+
+        /**
+         * Threads of the engine I/O, {@link ExecutionMode#VIRTUAL_THREADS} needs no sizing of pools
+         * unless the JDK has no virtual threads
+         */
+        public KeyValueBuilder<K, V> withExecutionMode(ExecutionMode executionMode) {
+            engineSettings.executionMode = executionMode;
+            return this;
+        }
+
+        /**
+         * Runs the engine I/O on the given executor, it's owned by the caller and isn't shut down by the store
+         */
+        public KeyValueBuilder<K, V> withExecutor(ExecutorService executor) {
+            engineSettings.executor = executor;
+            return this;
+        }
+
+        /**
+         * Limits the async reads and writes in flight of {@link EngineType#FILE_PER_KEY},
+         * an operation over the limits is handled by the policy
+         */
+        public KeyValueBuilder<K, V> withInFlightLimits(int maxReads, long maxReadBytes,
+                                                        int maxWrites, long maxWriteBytes, OverloadPolicy policy) {
+            engineSettings.maxReads = maxReads;
+            engineSettings.maxReadBytes = maxReadBytes;
+            engineSettings.maxWrites = maxWrites;
+            engineSettings.maxWriteBytes = maxWriteBytes;
+            engineSettings.overloadPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Compresses the values of {@link EngineType#FILE_PER_KEY} which are at least minSize bytes long,
+         * e.g. with {@link ru.store.impl.codec.DeflateCodec}
+         */
+        public KeyValueBuilder<K, V> withCompression(Codec codec, int minSize) {
+            engineSettings.codec = codec;
+            engineSettings.compressionThreshold = minSize;
+            return this;
+        }
 
-        private KeyValueBuilder(KeyValueStore<K, V> keyValueStore) {
-            this.keyValueStore = keyValueStore;
+        /**
+         * Records latencies, bytes and errors of the operations and gauges of the engine into the metrics,
+         * which are published as an MXBean while the store is open
+         */
+        public KeyValueBuilder<K, V> withMetrics(StoreMetrics metrics) {
+            engineSettings.metrics = metrics;
+            return this;
         }
 
-        public <K1, V1> KeyValueBuilder<K1, V1> withKeyResolver(Function<K1, K> keyResolver, SerializerProvider<V, V1> valueSerializer) {
-            return new KeyValueBuilder<>(new KeyValueStoreWithResolvers<>(keyValueStore, keyResolver, valueSerializer));
+        /**
+         * Records metrics under the given name, they are read by JMX or the store's {@link StoreMetrics}
+         */
+        public KeyValueBuilder<K, V> withMetrics(String name) {
+            return withMetrics(new StoreMetrics(name));
         }
 
+        /**
+         * The engine is created by the first build of the builders of a {@link KeyValueFactory#create} call,
+         * the later builds return stores of the same engine and the settings changed after it don't apply
+         *
+         * @throws IllegalStateException if the engine can't be created
+         */
         public KeyValueStore<K, V> build() {
-            return keyValueStore;
+            try {
+                return storeDecorator.apply(new KeyValueFSStoreWrapper(engineSettings.engine()));
+            } catch (StoreEngineOperationException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
         }
     }
 
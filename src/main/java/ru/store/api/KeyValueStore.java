@@ -3,7 +3,12 @@ package ru.store.api;
 
 import ru.store.impl.KeyValue;
 
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
@@ -36,6 +41,24 @@ public interface KeyValueStore<K, V> extends AutoCloseable {
      */
     boolean put(K key, V value);
 
+    /**
+     * Returns the version of the value, every change of the key makes a new version <br>
+     * sync operation
+     * @param key
+     * @return version of the value or {@code 0} if the key isn't stored
+     */
+    long getVersion(K key);
+
+    /**
+     * Associates the value with the key only if the version of the key hasn't been changed <br>
+     * sync operation
+     * @param key
+     * @param value
+     * @param expectedVersion version returned by {@link #getVersion(Object)}, {@code 0} to put only an absent key
+     * @return false if the version doesn't match or the write has failed
+     */
+    boolean putIfVersion(K key, V value, long expectedVersion);
+
     CompletableFuture<V> get(K key, CompletableFuture<V> handler);
 
     /**
@@ -48,12 +71,96 @@ public interface KeyValueStore<K, V> extends AutoCloseable {
 
     void remove(K key);
 
+    /**
+     * Returns the value as a channel, for values which don't fit into the memory <br>
+     * sync operation
+     * @param key
+     * @return channel of the value which must be closed by the caller, or {@code null} if the key isn't stored
+     */
+    ReadableByteChannel getChannel(K key);
+
+    /**
+     * Returns the value as a stream, for values which don't fit into the memory <br>
+     * sync operation
+     * @param key
+     * @return stream of the value which must be closed by the caller, or {@code null} if the key isn't stored
+     */
+    default InputStream getStream(K key) {
+        ReadableByteChannel channel = getChannel(key);
+        return channel == null ? null : Channels.newInputStream(channel);
+    }
+
+    /**
+     * Associates the content of the channel with the key, the length of the content doesn't have to be known <br>
+     * sync operation, the value is published at once when the channel is read until its end
+     * @param key
+     * @param source
+     */
+    boolean putChannel(K key, ReadableByteChannel source);
+
+    /**
+     * Associates the content of the stream with the key, the length of the content doesn't have to be known <br>
+     * sync operation, the value is published at once when the stream is read until its end
+     * @param key
+     * @param source
+     */
+    default boolean putStream(K key, InputStream source) {
+        return putChannel(key, Channels.newChannel(source));
+    }
+
+    /**
+     * Associates all the values with their keys <br>
+     * async operation, many writes are kept in flight and share the syncs where the durability allows
+     * @param entries
+     * @return future completed when all the entries are stored, exceptionally with the first failure
+     */
+    CompletableFuture<Boolean> putAll(Map<K, V> entries);
+
+    /**
+     * Returns the values of the keys <br>
+     * async operation, many reads are kept in flight
+     * @param keys
+     * @return future of the map of the stored keys to their values, keys which aren't stored are absent
+     */
+    CompletableFuture<Map<K, V>> getAll(Collection<K> keys);
+
+    /**
+     * Removes the keys <br>
+     * async operation
+     * @param keys
+     * @return future of the count of removed keys
+     */
+    CompletableFuture<Integer> removeAll(Collection<K> keys);
+
     Stream<KeyValue<K, V>> entries();
 
     Set<K> keys();
 
+    /**
+     * Returns the keys of the range in ascending order <br>
+     * the iterator is lazy, the keys are read from it while it's iterated
+     * @param fromKey lowest key, inclusive, null for no lower bound
+     * @param toKey highest key, exclusive, null for no upper bound
+     * @return iterator of the stored keys of the range
+     */
+    Iterator<K> scan(K fromKey, K toKey);
+
+    /**
+     * Returns the keys starting with the prefix in ascending order, e.g. {@code "tenant/entity/"} <br>
+     * the iterator is lazy, the keys are read from it while it's iterated
+     * @param prefix
+     * @return iterator of the stored keys starting with the prefix
+     */
+    Iterator<K> scanPrefix(K prefix);
+
     Collection<V> values();
 
     void clear();
 
+    /**
+     * Writes the values acknowledged from memory to the storage, see {@link KeyValueFactory.KeyValueBuilder#withWriteBehind} <br>
+     * sync operation
+     */
+    void flush();
+
 }
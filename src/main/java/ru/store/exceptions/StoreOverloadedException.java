@@ -0,0 +1,10 @@
+package ru.store.exceptions;
+
+/**
+ * The operation is rejected because the limits of operations in flight are reached
+ */
+public class StoreOverloadedException extends StoreEngineOperationException {
+    public StoreOverloadedException(String message) {
+        super(message, null);
+    }
+}
@@ -0,0 +1,166 @@
+package ru.store.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter of the stored keys: a negative answer means the key is surely absent.
+ * Keys are only added, a removed key stays in the filter until it's rebuilt, which only costs false positives.
+ * The k bits of a key are derived from one 64-bit hash by double hashing.
+ */
+public final class BloomFilter {
+
+    private static final int MAGIC = 0x4B56424C;
+    private static final double LN2 = Math.log(2);
+
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLongArray words;
+    private final LongAdder insertions = new LongAdder();
+    private final LongAdder negatives = new LongAdder();
+
+    /**
+     * @param bitCount  size of the filter in bits, rounded up to 64
+     * @param hashCount count of bits of every key
+     */
+    public BloomFilter(long bitCount, int hashCount) {
+        if (bitCount < 1 || hashCount < 1) {
+            throw new IllegalArgumentException(String.format("Invalid size of bloom filter: %d bits, %d hashes", bitCount, hashCount));
+        }
+        long countWords = (bitCount + 63) >>> 6;
+        if (countWords > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter is too large: " + bitCount + " bits");
+        }
+        this.words = new AtomicLongArray((int) countWords);
+        this.bitCount = countWords << 6;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * @param expectedKeys      count of keys at which the filter has the given false positive rate
+     * @param falsePositiveRate wanted probability of a positive answer for an absent key, e.g. 0.01
+     */
+    public static BloomFilter create(long expectedKeys, double falsePositiveRate) {
+        if (expectedKeys < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException(String.format("Invalid bloom filter of %d keys with false positive rate %f",
+                                                             expectedKeys, falsePositiveRate));
+        }
+        long bitCount = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (LN2 * LN2));
+        int hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedKeys * LN2));
+        return new BloomFilter(bitCount, hashCount);
+    }
+
+    public void add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod((long) h1 + (long) i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            while (((current = words.get(word)) & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                // retry the set of the bit
+            }
+        }
+        insertions.increment();
+    }
+
+    /**
+     * @return false if the key has never been added
+     */
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod((long) h1 + (long) i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                negatives.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public long getMemoryBytes() {
+        return bitCount >>> 3;
+    }
+
+    /**
+     * @return count of lookups answered negatively
+     */
+    public long getNegativeCount() {
+        return negatives.sum();
+    }
+
+    /**
+     * @return probability of a false positive for the keys added so far, removed keys included
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashCount * (double) insertions.sum() / bitCount), hashCount);
+    }
+
+    /**
+     * Writes magic(4), bitCount(8), hashCount(4), insertions(8), then the words of the bits
+     */
+    void save(Path file) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            output.writeInt(MAGIC);
+            output.writeLong(bitCount);
+            output.writeInt(hashCount);
+            output.writeLong(insertions.sum());
+            for (int i = 0; i < words.length(); i++) {
+                output.writeLong(words.get(i));
+            }
+        }
+    }
+
+    static BloomFilter load(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Unknown format of bloom filter file " + file);
+            }
+
+            BloomFilter filter = new BloomFilter(input.readLong(), input.readInt());
+            filter.insertions.add(input.readLong());
+            for (int i = 0; i < filter.words.length(); i++) {
+                filter.words.set(i, input.readLong());
+            }
+            return filter;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted bloom filter file " + file, e);
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a of the chars of the key with the finalizer of MurmurHash3
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe53ae63bL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,151 @@
+package ru.store.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spliterator of the entries of the keys of a store whose values are read lazily, on
+ * {@link KeyValue#getValue()}, so a scan filtering entries by key doesn't read the skipped values.
+ * It splits together with the spliterator of the keys, so a parallel stream reads values on many threads.
+ * With a positive prefetch it starts async reads of the next entries ahead of the consumer,
+ * the reads not taken yet are cancelled when the stream is closed.
+ */
+final class EntrySpliterator implements Spliterator<KeyValue<String, byte[]>> {
+
+    private static final Logger LOG = Logger.getLogger(EntrySpliterator.class.getName());
+
+    private final Spliterator<String> keys;
+    private final ValueReader reader;
+    private final AsyncValueReader asyncReader;
+    private final int prefetch;
+    private final Set<EntrySpliterator> opened;
+    private final Deque<Prefetched> window = new ArrayDeque<>();
+    private volatile boolean closed;
+
+    private EntrySpliterator(Spliterator<String> keys, ValueReader reader, AsyncValueReader asyncReader,
+                             int prefetch, Set<EntrySpliterator> opened) {
+        this.keys = keys;
+        this.reader = reader;
+        this.asyncReader = asyncReader;
+        this.prefetch = prefetch;
+        this.opened = opened;
+        opened.add(this);
+    }
+
+    /**
+     * @param prefetch count of values read ahead of the consumer by every split, 0 reads a value only on demand
+     * @return stream of the entries, it must be closed when the values are read ahead
+     */
+    static Stream<KeyValue<String, byte[]>> stream(Spliterator<String> keys, ValueReader reader,
+                                                   AsyncValueReader asyncReader, int prefetch) {
+        Set<EntrySpliterator> opened = ConcurrentHashMap.newKeySet();
+        EntrySpliterator entries = new EntrySpliterator(keys, reader, asyncReader, prefetch, opened);
+        return StreamSupport.stream(entries, false)
+                            .onClose(() -> opened.forEach(EntrySpliterator::close));
+    }
+
+    @Override
+    public synchronized boolean tryAdvance(Consumer<? super KeyValue<String, byte[]>> action) {
+        if (closed) {
+            return false;
+        }
+        while (window.size() < prefetch && keys.tryAdvance(key -> window.add(new Prefetched(key, start(key))))) {
+            // fill the window of reads ahead
+        }
+
+        Prefetched next = window.poll();
+        if (next != null) {
+            action.accept(new KeyValue<>(next.key, () -> join(next)));
+            return true;
+        }
+        return keys.tryAdvance(key -> action.accept(new KeyValue<>(key, () -> load(key))));
+    }
+
+    @Override
+    public Spliterator<KeyValue<String, byte[]>> trySplit() {
+        Spliterator<String> split = keys.trySplit();
+        return split == null ? null : new EntrySpliterator(split, reader, asyncReader, prefetch, opened);
+    }
+
+    @Override
+    public long estimateSize() {
+        return keys.estimateSize() + window.size();
+    }
+
+    @Override
+    public int characteristics() {
+        return keys.characteristics() & (DISTINCT | NONNULL | CONCURRENT);
+    }
+
+    private synchronized void close() {
+        closed = true;
+        Prefetched prefetched;
+        while ((prefetched = window.poll()) != null) {
+            if (prefetched.future != null) {
+                prefetched.future.cancel(false);
+            }
+        }
+    }
+
+    private CompletableFuture<byte[]> start(String key) {
+        try {
+            return asyncReader.read(key);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private byte[] join(Prefetched prefetched) {
+        if (prefetched.future != null) {
+            try {
+                return prefetched.future.join();
+            } catch (Exception e) {
+                // the read ahead has failed or was rejected, read the value on the caller thread
+            }
+        }
+        return load(prefetched.key);
+    }
+
+    /**
+     * @return value of the key, null if it can't be read
+     */
+    private byte[] load(String key) {
+        try {
+            return reader.read(key);
+        } catch (Exception e) {
+            LOG.warning(String.format("Error read value of key[%s]: %s", key, e.getMessage()));
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    interface ValueReader {
+
+        byte[] read(String key) throws Exception;
+    }
+
+    @FunctionalInterface
+    interface AsyncValueReader {
+
+        CompletableFuture<byte[]> read(String key) throws Exception;
+    }
+
+    private static final class Prefetched {
+
+        private final String key;
+        private final CompletableFuture<byte[]> future;
+
+        private Prefetched(String key, CompletableFuture<byte[]> future) {
+            this.key = key;
+            this.future = future;
+        }
+    }
+}
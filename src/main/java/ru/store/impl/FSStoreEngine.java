@@ -1,31 +1,62 @@
 package ru.store.impl;
 
 import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.async.AdmissionController;
+import ru.store.impl.async.BufferPool;
 import ru.store.impl.async.ByteBufferReadHandler;
 import ru.store.impl.async.ByteBufferWriteHandler;
-import ru.store.impl.durability.Retrier;
+import ru.store.impl.async.EngineExecutors;
+import ru.store.impl.async.OverloadPolicy;
+import ru.store.impl.async.Pipeline;
+import ru.store.impl.async.WriteCoalescer;
+import ru.store.impl.codec.Codec;
+import ru.store.impl.codec.DecodingChannel;
+import ru.store.impl.codec.DeflateCodec;
+import ru.store.impl.durability.Durability;
+import ru.store.impl.durability.GroupCommitter;
+import ru.store.impl.durability.AsyncRetrier;
+import ru.store.impl.durability.ExecutorByTimeout;
+import ru.store.impl.durability.RetryPolicy;
+import ru.store.impl.durability.Task;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.CopyOption;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -40,6 +71,13 @@ public class FSStoreEngine implements StoreEngine<String, byte[]> {
             StandardOpenOption.SYNC};
 
     private static final Set<OpenOption> OPEN_OPTIONS_ON_PUT_SET = new HashSet<>(Arrays.asList(OPEN_OPTIONS_ON_PUT));
+    private static final OpenOption[] OPEN_OPTIONS_ON_PUT_DSYNC = {StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption
+            .TRUNCATE_EXISTING,
+            StandardOpenOption.DSYNC};
+    private static final Set<OpenOption> OPEN_OPTIONS_ON_PUT_DSYNC_SET = new HashSet<>(Arrays.asList(OPEN_OPTIONS_ON_PUT_DSYNC));
+    private static final OpenOption[] OPEN_OPTIONS_ON_PUT_NO_SYNC = {StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption
+            .TRUNCATE_EXISTING};
+    private static final Set<OpenOption> OPEN_OPTIONS_ON_PUT_NO_SYNC_SET = new HashSet<>(Arrays.asList(OPEN_OPTIONS_ON_PUT_NO_SYNC));
     private static final OpenOption[] OPEN_OPTIONS_ON_GET = {StandardOpenOption.READ};
     private static final Set<OpenOption> OPEN_OPTIONS_ON_GET_SET = new HashSet<>(Arrays.asList(OPEN_OPTIONS_ON_GET));
 
@@ -51,53 +89,459 @@ public class FSStoreEngine implements StoreEngine<String, byte[]> {
 
     private static final int MAX_SIZE_BUFFER = Integer.MAX_VALUE - 8;
     private static final int SIZE_BYTE_BUFFER = 4096;
+    private static final long SIZE_TRANSFER_CHUNK = 1024 * 1024;
     private static final byte[] EMPTY_BYTES = new byte[0];
-    private static final int DEFAULT_COUNT_RETRY = 1000;
+    private static final long DEFAULT_SYNC_PERIOD_MILLIS = 1000;
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+    private static final long DEFAULT_MMAP_THRESHOLD = 1024 * 1024;
+    private static final AtomicLong TEMP_COUNTER = new AtomicLong();
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0).asReadOnlyBuffer();
     public static final String DEFAULT_EXTENSION_DATA_FILE = ".data";
+    private static final String PREFIX_INDEX_FILE = "keys";
+    private static final String EXTENSION_HINT_FILE = ".hint";
+    /**
+     * Shards modified this long before a snapshot has started are walked when it's loaded, which covers
+     * the coarse modification times of some filesystems and writes moved into place during the snapshot
+     */
+    private static final long SNAPSHOT_MTIME_SLACK_MILLIS = 10_000;
+    private static final String EXTENSION_BLOOM_FILTER_FILE = ".bloom";
 
 
     private final Path tempPath;
     private final Path dataPath;
+    private final KeyDirectory keyDirectory = new KeyDirectory();
+    private final KeyVersions versions = new KeyVersions();
     private String extensionDataFile = DEFAULT_EXTENSION_DATA_FILE;
+    private ShardedLayout layout;
 
     private ExecutorService readerExecutor;
 
     private ExecutorService writerExecutor;
-    private int countRetry = DEFAULT_COUNT_RETRY;
-
-    private boolean trace = false;
+    private final boolean ownsExecutors;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private final ScheduledExecutorService retryScheduler;
+    private final ExecutorByTimeout<Runnable> retryExecutor;
+    private GroupCommitter groupCommitter;
+    private volatile Durability durability = Durability.FULL;
+    private long syncPeriodMillis = DEFAULT_SYNC_PERIOD_MILLIS;
+    private long mmapThreshold = DEFAULT_MMAP_THRESHOLD;
+    private int readChunkSize = SIZE_BYTE_BUFFER;
+    private volatile int scanPrefetch;
+    private BloomFilter persistedBloomFilter;
+    private final BufferPool bufferPool = new BufferPool();
+    private final WriteCoalescer<byte[]> writeCoalescer =
+            new WriteCoalescer<>(this::writeValue);
+    private volatile boolean writeCoalescing = true;
+    private final AdmissionController readAdmission = new AdmissionController();
+    private final AdmissionController writeAdmission = new AdmissionController();
+    private final Set<Path> unsyncedPaths = ConcurrentHashMap.newKeySet();
+    private final Set<Path> unsyncedDirectories = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService syncScheduler;
+    private long snapshotPeriodMillis;
+    private ScheduledExecutorService snapshotScheduler;
+    private final Object snapshotLock = new Object();
+    private final LongAdder retries = new LongAdder();
+    private final Map<Byte, Codec> codecs = new ConcurrentHashMap<>();
+    private volatile Codec codec;
+    private volatile int compressionThreshold;
 
     public FSStoreEngine(String dataPath) throws StoreEngineOperationException {
-        this(dataPath, Paths.get(dataPath, DEFAULT_PREFIX_TEMP_DIR + System.currentTimeMillis()).toString(), DEFAULT_COUNT_READ_THREAD, DEFAULT_COUNT_WRITE_THREADS);
+        this(dataPath, newTempPath(dataPath), DEFAULT_COUNT_READ_THREAD, DEFAULT_COUNT_WRITE_THREADS);
+    }
+
+    /**
+     * @return temp directory inside the data path which isn't used by another engine of this process
+     */
+    public static String newTempPath(String dataPath) {
+        return Paths.get(dataPath, DEFAULT_PREFIX_TEMP_DIR + System.currentTimeMillis() + "-" + TEMP_COUNTER.incrementAndGet()).toString();
     }
 
     public FSStoreEngine(String dataPath, String tempPath, int countReadThreads, int countWriteThread) throws StoreEngineOperationException {
+        this(dataPath, tempPath, Executors.newFixedThreadPool(countReadThreads), Executors.newFixedThreadPool(countWriteThread), true);
+    }
+
+    /**
+     * @param readerExecutor executor of the async reads, it isn't shut down by the engine
+     * @param writerExecutor executor of the async writes, it isn't shut down by the engine
+     */
+    public FSStoreEngine(String dataPath, String tempPath, ExecutorService readerExecutor, ExecutorService writerExecutor)
+            throws StoreEngineOperationException {
+        this(dataPath, tempPath, readerExecutor, writerExecutor, false);
+    }
+
+    /**
+     * @param ownsExecutors whether the executors are shut down by {@link #close()}
+     */
+    public FSStoreEngine(String dataPath, String tempPath, ExecutorService readerExecutor, ExecutorService writerExecutor,
+                         boolean ownsExecutors) throws StoreEngineOperationException {
+        this.ownsExecutors = ownsExecutors;
         this.dataPath = Paths.get(dataPath);
         this.tempPath = Paths.get(tempPath);
+        this.layout = new ShardedLayout(this.dataPath, extensionDataFile);
+        registerCodec(new DeflateCodec());
 
         try {
             Files.createDirectory(this.tempPath);
         } catch (IOException e) {
             throw new StoreEngineOperationException(String.format("Error create temp directory[%s]", tempPath), e);
         }
-        readerExecutor = Executors.newFixedThreadPool(countReadThreads);
-        writerExecutor = Executors.newFixedThreadPool(countWriteThread);
+        loadKeyDirectory();
+        this.readerExecutor = readerExecutor;
+        this.writerExecutor = writerExecutor;
+        // started last, so a failed construction doesn't leak its thread
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "store-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retryExecutor = ExecutorByTimeout.scheduled(retryScheduler);
     }
 
     public String getExtensionDataFile() {
         return extensionDataFile;
     }
 
-    public void setExtensionDataFile(String extensionDataFile) {
+    public void setExtensionDataFile(String extensionDataFile) throws StoreEngineOperationException {
         this.extensionDataFile = extensionDataFile;
+        this.layout = new ShardedLayout(dataPath, extensionDataFile);
+        loadKeyDirectory();
     }
 
     public void setCountRetry(int countRetry) {
-        this.countRetry = countRetry;
+        this.retryPolicy = retryPolicy.withMaxAttempts(countRetry);
     }
 
     public int getCountRetry() {
-        return countRetry;
+        return retryPolicy.getMaxAttempts();
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Retries of the renames and deletes of the files
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public long getMmapThreshold() {
+        return mmapThreshold;
+    }
+
+    /**
+     * @param mmapThreshold size of value starting from which it's read through a memory mapping of its file
+     */
+    public void setMmapThreshold(long mmapThreshold) {
+        this.mmapThreshold = mmapThreshold;
+    }
+
+    public int getReadChunkSize() {
+        return readChunkSize;
+    }
+
+    /**
+     * @param readChunkSize size of the chunks of streamed reads, the buffers of reads are pooled
+     */
+    public void setReadChunkSize(int readChunkSize) {
+        if (readChunkSize < 1) {
+            throw new IllegalArgumentException("Size of read chunk must be positive: " + readChunkSize);
+        }
+        this.readChunkSize = readChunkSize;
+    }
+
+    public int getScanPrefetch() {
+        return scanPrefetch;
+    }
+
+    /**
+     * @param scanPrefetch count of values read ahead of the consumer of {@link #entryStream()} by every split,
+     *                     0 reads a value only when it's taken
+     */
+    public void setScanPrefetch(int scanPrefetch) {
+        if (scanPrefetch < 0) {
+            throw new IllegalArgumentException("Count of prefetched values must not be negative: " + scanPrefetch);
+        }
+        this.scanPrefetch = scanPrefetch;
+    }
+
+    public BloomFilter getBloomFilter() {
+        return keyDirectory.getFilter();
+    }
+
+    /**
+     * Puts a bloom filter of the keys in front of the key directory, so most lookups of absent keys
+     * don't probe it. The filter saved by {@link #close()} is reused when it's of the same size,
+     * otherwise it's built from the stored keys.
+     *
+     * @param expectedKeys      count of keys at which the filter has the false positive rate,
+     *                          the count of stored keys if it's greater
+     * @param falsePositiveRate wanted probability of a positive answer for an absent key, it defines
+     *                          the memory of the filter: about 1.2 bytes per key at 0.01
+     */
+    public void setBloomFilter(long expectedKeys, double falsePositiveRate) {
+        BloomFilter filter = BloomFilter.create(Math.max(expectedKeys, keyDirectory.size()), falsePositiveRate);
+        BloomFilter persisted = persistedBloomFilter;
+        persistedBloomFilter = null;
+        if (persisted != null && persisted.getBitCount() == filter.getBitCount()
+                && persisted.getHashCount() == filter.getHashCount()) {
+            keyDirectory.setFilter(persisted, true);
+        } else {
+            keyDirectory.setFilter(filter, false);
+        }
+    }
+
+    public void disableBloomFilter() {
+        keyDirectory.setFilter(null, false);
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Compresses the values written from now on which are at least minSize bytes long, a value is stored raw
+     * when the codec doesn't make it smaller. Streamed writes ({@link #write(String, Iterator, CompletableFuture)},
+     * {@link #writeFrom}) are stored raw, the async puts of the store write whole values and are compressed.
+     *
+     * @param codec codec of the new values, null disables the compression, stored compressed values stay readable
+     */
+    public void setCompression(Codec codec, int minSize) {
+        if (codec != null) {
+            registerCodec(codec);
+        }
+        this.compressionThreshold = minSize;
+        this.codec = codec;
+    }
+
+    /**
+     * Makes the values compressed by the codec readable, {@link DeflateCodec} is registered by default
+     */
+    public void registerCodec(Codec codec) {
+        if (codec.getId() <= 0) {
+            throw new IllegalArgumentException("Id of codec must be positive: " + codec.getId());
+        }
+        codecs.put(codec.getId(), codec);
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public boolean isWriteCoalescing() {
+        return writeCoalescing;
+    }
+
+    /**
+     * Enables coalescing of concurrent async writes of the same key, enabled by default
+     */
+    public void setWriteCoalescing(boolean writeCoalescing) {
+        this.writeCoalescing = writeCoalescing;
+    }
+
+    /**
+     * @return count of async writes superseded by a newer value of the key before their I/O has started
+     */
+    public long getCoalescedWriteCount() {
+        return writeCoalescer.getCoalescedCount();
+    }
+
+    /**
+     * Limits the async reads in flight, the bytes are the lengths of the values being read
+     */
+    public void setReadLimits(int maxOperations, long maxBytes, OverloadPolicy policy) {
+        readAdmission.setLimits(maxOperations, maxBytes, policy);
+    }
+
+    /**
+     * Limits the async writes in flight, the bytes are the lengths of the values being written,
+     * a streamed write counts the length of its first chunk
+     */
+    public void setWriteLimits(int maxOperations, long maxBytes, OverloadPolicy policy) {
+        writeAdmission.setLimits(maxOperations, maxBytes, policy);
+    }
+
+    /**
+     * @return admission of the async reads with its in-flight and queue depth metrics
+     */
+    public AdmissionController getReadAdmission() {
+        return readAdmission;
+    }
+
+    /**
+     * @return admission of the async writes with its in-flight and queue depth metrics
+     */
+    public AdmissionController getWriteAdmission() {
+        return writeAdmission;
+    }
+
+    /**
+     * @return count of retried attempts of moves and deletes of files
+     */
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    /**
+     * @return count of async reads waiting for a thread of the reader executor
+     */
+    public long getReaderQueueDepth() {
+        return EngineExecutors.queueDepth(readerExecutor);
+    }
+
+    /**
+     * @return count of async writes waiting for a thread of the writer executor
+     */
+    public long getWriterQueueDepth() {
+        return EngineExecutors.queueDepth(writerExecutor);
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public synchronized void setDurability(Durability durability) {
+        this.durability = durability;
+        restartPeriodicSync();
+    }
+
+    public long getSyncPeriodMillis() {
+        return syncPeriodMillis;
+    }
+
+    /**
+     * @param syncPeriodMillis period of the background sync for {@link Durability#PERIODIC}
+     */
+    public synchronized void setSyncPeriodMillis(long syncPeriodMillis) {
+        this.syncPeriodMillis = syncPeriodMillis;
+        restartPeriodicSync();
+    }
+
+    public long getSnapshotPeriodMillis() {
+        return snapshotPeriodMillis;
+    }
+
+    /**
+     * @param snapshotPeriodMillis period of the background {@link #snapshot()}, 0 writes it only on close
+     */
+    public synchronized void setSnapshotPeriodMillis(long snapshotPeriodMillis) {
+        this.snapshotPeriodMillis = snapshotPeriodMillis;
+        if (snapshotScheduler != null) {
+            stop(snapshotScheduler);
+            snapshotScheduler = null;
+        }
+
+        if (snapshotPeriodMillis > 0) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "store-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    snapshot();
+                } catch (StoreEngineOperationException e) {
+                    LOG.warning(e.getMessage() + e.getCause().getMessage());
+                }
+            }, snapshotPeriodMillis, snapshotPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Group commit is used for {@link Durability#DATA_SYNC} and {@link Durability#FULL}.
+     * Writes don't sync every file on their own anymore: the file syncs and renames of writes which arrive within
+     * the window (or until the batch is full) are done by one committer and share one sync of every shard directory
+     * they touched.
+     * Futures of the writes are completed after their batch is durable.
+     */
+    public synchronized void enableGroupCommit(int maxBatchSize, long windowMillis) {
+        disableGroupCommit();
+        groupCommitter = new GroupCommitter("group-commit-" + dataPath.getFileName(), maxBatchSize, windowMillis,
+                                            TimeUnit.MILLISECONDS, () -> {
+            if (durability == Durability.FULL) {
+                syncDirectories(unsyncedDirectories);
+            }
+        }, writerExecutor);
+    }
+
+    public synchronized void disableGroupCommit() {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+            groupCommitter = null;
+        }
+    }
+
+    /**
+     * Flush the files written since the last sync, used by {@link Durability#PERIODIC}
+     */
+    public void sync() throws StoreEngineOperationException {
+        if (unsyncedPaths.isEmpty()) {
+            return;
+        }
+
+        Set<Path> directories = new HashSet<>();
+        Iterator<Path> paths = unsyncedPaths.iterator();
+        try {
+            while (paths.hasNext()) {
+                Path path = paths.next();
+                paths.remove();
+                directories.add(path.getParent());
+                try {
+                    FSUtils.force(path, false);
+                } catch (NoSuchFileException e) {
+                    // removed or replaced meanwhile
+                }
+            }
+            syncDirectories(directories);
+        } catch (IOException e) {
+            throw new StoreEngineOperationException(String.format("Error sync dataPath[%s]", dataPath), e);
+        }
+    }
+
+    private static void syncDirectories(Set<Path> directories) throws IOException {
+        Iterator<Path> iterator = directories.iterator();
+        while (iterator.hasNext()) {
+            Path directory = iterator.next();
+            iterator.remove();
+            FSUtils.syncDirectory(directory);
+        }
+    }
+
+    private void restartPeriodicSync() {
+        if (syncScheduler != null) {
+            stop(syncScheduler);
+            syncScheduler = null;
+        }
+
+        if (durability == Durability.PERIODIC) {
+            syncScheduler = Executors.newSingleThreadScheduledExecutor();
+            syncScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                } catch (StoreEngineOperationException e) {
+                    LOG.warning(e.getMessage() + e.getCause().getMessage());
+                }
+            }, syncPeriodMillis, syncPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Shuts the scheduler down and waits for its running task, so it doesn't race with the work that follows
+     */
+    private static void stop(ScheduledExecutorService scheduler) {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warning("Background task isn't completed on stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -106,17 +550,28 @@ public class FSStoreEngine implements StoreEngine<String, byte[]> {
             key = "null";
         }
 
-        CompletableFuture<byte[]> result = new CompletableFuture<>();
-        File file = getResultPath(key).toFile();
-        if (!file.exists()) {
-            result.complete(EMPTY_BYTES);
-            return result;
+        long length = keyDirectory.length(key);
+        if (length == KeyDirectory.ABSENT) {
+            return CompletableFuture.completedFuture(EMPTY_BYTES);
         }
 
-        validateSizeBuffer(file);
-        ByteBuffer byteBuffer = ByteBuffer.allocate((int) file.length());
-        return read(key, null, byteBuffer::put).
-                                                       thenApply(res -> res ? byteBuffer.array() : EMPTY_BYTES);
+        validateSizeBuffer(length);
+        final String readKey = key;
+        return readAdmission.submit(length, () -> {
+            if (length >= mmapThreshold) {
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return readSync(readKey);
+                    } catch (StoreEngineOperationException e) {
+                        throw new CompletionException(e);
+                    }
+                }, readerExecutor);
+            }
+
+            ByteBuffer byteBuffer = ByteBuffer.allocate((int) length);
+            return read(readKey, null, byteBuffer::put).
+                                                            thenApply(res -> res ? byteBuffer.array() : EMPTY_BYTES);
+        });
     }
 
     @Override
@@ -125,68 +580,535 @@ public class FSStoreEngine implements StoreEngine<String, byte[]> {
             key = "null";
         }
 
-        Path path = getResultPath(key);
-        if (!path.toFile().exists()) {
+        long length = keyDirectory.length(key);
+        if (length == KeyDirectory.ABSENT) {
             return EMPTY_BYTES;
         }
 
         try {
-            return Files.readAllBytes(path);
+            if (length >= mmapThreshold) {
+                return toBytes(mapValue(key));
+            }
+            return readValue(key);
+        } catch (NoSuchFileException e) {
+            forgetMissing(key);
+            return EMPTY_BYTES;
         } catch (IOException e) {
             throw new StoreEngineOperationException("Error read key " + key, e);
         }
     }
 
+    /**
+     * Drops the key of a file which is missing, e.g. written with {@link Durability#NONE} and lost by a crash
+     * after the snapshot. The file is checked under the lock of the key, so a concurrent write isn't dropped.
+     */
+    private void forgetMissing(String key) {
+        Lock lock = versions.lockOf(key);
+        lock.lock();
+        try {
+            if (Files.notExists(getResultPath(key))) {
+                keyDirectory.remove(key);
+                versions.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Values starting from the mmap threshold are returned as a read-only memory mapping of their file
+     * without any copy into the heap. The mapping stays valid when the key is overwritten or removed,
+     * because files are never modified in place: a new value is moved over the old file.
+     * A compressed value is decompressed into the heap.
+     *
+     * @return read-only view of the value, empty if the key isn't stored
+     */
+    @Override
+    public ByteBuffer readBuffer(String key) throws StoreEngineOperationException {
+        if (key == null) {
+            key = "null";
+        }
+
+        long length = keyDirectory.length(key);
+        if (length == KeyDirectory.ABSENT) {
+            return EMPTY_BUFFER;
+        }
+        if (length < mmapThreshold) {
+            return ByteBuffer.wrap(readSync(key)).asReadOnlyBuffer();
+        }
+
+        try {
+            return mapValue(key).asReadOnlyBuffer();
+        } catch (NoSuchFileException e) {
+            forgetMissing(key);
+            return EMPTY_BUFFER;
+        } catch (IOException e) {
+            throw new StoreEngineOperationException("Error map key " + key, e);
+        }
+    }
+
+    /**
+     * @return mapping of a raw value, a compressed value is decompressed from the mapping
+     */
+    private ByteBuffer mapValue(String key) throws IOException {
+        long offset = ShardedLayout.valueOffset(key);
+        try (FileChannel channel = FileChannel.open(getResultPath(key), StandardOpenOption.READ)) {
+            long size = channel.size();
+            validateSizeBuffer(size);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int magic = mapped.getInt(0);
+            mapped.position((int) offset);
+            return decodeValue(magic, mapped.slice());
+        }
+    }
+
+    /**
+     * The header and the value are read by one scattering read
+     */
+    private byte[] readValue(String key) throws IOException {
+        int offset = (int) ShardedLayout.valueOffset(key);
+        try (FileChannel channel = FileChannel.open(getResultPath(key), StandardOpenOption.READ)) {
+            long size = channel.size() - offset;
+            validateSizeBuffer(size);
+            ByteBuffer[] file = {ByteBuffer.allocate(offset), ByteBuffer.allocate((int) Math.max(size, 0))};
+            while ((file[0].hasRemaining() || file[1].hasRemaining()) && channel.read(file) >= 0) {
+                // read until the end of the value
+            }
+            file[1].flip();
+            return toBytes(decodeValue(file[0].getInt(0), file[1]));
+        }
+    }
+
+    /**
+     * @param magic  magic of the data file
+     * @param stored content of the file after the key
+     * @return raw value
+     */
+    private ByteBuffer decodeValue(int magic, ByteBuffer stored) throws IOException {
+        if (magic == ShardedLayout.MAGIC) {
+            return stored;
+        }
+        if (magic != ShardedLayout.MAGIC_ENCODED) {
+            throw new IOException("Unknown format of data file");
+        }
+
+        Codec valueCodec = codecOf(stored.get());
+        long rawLength = stored.getLong();
+        validateSizeBuffer(rawLength);
+        ByteBuffer raw = ByteBuffer.allocate((int) rawLength);
+        try (Codec.Decoder decoder = valueCodec.newDecoder()) {
+            decoder.decode(stored, raw::put);
+        } catch (BufferOverflowException e) {
+            throw new IOException("Corrupted compressed value", e);
+        }
+        if (raw.hasRemaining()) {
+            throw new IOException("Corrupted compressed value");
+        }
+        raw.flip();
+        return raw;
+    }
+
+    private Codec codecOf(byte codecId) throws IOException {
+        Codec valueCodec = codecs.get(codecId);
+        if (valueCodec == null) {
+            throw new IOException("Unknown codec of data file: " + codecId);
+        }
+        return valueCodec;
+    }
+
+    private static byte[] toBytes(ByteBuffer value) {
+        if (value.hasArray() && value.arrayOffset() == 0 && value.position() == 0 && value.remaining() == value.array().length) {
+            return value.array();
+        }
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        return bytes;
+    }
+
     @Override
     public CompletableFuture<Boolean> read(String key, Consumer<byte[]> listener) throws StoreEngineOperationException {
-        CompletableFuture<Boolean> result = new CompletableFuture<>();
-        File file = getResultPath(key).toFile();
-        if (!file.exists()) {
-            result.complete(true);
+        if (key == null) {
+            key = "null";
+        }
+
+        if (!keyDirectory.contains(key)) {
             listener.accept(EMPTY_BYTES);
-            return result;
+            return CompletableFuture.completedFuture(true);
         }
 
-        return read(key, null, listener);
+        final String readKey = key;
+        return readAdmission.submit(keyDirectory.length(key), () -> read(readKey, null, ByteBufferReadHandler.copying(listener)));
     }
 
-    private void validateSizeBuffer(File file) {
-        if (file.length() > MAX_SIZE_BUFFER) {
-            throw new IllegalArgumentException(String.format("Size file [%s Bytes] too big", file.length()));
+    /**
+     * Chunks are read into pooled direct buffers, so the read doesn't allocate a buffer nor a copy per chunk
+     */
+    @Override
+    public CompletableFuture<Boolean> readChunks(String key, Consumer<ByteBuffer> listener) throws StoreEngineOperationException {
+        if (key == null) {
+            key = "null";
+        }
+
+        if (!keyDirectory.contains(key)) {
+            listener.accept(EMPTY_BUFFER.duplicate());
+            return CompletableFuture.completedFuture(true);
+        }
+
+        final String readKey = key;
+        return readAdmission.submit(keyDirectory.length(key), () -> read(readKey, null, listener));
+    }
+
+    private void validateSizeBuffer(long length) {
+        if (length > MAX_SIZE_BUFFER) {
+            throw new IllegalArgumentException(String.format("Size file [%s Bytes] too big", length));
         }
     }
 
     @Override
     public boolean remove(String key) throws StoreEngineOperationException {
+        Path resultPathKey = await(removeUnsynced(key), "Error remove key " + key);
+        if (resultPathKey == null) {
+            return false;
+        }
+
+        if (durability == Durability.FULL) {
+            try {
+                FSUtils.syncDirectory(resultPathKey.getParent());
+            } catch (IOException e) {
+                throw new StoreEngineOperationException("Error sync remove of key " + key, e);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return future of the path of the removed file or of null if the key isn't stored
+     */
+    private CompletableFuture<Path> removeUnsynced(String key) {
         if (key == null) {
             key = "null";
         }
 
-        Path sourcePath = getResultPath(key);
-        Path tempPathKey = getTempPathByKey(key + "_d");
-        if (!sourcePath.toFile().exists()) {
-            return false;
+        String removedKey = key;
+        Path resultPathKey = getResultPath(key);
+        Path removedPathKey = getTempPathByKey(key + "_d");
+        return retrier().call(() -> {
+            Lock lock = versions.lockOf(removedKey);
+            lock.lock();
+            try {
+                if (!keyDirectory.contains(removedKey)) {
+                    return false;
+                }
+
+                try {
+                    Files.move(resultPathKey, removedPathKey, COPY_OPTIONS_ON_PUT);
+                } catch (NoSuchFileException e) {
+                    // lost by a crash after the snapshot
+                    keyDirectory.remove(removedKey);
+                    versions.remove(removedKey);
+                    return false;
+                }
+                keyDirectory.remove(removedKey);
+                versions.remove(removedKey);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }).thenCompose(removed -> removed
+                ? retrier().run(() -> Files.deleteIfExists(removedPathKey)).thenApply(v -> resultPathKey)
+                : CompletableFuture.<Path>completedFuture(null));
+    }
+
+    /**
+     * Removes of the batch are pipelined over the writer pool and every touched shard directory is synced once
+     */
+    @Override
+    public CompletableFuture<Integer> removeAll(Collection<String> keys) {
+        Set<Path> directories = ConcurrentHashMap.newKeySet();
+        AtomicInteger removed = new AtomicInteger();
+        return Pipeline.forEach(keys.iterator(), Pipeline.DEFAULT_MAX_IN_FLIGHT, key -> CompletableFuture.completedFuture(key)
+                .thenComposeAsync(this::removeUnsynced, writerExecutor)
+                .thenAccept(resultPathKey -> {
+                    if (resultPathKey != null) {
+                        directories.add(resultPathKey.getParent());
+                        removed.incrementAndGet();
+                    }
+                })).handle((v, e) -> {
+            Throwable failure = syncBatch(directories, durability == Durability.FULL, e);
+            if (failure != null) {
+                throw new CompletionException(failure);
+            }
+            return removed.get();
+        });
+    }
+
+    /**
+     * Writes of the batch are pipelined over the writer pool and share the syncs: a file is forced once
+     * without the sync per write, and every touched shard directory is synced once after all the moves.
+     * Keys become visible with the moves of their files, a failed sync fails the batch but the moved values stay.
+     */
+    @Override
+    public CompletableFuture<Boolean> writeAll(Map<String, byte[]> entries) {
+        Durability current = durability;
+        Set<Path> directories = ConcurrentHashMap.newKeySet();
+        return Pipeline.forEach(entries.entrySet().iterator(), Pipeline.DEFAULT_MAX_IN_FLIGHT, entry -> CompletableFuture.completedFuture(entry)
+                .thenComposeAsync(e -> writeUnsynced(e.getKey() == null ? "null" : e.getKey(),
+                                                     e.getValue() == null ? EMPTY_BYTES : e.getValue(), current), writerExecutor)
+                .thenAccept(resultPathKey -> directories.add(resultPathKey.getParent()))).handle((v, e) -> {
+            Throwable failure = syncBatch(directories, current == Durability.FULL, e);
+            if (failure != null) {
+                throw new CompletionException(failure);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * @return failure of the batch or of the sync
+     */
+    private Throwable syncBatch(Set<Path> directories, boolean sync, Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (!sync) {
+            return failure;
         }
-        move(key, sourcePath, tempPathKey);
 
-        return true;
+        try {
+            syncDirectories(directories);
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = new StoreEngineOperationException("Error sync batch", e);
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * @return future of the path of the written file, completed when the file is moved
+     */
+    private CompletableFuture<Path> writeUnsynced(String key, byte[] value, Durability current) {
+        Path tempPathKey = getTempPathByKey(key);
+        Path resultPathKey = getResultPath(key);
+        try {
+            writeTemp(tempPathKey, key, value, OPEN_OPTIONS_ON_PUT_NO_SYNC_SET);
+            if (current == Durability.FULL || current == Durability.DATA_SYNC) {
+                try {
+                    FSUtils.force(tempPathKey, current == Durability.FULL);
+                } catch (IOException e) {
+                    try {
+                        Files.deleteIfExists(tempPathKey);
+                    } catch (IOException e1) {
+                        e.addSuppressed(e1);
+                    }
+                    throw new StoreEngineOperationException("Error sync file of key " + key, e);
+                }
+            }
+            prepareShard(resultPathKey);
+        } catch (StoreEngineOperationException e) {
+            CompletableFuture<Path> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        return moveLocked(key, tempPathKey, resultPathKey, () -> {
+            keyDirectory.put(key, value.length);
+            versions.next(key);
+        }).thenApply(v -> {
+            if (current == Durability.PERIODIC) {
+                unsyncedPaths.add(resultPathKey);
+            }
+            return resultPathKey;
+        });
+    }
+
+    private void writeTemp(Path tempPathKey, String key, byte[] value, Set<OpenOption> options) throws StoreEngineOperationException {
+        ByteBuffer[] content = content(key, value);
+        try (FileChannel channel = FileChannel.open(tempPathKey, options)) {
+            while (content[0].hasRemaining() || content[1].hasRemaining()) {
+                channel.write(content);
+            }
+        } catch (IOException e) {
+            throw new StoreEngineOperationException("Error write on file", e);
+        }
     }
 
+    /**
+     * Waits for the async writes in flight, stops the background work and writes the snapshot of the keys,
+     * so the next engine of the data path loads the keys without walking the shards.
+     * The stored values stay on the disk, {@link #clear()} removes them.
+     */
     @Override
     public void close() throws StoreEngineOperationException {
-        clear();
-
         try {
+            if (!writeAdmission.awaitIdle(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warning(String.format("Writes in flight of data path[%s] aren't completed on close", dataPath));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        disableGroupCommit();
+        if (ownsExecutors) {
+            writerExecutor.shutdown();
+            readerExecutor.shutdown();
+            try {
+                writerExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (syncScheduler != null) {
+                stop(syncScheduler);
+                syncScheduler = null;
+            }
+            if (snapshotScheduler != null) {
+                stop(snapshotScheduler);
+                snapshotScheduler = null;
+            }
+        }
+        retryScheduler.shutdown();
+        snapshot();
+        saveBloomFilter();
+
+        try (Stream<Path> leftovers = Files.list(tempPath)) {
+            for (Path leftover : (Iterable<Path>) leftovers::iterator) {
+                Files.deleteIfExists(leftover);
+            }
             Files.delete(tempPath);
         } catch (IOException e) {
             throw new StoreEngineOperationException("Error delete temp path", e);
         }
     }
 
+    /**
+     * Writes the snapshot of the keys (the hint file), which lets the next engine of the data path walk only
+     * the shards modified since the snapshot. With {@link Durability#PERIODIC} the written files are synced first,
+     * with {@link Durability#NONE} the keys of the files lost by a crash are dropped when they're read or removed.
+     * The hint file is written into the temp directory and moved into the data path when it's complete.
+     */
+    public void snapshot() throws StoreEngineOperationException {
+        synchronized (snapshotLock) {
+            if (durability == Durability.PERIODIC) {
+                sync();
+            }
+
+            Path hintPath = getHintPath();
+            if (keyDirectory.size() == 0) {
+                try {
+                    Files.deleteIfExists(hintPath);
+                } catch (IOException e) {
+                    throw new StoreEngineOperationException(String.format("Error delete hint file[%s]", hintPath), e);
+                }
+                return;
+            }
+
+            Path tempHintPath = tempPath.resolve(hintPath.getFileName());
+            try {
+                HintFile.write(tempHintPath, keyDirectory, System.currentTimeMillis());
+                FSUtils.force(tempHintPath, true);
+                Files.move(tempHintPath, hintPath, COPY_OPTIONS_ON_PUT);
+                FSUtils.syncDirectory(dataPath);
+            } catch (IOException e) {
+                throw new StoreEngineOperationException(String.format("Error save hint file[%s]", hintPath), e);
+            }
+        }
+    }
+
+    private void saveBloomFilter() throws StoreEngineOperationException {
+        BloomFilter filter = keyDirectory.getFilter();
+        if (filter == null || keyDirectory.size() == 0) {
+            return;
+        }
+
+        Path filterPath = getBloomFilterPath();
+        Path tempFilterPath = tempPath.resolve(filterPath.getFileName());
+        try {
+            filter.save(tempFilterPath);
+            FSUtils.force(tempFilterPath, true);
+            Files.move(tempFilterPath, filterPath, COPY_OPTIONS_ON_PUT);
+            FSUtils.syncDirectory(dataPath);
+        } catch (IOException e) {
+            throw new StoreEngineOperationException(String.format("Error save bloom filter file[%s]", filterPath), e);
+        }
+    }
+
+    /**
+     * Loads the bloom filter saved by {@link #close()} to be reused by {@link #setBloomFilter}. It's deleted once
+     * it's read, and it's trusted only when the keys have been loaded from the snapshot saved at the same time
+     * and no shard has been modified since. The keys written until it's reused are added to it.
+     *
+     * @param trusted whether the filter holds all the loaded keys
+     */
+    private void loadBloomFilter(boolean trusted) throws StoreEngineOperationException {
+        persistedBloomFilter = null;
+        Path filterPath = getBloomFilterPath();
+        if (!Files.exists(filterPath)) {
+            return;
+        }
+
+        if (trusted) {
+            try {
+                persistedBloomFilter = BloomFilter.load(filterPath);
+                keyDirectory.preloadFilter(persistedBloomFilter);
+            } catch (IOException e) {
+                LOG.warning(String.format("Skip bloom filter file[%s]: %s", filterPath, e.getMessage()));
+            }
+        }
+
+        try {
+            Files.delete(filterPath);
+            FSUtils.syncDirectory(dataPath);
+        } catch (IOException e) {
+            throw new StoreEngineOperationException(String.format("Error delete bloom filter file[%s]", filterPath), e);
+        }
+    }
+
+    private Path getBloomFilterPath() {
+        return dataPath.resolve(PREFIX_INDEX_FILE + extensionDataFile + EXTENSION_BLOOM_FILTER_FILE);
+    }
+
+    /**
+     * Loads the keys from the hint file written by {@link #snapshot()} except the keys of the shards modified
+     * since the snapshot, which have to be walked. The hint file is mapped into memory while it's read.
+     *
+     * @return shards modified since the snapshot, null if there is no valid snapshot
+     */
+    private BitSet loadSnapshot() {
+        Path hintPath = getHintPath();
+        if (!Files.exists(hintPath)) {
+            return null;
+        }
+
+        try {
+            HintFile hint = HintFile.open(hintPath);
+            BitSet modifiedShards = layout.modifiedShards(hint.getCreatedMillis() - SNAPSHOT_MTIME_SLACK_MILLIS);
+            hint.loadInto(keyDirectory, modifiedShards::get);
+            return modifiedShards;
+        } catch (IOException e) {
+            LOG.warning(String.format("Skip hint file[%s]: %s", hintPath, e.getMessage()));
+            keyDirectory.clear();
+            return null;
+        }
+    }
+
+    private Path getHintPath() {
+        return dataPath.resolve(PREFIX_INDEX_FILE + extensionDataFile + EXTENSION_HINT_FILE);
+    }
+
+    /**
+     * With write coalescing a write of a key which is being written only replaces the pending value of the key.
+     * The write is admitted by the write limits before the value is queued for coalescing or I/O.
+     */
     @Override
     public CompletableFuture<byte[]> write(String key, final byte[] value) throws StoreEngineOperationException {
-        return write(key, Collections.singleton(value == null ? EMPTY_BYTES : value).iterator(), null)
-                .thenApply(result -> result ? value : EMPTY_BYTES);
+        byte[] data = value == null ? EMPTY_BYTES : value;
+        String writeKey = key == null ? "null" : key;
+        CompletableFuture<Boolean> written = writeAdmission.submit(data.length, () -> writeCoalescing
+                ? writeCoalescer.write(writeKey, data)
+                : writeValue(writeKey, data));
+        return written.thenApply(result -> result ? value : EMPTY_BYTES);
     }
 
     @Override
@@ -196,43 +1118,281 @@ public class FSStoreEngine implements StoreEngine<String, byte[]> {
         }
 
         Path tempPathKey = getTempPathByKey(key);
+        GroupCommitter committer = activeGroupCommitter();
+        writeTemp(tempPathKey, key, value, putOptionSet(committer));
+
         try {
-            Files.write(tempPathKey, value, OPEN_OPTIONS_ON_PUT);
-            moveWithDelete(tempPathKey, getResultPath(key));
-        } catch (IOException e) {
-            throw new StoreEngineOperationException("Error write on file", e);
+            publish(key, tempPathKey, value.length, committer).join();
+        } catch (CompletionException e) {
+            throw new StoreEngineOperationException("Error publish key " + key, e.getCause());
         }
 
         return value;
     }
 
     @Override
-    public CompletableFuture<Boolean> write(String key,
-                                            Iterator<byte[]> data,
-                                            CompletableFuture<Boolean> resultFuture) throws StoreEngineOperationException {
-        final CompletableFuture<Boolean> handlerCons = resultFuture == null ? new CompletableFuture<>() : resultFuture;
+    public long version(String key) {
+        if (key == null) {
+            key = "null";
+        }
+        return versions.get(key, keyDirectory.contains(key));
+    }
+
+    /**
+     * The value is written to a temp file first, the check and the move are made under the lock of the key,
+     * so the write doesn't join group commits and is synced by itself according to the durability.
+     * A retried move takes the lock again and checks the version again.
+     */
+    @Override
+    public boolean writeIfVersion(String key, byte[] value, long expectedVersion) throws StoreEngineOperationException {
+        if (key == null) {
+            key = "null";
+        }
+        if (value == null) {
+            value = EMPTY_BYTES;
+        }
+
+        String versionedKey = key;
+        long length = value.length;
+        Path tempPathKey = getTempPathByKey(key);
+        Path resultPathKey = getResultPath(key);
+        writeTemp(tempPathKey, key, value, putOptionSet(null));
+        boolean written;
+        try {
+            prepareShard(resultPathKey);
+            written = await(retrier().call(() -> {
+                Lock lock = versions.lockOf(versionedKey);
+                lock.lock();
+                try {
+                    if (version(versionedKey) != expectedVersion) {
+                        return false;
+                    }
+
+                    Files.move(tempPathKey, resultPathKey, COPY_OPTIONS_ON_PUT);
+                    syncPublished(resultPathKey);
+                    keyDirectory.put(versionedKey, length);
+                    versions.next(versionedKey);
+                    return true;
+                } finally {
+                    lock.unlock();
+                }
+            }), "Error publish key " + key);
+        } catch (StoreEngineOperationException e) {
+            deleteTemp(tempPathKey, e);
+            throw e;
+        }
+        if (!written) {
+            deleteTemp(tempPathKey, null);
+        }
+        return written;
+    }
+
+    private static void deleteTemp(Path tempPathKey, Exception failure) throws StoreEngineOperationException {
+        try {
+            Files.deleteIfExists(tempPathKey);
+        } catch (IOException e) {
+            if (failure != null) {
+                failure.addSuppressed(e);
+                return;
+            }
+            throw new StoreEngineOperationException("Error delete temp file " + tempPathKey, e);
+        }
+    }
+
+    /**
+     * The channel of a raw value is the channel of the file positioned at the value, a compressed value
+     * is decompressed while it's read. The channel keeps reading the value it was opened for
+     * when the key is overwritten or removed meanwhile, because new values are moved over the old file.
+     */
+    @Override
+    public ReadableByteChannel openValue(String key) throws StoreEngineOperationException {
+        if (key == null) {
+            key = "null";
+        }
+
+        if (!keyDirectory.contains(key)) {
+            return null;
+        }
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(getResultPath(key), StandardOpenOption.READ);
+            long offset = ShardedLayout.valueOffset(key);
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            ShardedLayout.readFully(channel, magic, 0);
+            if (magic.getInt(0) == ShardedLayout.MAGIC) {
+                channel.position(offset);
+                return channel;
+            }
+            if (magic.getInt(0) != ShardedLayout.MAGIC_ENCODED) {
+                throw new IOException("Unknown format of data file");
+            }
+
+            ByteBuffer codecHeader = ByteBuffer.allocate(ShardedLayout.CODEC_HEADER_LENGTH);
+            ShardedLayout.readFully(channel, codecHeader, offset);
+            Codec valueCodec = codecOf(codecHeader.get(0));
+            channel.position(offset + ShardedLayout.CODEC_HEADER_LENGTH);
+            return new DecodingChannel(channel, valueCodec.newDecoder());
+        } catch (NoSuchFileException e) {
+            forgetMissing(key);
+            return null;
+        } catch (IOException e) {
+            FSUtils.close(channel);
+            throw new StoreEngineOperationException("Error open key " + key, e);
+        }
+    }
+
+    /**
+     * A raw value is transferred by {@link FileChannel#transferTo}, so it goes from the page cache to the target
+     * without a copy in the user space when the target is a socket or a file (sendfile on Linux).
+     * A compressed value is decompressed and copied.
+     */
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws StoreEngineOperationException {
+        try (ReadableByteChannel valueChannel = openValue(key)) {
+            if (valueChannel == null) {
+                return -1;
+            }
+            if (!(valueChannel instanceof FileChannel)) {
+                return copy(valueChannel, target);
+            }
+
+            FileChannel channel = (FileChannel) valueChannel;
+            long offset = channel.position();
+            long size = channel.size();
+            for (long position = offset; position < size; ) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return size - offset;
+        } catch (IOException e) {
+            throw new StoreEngineOperationException("Error transfer key " + key, e);
+        }
+    }
+
+    private static long copy(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE_BYTE_BUFFER * 16);
+        long transferred = 0;
+        while (source.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                transferred += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return transferred;
+    }
+
+    /**
+     * The source is transferred into the temp file chunk by chunk, so the memory doesn't depend on the length
+     * of the value. The file is synced once at the end and published by the atomic move as any other write.
+     */
+    @Override
+    public long writeFrom(String key, ReadableByteChannel source) throws StoreEngineOperationException {
         if (key == null) {
             key = "null";
         }
 
         Path tempPathKey = getTempPathByKey(key);
-        byte[] value = data.next();
-        ByteBuffer valueBuffer = value != null ? ByteBuffer.wrap(value) : ByteBuffer.allocate(0);
-        final Path resultPathKey = getResultPath(key);
+        GroupCommitter committer = activeGroupCommitter();
+        long length;
+        try (FileChannel channel = FileChannel.open(tempPathKey, OPEN_OPTIONS_ON_PUT_NO_SYNC_SET)) {
+            ByteBuffer header = ByteBuffer.wrap(ShardedLayout.header(key));
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
 
-        resultFuture = handlerCons.thenApply(res -> {
+            long position = header.capacity();
+            long transferred;
+            while ((transferred = channel.transferFrom(source, position, SIZE_TRANSFER_CHUNK)) > 0) {
+                position += transferred;
+            }
+            if (committer == null && (durability == Durability.FULL || durability == Durability.DATA_SYNC)) {
+                channel.force(durability == Durability.FULL);
+            }
+            length = position - header.capacity();
+        } catch (IOException e) {
             try {
-                moveWithDelete(tempPathKey, resultPathKey);
-            } catch (Exception e2) {
-                handlerCons.completeExceptionally(e2);
+                Files.deleteIfExists(tempPathKey);
+            } catch (IOException e1) {
+                e.addSuppressed(e1);
             }
-            return res;
-        });
+            throw new StoreEngineOperationException("Error write stream of key " + key, e);
+        }
+
+        try {
+            publish(key, tempPathKey, length, committer).join();
+        } catch (CompletionException e) {
+            throw new StoreEngineOperationException("Error publish key " + key, e.getCause());
+        }
+        return length;
+    }
+
+    /**
+     * The write is admitted by the write limits before its file is opened. The length of the value isn't known
+     * in advance, so the length of the first chunk is taken as the estimate of the bytes in flight.
+     */
+    @Override
+    public CompletableFuture<Boolean> write(String key,
+                                            Iterator<byte[]> data,
+                                            CompletableFuture<Boolean> resultFuture) throws StoreEngineOperationException {
+        String writeKey = key == null ? "null" : key;
+        CompletableFuture<Boolean> result = resultFuture == null ? new CompletableFuture<>() : resultFuture;
+        byte[] first = data.hasNext() ? data.next() : null;
+        Iterator<byte[]> chunks = first == null ? data : prepend(first, data);
+        writeAdmission.submit(first == null ? 0 : first.length,
+                              () -> write(writeKey, ByteBuffer.wrap(ShardedLayout.header(writeKey)), chunks, -1, null))
+                      .whenComplete((res, e) -> {
+                          if (e != null) {
+                              result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                          } else {
+                              result.complete(res);
+                          }
+                      });
+        return result;
+    }
+
+    private static Iterator<byte[]> prepend(byte[] first, Iterator<byte[]> rest) {
+        return new Iterator<byte[]>() {
+
+            private boolean firstTaken;
+
+            @Override
+            public boolean hasNext() {
+                return !firstTaken || rest.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                if (!firstTaken) {
+                    firstTaken = true;
+                    return first;
+                }
+                return rest.next();
+            }
+        };
+    }
+
+    /**
+     * Async write of a whole value, it's compressed as the values of the sync writes
+     */
+    private CompletableFuture<Boolean> writeValue(String key, byte[] value) throws StoreEngineOperationException {
+        ByteBuffer[] content = content(key, value);
+        return write(key, content[0], Collections.singleton(content[1].array()).iterator(), value.length, null);
+    }
+
+    /**
+     * @param length length of the raw value, -1 if it's the length of the written data
+     */
+    private CompletableFuture<Boolean> write(String resultKey, ByteBuffer headerBuffer, Iterator<byte[]> data, long length,
+                                             CompletableFuture<Boolean> resultFuture) throws StoreEngineOperationException {
+        final CompletableFuture<Boolean> handlerCons = resultFuture == null ? new CompletableFuture<>() : resultFuture;
+        Path tempPathKey = getTempPathByKey(resultKey);
+        int headerLength = headerBuffer.remaining();
+        GroupCommitter committer = activeGroupCommitter();
 
         AsynchronousFileChannel channel = null;
         try {
-            channel = AsynchronousFileChannel.open(tempPathKey, OPEN_OPTIONS_ON_PUT_SET, writerExecutor);
-            channel.write(valueBuffer, 0, valueBuffer, new ByteBufferWriteHandler(channel, handlerCons, data));
+            channel = AsynchronousFileChannel.open(tempPathKey, putOptionSet(committer), writerExecutor);
         } catch (IOException e) {
             FSUtils.close(channel);
 
@@ -248,112 +1408,328 @@ public class FSStoreEngine implements StoreEngine<String, byte[]> {
             throw new StoreEngineOperationException("Error close channel", e);
         }
 
-        return resultFuture;
+        CompletableFuture<Boolean> written = new CompletableFuture<>();
+        ByteBufferWriteHandler writeHandler = new ByteBufferWriteHandler(channel, written, data);
+        written.thenCompose(res -> publish(resultKey, tempPathKey, length >= 0 ? length : writeHandler.getPosition() - headerLength, committer)
+                .thenApply(v -> res))
+               .whenComplete((res, e) -> {
+                   if (e != null) {
+                       handlerCons.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                   } else {
+                       handlerCons.complete(res);
+                   }
+               });
+        channel.write(headerBuffer, 0, headerBuffer, writeHandler);
+
+        return handlerCons;
+    }
+
+    /**
+     * @return header and value of the file of the key, the value is compressed if the codec makes it smaller
+     */
+    private ByteBuffer[] content(String key, byte[] value) {
+        Codec current = codec;
+        if (current != null && value.length >= compressionThreshold) {
+            byte[] encoded = current.encode(value);
+            if (encoded.length < value.length) {
+                return new ByteBuffer[]{ByteBuffer.wrap(ShardedLayout.header(key, current.getId(), value.length)),
+                                        ByteBuffer.wrap(encoded)};
+            }
+        }
+        return new ByteBuffer[]{ByteBuffer.wrap(ShardedLayout.header(key)), ByteBuffer.wrap(value)};
+    }
+
+    private GroupCommitter activeGroupCommitter() {
+        Durability current = durability;
+        return current == Durability.FULL || current == Durability.DATA_SYNC ? groupCommitter : null;
     }
 
-    private void moveWithDelete(Path tempPathKey, Path resultPathKey) throws StoreEngineOperationException {
+    private Set<OpenOption> putOptionSet(GroupCommitter committer) {
+        if (committer != null) {
+            return OPEN_OPTIONS_ON_PUT_NO_SYNC_SET;
+        }
+
+        switch (durability) {
+            case FULL:
+                return OPEN_OPTIONS_ON_PUT_SET;
+            case DATA_SYNC:
+                return OPEN_OPTIONS_ON_PUT_DSYNC_SET;
+            default:
+                return OPEN_OPTIONS_ON_PUT_NO_SYNC_SET;
+        }
+    }
+
+    /**
+     * Move the written temp file to its result path and register the key.
+     * With group commit the temp file is synced and moved by the committer, the key is registered with the move;
+     * when the barrier of the batch fails the value stays stored and the failure tells it isn't durable.
+     */
+    private CompletableFuture<Void> publish(String key, Path tempPathKey, long length, GroupCommitter committer) {
+        Path resultPathKey = getResultPath(key);
+        if (committer != null) {
+            AtomicBoolean moved = new AtomicBoolean();
+            return committer.commitAsync(() -> CompletableFuture.runAsync(() -> {
+                try {
+                    try {
+                        FSUtils.force(tempPathKey, durability == Durability.FULL);
+                    } catch (IOException e) {
+                        Files.deleteIfExists(tempPathKey);
+                        throw e;
+                    }
+                    prepareShard(resultPathKey);
+                } catch (IOException | StoreEngineOperationException e) {
+                    throw new CompletionException(e);
+                }
+            }, writerExecutor).thenCompose(v -> moveLocked(key, tempPathKey, resultPathKey, () -> {
+                keyDirectory.put(key, length);
+                versions.next(key);
+            })).thenRun(() -> {
+                moved.set(true);
+                unsyncedDirectories.add(resultPathKey.getParent());
+            })).handle((v, e) -> {
+                if (e == null) {
+                    return null;
+                }
+                if (moved.get()) {
+                    throw new CompletionException(new StoreEngineOperationException("Stored value of key " + key + " isn't durable", e));
+                }
+                throw new CompletionException(e);
+            });
+        }
+
         try {
-            new Retrier(countRetry, () -> Files.move(tempPathKey, resultPathKey, FSStoreEngine.COPY_OPTIONS_ON_PUT)).run();
-        } catch (Throwable e) {
+            prepareShard(resultPathKey);
+        } catch (StoreEngineOperationException e) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        return moveLocked(key, tempPathKey, resultPathKey, () -> {
+            syncPublished(resultPathKey);
+            keyDirectory.put(key, length);
+            versions.next(key);
+        });
+    }
+
+    /**
+     * Moves the temp file over the file of the key and registers the change under the lock of the key.
+     * A failed move is retried with the backoff of the retry policy, holding neither the lock nor a thread
+     * meanwhile. The temp file is deleted when the move fails for good.
+     */
+    private CompletableFuture<Void> moveLocked(String key, Path tempPathKey, Path resultPathKey, Task registration) {
+        return retrier().run(() -> {
+            Lock lock = versions.lockOf(key);
+            lock.lock();
+            try {
+                Files.move(tempPathKey, resultPathKey, COPY_OPTIONS_ON_PUT);
+                registration.run();
+            } finally {
+                lock.unlock();
+            }
+        }).handle((v, e) -> {
+            if (e == null) {
+                return null;
+            }
+
             try {
                 Files.deleteIfExists(tempPathKey);
             } catch (IOException e1) {
-                throw new StoreEngineOperationException("Error delete temp file ", e1);
+                e.addSuppressed(e1);
             }
+            throw new CompletionException(e instanceof StoreEngineOperationException
+                                                  ? e : new StoreEngineOperationException("Error move file " + resultPathKey, e));
+        });
+    }
+
+    /**
+     * Retries wait on the retry scheduler, the attempts take the lock of the key by themselves,
+     * so no lock is held while they wait
+     */
+    private AsyncRetrier retrier() {
+        return new AsyncRetrier(retryPolicy, (task, timeout, timeUnit) -> {
+            retries.increment();
+            retryExecutor.execute(task, timeout, timeUnit);
+        });
+    }
 
-            throw new StoreEngineOperationException("Error move file ", e);
+    private static <T> T await(CompletableFuture<T> future, String message) throws StoreEngineOperationException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof StoreEngineOperationException) {
+                throw (StoreEngineOperationException) e.getCause();
+            }
+            throw new StoreEngineOperationException(message, e.getCause());
         }
     }
 
-    private void move(String key, Path sourcePath, Path tempPathKey) throws StoreEngineOperationException {
+    private void syncPublished(Path resultPathKey) throws StoreEngineOperationException {
+        switch (durability) {
+            case FULL:
+                try {
+                    FSUtils.syncDirectory(resultPathKey.getParent());
+                } catch (IOException e) {
+                    throw new StoreEngineOperationException("Error sync directory of " + resultPathKey, e);
+                }
+                break;
+            case PERIODIC:
+                unsyncedPaths.add(resultPathKey);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Creates the shard directories of the file, a new directory entry is synced for {@link Durability#FULL}
+     */
+    private void prepareShard(Path resultPathKey) throws StoreEngineOperationException {
         try {
-            new Retrier(countRetry, () -> Files.move(sourcePath, tempPathKey, COPY_OPTIONS_ON_PUT)).run();
-            new Retrier(countRetry, () -> Files.deleteIfExists(tempPathKey)).run(); // or file channel::trancate(0)
-        } catch (Throwable e) {
-            throw new StoreEngineOperationException("Error remove key " + key, e);
+            if (layout.ensureShard(resultPathKey) && durability == Durability.FULL) {
+                FSUtils.syncDirectory(resultPathKey.getParent().getParent());
+                FSUtils.syncDirectory(dataPath);
+            }
+        } catch (IOException e) {
+            throw new StoreEngineOperationException("Error create shard of " + resultPathKey, e);
         }
     }
 
 
+
     @Override
-    public int size() throws StoreEngineOperationException {
-        return keys().size();
+    public int size() {
+        return keyDirectory.size();
     }
 
+    /**
+     * @return unmodifiable live view of the stored keys
+     */
     @Override
-    public Set<String> keys() throws StoreEngineOperationException {
-        Path dir = Paths.get(getDataPath());
-        try (Stream<Path> streamPaths = Files.list(dir)) {
-            return keyStream(streamPaths)
-                    .collect(Collectors.toSet());
-        } catch (IOException e) {
-            throw new StoreEngineOperationException("Error get keys ", e);
-        }
+    public Set<String> keys() {
+        return keyDirectory.keys();
     }
 
-    private Stream<String> keyStream(Stream<Path> streamPaths) {
-        return streamPaths.filter(path1 -> path1.toString().endsWith(extensionDataFile) && Files.isReadable(path1))
-                          .map(Path::getFileName)
-                          .map(Object::toString)
-                          .map(FSUtils::removeExtension);
+    /**
+     * Keys are found in the sorted index, the iterator is lazy and weakly consistent with concurrent changes
+     */
+    @Override
+    public Iterator<String> scan(String fromKey, String toKey) {
+        return keyDirectory.range(fromKey, toKey);
     }
 
     @Override
-    public Collection<byte[]> values() throws StoreEngineOperationException {
-        try (Stream<Path> streamPaths = Files.list(dataPath)) {
-            return keyStream(streamPaths)
-                    .map(key -> {
-                        try {
-                            return readSync(key);
-                        } catch (StoreEngineOperationException e) {
-                            LOG.warning(e.getMessage() + e.getCause().getMessage());
-                        }
-                        return null;
-                    })
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
-        } catch (IOException e) {
-            throw new StoreEngineOperationException("Error get values", e);
-        }
+    public Iterator<String> scanPrefix(String prefix) {
+        return prefix == null ? keyDirectory.range(null, null) : keyDirectory.prefixed(prefix);
     }
 
     @Override
-    public Stream<KeyValue<String, byte[]>> entryStream() throws StoreEngineOperationException {
-        Path dir = Paths.get(getDataPath());
-        try {
-            return keyStream(Files.list(dir))
-                    .map(key -> {
-                        byte[] value;
-                        try {
-                            value = readSync(key);
-                        } catch (StoreEngineOperationException e) {
-                            LOG.warning(e.getMessage() + e.getCause().getMessage());
-                            return null;
-                        }
-                        return new KeyValue<>(key, value);
-                    }).filter(Objects::nonNull);
-
-        } catch (IOException e) {
-            throw new StoreEngineOperationException("Error entry stream", e);
+    public Collection<byte[]> values() {
+        try (Stream<KeyValue<String, byte[]>> entries = entryStream()) {
+            return entries.map(KeyValue::getValue)
+                          .filter(Objects::nonNull)
+                          .collect(Collectors.toList());
         }
     }
 
+    /**
+     * Values are read lazily, on {@link KeyValue#getValue()}, which returns null if the value can't be read.
+     * The stream splits over the keys, so {@code .parallel()} reads values on many threads.
+     * With {@link #setScanPrefetch(int)} values are read ahead of the consumer, then the stream must be closed.
+     */
+    @Override
+    public Stream<KeyValue<String, byte[]>> entryStream() {
+        return EntrySpliterator.stream(keyDirectory.keys().spliterator(), this::readSync, this::read, scanPrefetch);
+    }
+
     @Override
     public void clear() throws StoreEngineOperationException {
         if (!tempPath.toFile().exists()) {
             return;
         }
 
-        try (Stream<Path> streamPaths = Files.list(dataPath)) {
-            keyStream(streamPaths).forEach(key -> {
-                try {
-                    remove(key);
-                } catch (StoreEngineOperationException e) {
-                    LOG.warning(e.getMessage() + e.getCause().getMessage());
+        for (String key : keyDirectory.keys()) {
+            try {
+                remove(key);
+            } catch (StoreEngineOperationException e) {
+                LOG.warning(e.getMessage() + e.getCause().getMessage());
+            }
+        }
+    }
+
+    private void loadKeyDirectory() throws StoreEngineOperationException {
+        keyDirectory.clear();
+        if (!Files.isDirectory(dataPath)) {
+            return;
+        }
+
+        migrateFlatLayout();
+        BitSet modifiedShards = loadSnapshot();
+        loadBloomFilter(modifiedShards != null && modifiedShards.isEmpty());
+        try {
+            if (modifiedShards == null) {
+                try (Stream<Path> streamPaths = layout.dataFiles()) {
+                    loadKeys(streamPaths);
                 }
-            });
+                return;
+            }
+
+            for (int shard = modifiedShards.nextSetBit(0); shard >= 0; shard = modifiedShards.nextSetBit(shard + 1)) {
+                try (Stream<Path> streamPaths = layout.dataFiles(shard)) {
+                    loadKeys(streamPaths);
+                }
+            }
+        } catch (IOException e) {
+            throw new StoreEngineOperationException(String.format("Error load keys of dataPath[%s]", dataPath), e);
+        }
+    }
+
+    private void loadKeys(Stream<Path> dataFiles) {
+        dataFiles.forEach(path -> {
+            try {
+                ShardedLayout.FileHeader header = ShardedLayout.readHeader(path);
+                keyDirectory.put(header.key, header.rawLength);
+            } catch (IOException e) {
+                LOG.warning(String.format("Skip data file[%s]: %s", path, e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Moves files of the flat layout ({@code <dataPath>/<key>.data}) into their shards
+     */
+    private void migrateFlatLayout() throws StoreEngineOperationException {
+        int migrated = 0;
+        try (Stream<Path> streamPaths = layout.flatDataFiles()) {
+            for (Path flatPath : (Iterable<Path>) streamPaths::iterator) {
+                String key = FSUtils.removeExtension(flatPath.getFileName().toString());
+                Path tempPathKey = getTempPathByKey(key);
+                Path resultPathKey = getResultPath(key);
+                try (FileChannel channel = FileChannel.open(tempPathKey, OPEN_OPTIONS_ON_PUT_NO_SYNC_SET)) {
+                    ByteBuffer header = ByteBuffer.wrap(ShardedLayout.header(key));
+                    while (header.hasRemaining()) {
+                        channel.write(header);
+                    }
+                    try (FileChannel flatChannel = FileChannel.open(flatPath, StandardOpenOption.READ)) {
+                        long size = flatChannel.size();
+                        long position = 0;
+                        while (position < size) {
+                            position += flatChannel.transferTo(position, size - position, channel);
+                        }
+                    }
+                    channel.force(true);
+                }
+                layout.ensureShard(resultPathKey);
+                Files.move(tempPathKey, resultPathKey, COPY_OPTIONS_ON_PUT);
+                FSUtils.syncDirectory(resultPathKey.getParent());
+                Files.delete(flatPath);
+                migrated++;
+            }
+            if (migrated > 0) {
+                FSUtils.syncDirectory(dataPath);
+                LOG.info(String.format("Migrated %d keys of dataPath[%s] to sharded layout", migrated, dataPath));
+            }
         } catch (IOException e) {
-            throw new StoreEngineOperationException(String.format("Error clear store of dataPath[%s]", dataPath), e);
+            throw new StoreEngineOperationException(String.format("Error migrate keys of dataPath[%s]", dataPath), e);
         }
     }
 
@@ -368,16 +1744,22 @@ public class FSStoreEngine implements StoreEngine<String, byte[]> {
 
     CompletableFuture<Boolean> read(String key,
                                     CompletableFuture<Boolean> finalFuture,
-                                    Consumer<byte[]> listener) throws StoreEngineOperationException {
+                                    Consumer<ByteBuffer> listener) throws StoreEngineOperationException {
         final CompletableFuture<Boolean> finalFutureCons = finalFuture == null ? new CompletableFuture<>() : finalFuture;
 
-        ByteBuffer valueBuffer = ByteBuffer.allocate(SIZE_BYTE_BUFFER);
+        long length = keyDirectory.length(key);
+        long headerLength = ShardedLayout.valueOffset(key);
+        ByteBuffer valueBuffer = bufferPool.acquire((int) Math.min(readChunkSize, Math.max(length, 0) + headerLength));
+        ValueChunkDecoder decoder = new ValueChunkDecoder(key, codecs::get, listener);
+        finalFutureCons.whenComplete((r, e) -> decoder.close());
         AsynchronousFileChannel channel = null;
         try {
             channel = AsynchronousFileChannel.open(getResultPath(key), OPEN_OPTIONS_ON_GET_SET, readerExecutor);
-            channel.read(valueBuffer, 0, valueBuffer, new ByteBufferReadHandler(finalFutureCons, channel, listener));
+            channel.read(valueBuffer, 0, valueBuffer,
+                         new ByteBufferReadHandler(finalFutureCons, channel, bufferPool, 0, decoder));
         } catch (IOException e) {
             FSUtils.close(channel);
+            bufferPool.release(valueBuffer);
 
             LOG.fine(String.format("error write key %s : %s", key, e.getMessage()));
             finalFutureCons.completeExceptionally(e);
@@ -388,16 +1770,19 @@ public class FSStoreEngine implements StoreEngine<String, byte[]> {
     }
 
     private Path getResultPath(String key) {
-        return Paths.get(dataPath.resolve(key) + extensionDataFile);
+        return layout.pathOf(key);
     }
 
     private Path getTempPathByKey(String key) {
-        return Paths.get(tempPath.resolve(getTempKey(key)) + extensionDataFile);
+        return tempPath.resolve(getTempKey(ShardedLayout.hash(key)) + extensionDataFile);
     }
 
+    /**
+     * The counter makes the name unique, a thread of the pool may run several async writes of one key at once
+     */
     static String getTempKey(String key) {
         Thread currentThread = Thread.currentThread();
-        return currentThread.getId() + key;
+        return currentThread.getId() + "_" + TEMP_COUNTER.incrementAndGet() + "_" + key;
 //
 //        return new StringBuilder().append("tmp_")
 //                                  .append(currentThread.getName())
@@ -2,7 +2,10 @@ package ru.store.impl;
 
 import java.io.IOException;
 import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public final class FSUtils {
 
@@ -22,6 +25,26 @@ public final class FSUtils {
         }
     }
 
+    /**
+     * Flush the written content of the file to the storage device
+     *
+     * @param metaData flush the metadata of the file too (fsync), otherwise only data (fdatasync)
+     */
+    public static void force(Path file, boolean metaData) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(metaData);
+        }
+    }
+
+    /**
+     * Flush the directory entries (created, renamed and deleted files) to the storage device
+     */
+    public static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
     /**
      * Remove the file extension from a filename, that may include a path.
      *
@@ -0,0 +1,126 @@
+package ru.store.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntPredicate;
+
+/**
+ * Snapshot of the key directory: the keys in ascending order with the lengths of their values and their shards,
+ * stamped with the time the snapshot has started. Every shard directory not modified since that time holds
+ * exactly the keys of the snapshot, so only the modified shards are walked when the snapshot is loaded.
+ * Format: magic(4), createdMillis(8), then shard(2), keyLength(4), key in UTF-8, length(8) of every key,
+ * and the count(4) of the keys at the end.
+ */
+final class HintFile {
+
+    private static final int MAGIC = 0x4B56484E;
+    private static final int HEADER_LENGTH = 12;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final long createdMillis;
+
+    private HintFile(Path file, MappedByteBuffer buffer, long createdMillis) {
+        this.file = file;
+        this.buffer = buffer;
+        this.createdMillis = createdMillis;
+    }
+
+    /**
+     * @param createdMillis time before the snapshot of the directory has started
+     */
+    static void write(Path file, KeyDirectory keyDirectory, long createdMillis) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            output.writeInt(MAGIC);
+            output.writeLong(createdMillis);
+            int[] count = {0};
+            IOException[] failure = {null};
+            keyDirectory.forEach((key, length) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                    output.writeShort(ShardedLayout.shardOf(key));
+                    output.writeInt(rawKey.length);
+                    output.write(rawKey);
+                    output.writeLong(length);
+                    count[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            output.writeInt(count[0]);
+        }
+    }
+
+    /**
+     * Maps the file into memory and checks its header
+     */
+    static HintFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH + 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid size of hint file " + file + ": " + size);
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Unknown format of hint file " + file);
+            }
+            return new HintFile(file, buffer, buffer.getLong(4));
+        }
+    }
+
+    long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Puts the keys of the snapshot into the directory
+     *
+     * @param skippedShard shards whose keys are loaded from their files instead
+     */
+    void loadInto(KeyDirectory keyDirectory, IntPredicate skippedShard) throws IOException {
+        int end = buffer.limit() - 4;
+        int expectedCount = buffer.getInt(end);
+        int count = 0;
+        byte[] rawKey = new byte[256];
+        buffer.position(HEADER_LENGTH);
+        try {
+            while (buffer.position() < end) {
+                int shard = buffer.getShort() & 0xFFFF;
+                int keyLength = buffer.getInt();
+                if (keyLength < 0 || keyLength > end - buffer.position()) {
+                    throw new IOException("Corrupted hint file " + file);
+                }
+                if (rawKey.length < keyLength) {
+                    rawKey = new byte[Math.max(keyLength, rawKey.length * 2)];
+                }
+                buffer.get(rawKey, 0, keyLength);
+                long length = buffer.getLong();
+                if (!skippedShard.test(shard)) {
+                    keyDirectory.put(new String(rawKey, 0, keyLength, StandardCharsets.UTF_8), length);
+                }
+                count++;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated hint file " + file, e);
+        }
+
+        if (buffer.position() != end || count != expectedCount) {
+            throw new IOException("Corrupted hint file " + file);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ru.store.impl;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiConsumer;
+
+/**
+ * In-memory index of the stored keys and length of their values.
+ * It's the source of truth for existence checks, so misses don't touch the filesystem.
+ * The keys are also kept sorted in a skip list, so a range of keys is found in O(log n + k).
+ * The hash map stays the index of the point lookups, the skip list is changed only when a key appears or disappears.
+ * An optional bloom filter answers most lookups of absent keys before the hash map is probed.
+ */
+final class KeyDirectory {
+
+    static final long ABSENT = -1;
+
+    private final Map<String, Long> lengths = new ConcurrentHashMap<>();
+    private final NavigableSet<String> sortedKeys = new ConcurrentSkipListSet<>();
+    private volatile BloomFilter writeFilter;
+    private volatile BloomFilter readFilter;
+
+    /**
+     * The key is added to the filter after the map, so a filter being filled by {@link #setFilter} never misses it
+     */
+    void put(String key, long length) {
+        lengths.compute(key, (k, previous) -> {
+            if (previous == null) {
+                sortedKeys.add(k);
+            }
+            return length;
+        });
+        BloomFilter filter = writeFilter;
+        if (filter != null) {
+            filter.add(key);
+        }
+    }
+
+    boolean remove(String key) {
+        boolean[] removed = {false};
+        lengths.computeIfPresent(key, (k, previous) -> {
+            sortedKeys.remove(k);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    boolean contains(String key) {
+        return mightContain(key) && lengths.containsKey(key);
+    }
+
+    /**
+     * @return length of the value or {@link #ABSENT} if the key isn't stored
+     */
+    long length(String key) {
+        if (!mightContain(key)) {
+            return ABSENT;
+        }
+        Long length = lengths.get(key);
+        return length == null ? ABSENT : length;
+    }
+
+    private boolean mightContain(String key) {
+        BloomFilter filter = readFilter;
+        return filter == null || filter.mightContain(key);
+    }
+
+    BloomFilter getFilter() {
+        return readFilter;
+    }
+
+    /**
+     * The new keys are added to the filter, but it isn't consulted by the lookups until {@link #setFilter}
+     * publishes it, so a filter holding the loaded keys stays complete until it's set
+     */
+    void preloadFilter(BloomFilter filter) {
+        readFilter = null;
+        writeFilter = filter;
+    }
+
+    /**
+     * The filter is consulted by the lookups only when it holds every stored key:
+     * the new keys are added to it at once, the stored keys are added before it's published
+     *
+     * @param filter bloom filter of the keys, null removes the filter
+     * @param filled whether the filter already holds the stored keys
+     */
+    void setFilter(BloomFilter filter, boolean filled) {
+        readFilter = null;
+        writeFilter = filter;
+        if (filter == null) {
+            return;
+        }
+
+        if (!filled) {
+            for (String key : lengths.keySet()) {
+                filter.add(key);
+            }
+        }
+        readFilter = filter;
+    }
+
+    int size() {
+        return lengths.size();
+    }
+
+    /**
+     * @return unmodifiable live view of the keys
+     */
+    Set<String> keys() {
+        return Collections.unmodifiableSet(lengths.keySet());
+    }
+
+    /**
+     * @param fromKey lowest key, inclusive, null for no lower bound
+     * @param toKey   highest key, exclusive, null for no upper bound
+     * @return lazy weakly consistent iterator of the keys of the range in ascending order
+     */
+    Iterator<String> range(String fromKey, String toKey) {
+        NavigableSet<String> range;
+        if (fromKey == null) {
+            range = toKey == null ? sortedKeys : sortedKeys.headSet(toKey, false);
+        } else if (toKey == null) {
+            range = sortedKeys.tailSet(fromKey, true);
+        } else if (fromKey.compareTo(toKey) >= 0) {
+            return Collections.emptyIterator();
+        } else {
+            range = sortedKeys.subSet(fromKey, true, toKey, false);
+        }
+        return Collections.unmodifiableSet(range).iterator();
+    }
+
+    /**
+     * @return lazy iterator of the keys starting with the prefix in ascending order
+     */
+    Iterator<String> prefixed(String prefix) {
+        return prefix.isEmpty() ? range(null, null) : range(prefix, prefixEnd(prefix));
+    }
+
+    /**
+     * @return lowest key greater than every key starting with the prefix, null if there is none
+     */
+    static String prefixEnd(String prefix) {
+        StringBuilder end = new StringBuilder(prefix);
+        while (end.length() > 0) {
+            int last = end.length() - 1;
+            char c = end.charAt(last);
+            if (c != Character.MAX_VALUE) {
+                end.setCharAt(last, (char) (c + 1));
+                return end.toString();
+            }
+            end.setLength(last);
+        }
+        return null;
+    }
+
+    void clear() {
+        lengths.clear();
+        sortedKeys.clear();
+    }
+
+    /**
+     * Passes the keys in ascending order with the lengths of their values
+     */
+    void forEach(BiConsumer<String, Long> action) {
+        for (String key : sortedKeys) {
+            Long length = lengths.get(key);
+            if (length != null) {
+                action.accept(key, length);
+            }
+        }
+    }
+}
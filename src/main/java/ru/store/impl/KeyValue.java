@@ -1,20 +1,36 @@
 package ru.store.impl;
 
+import java.util.function.Supplier;
+
 public class KeyValue<K, V> {
     private K key;
 
     private V value;
 
+    private Supplier<V> loader;
+
     public KeyValue(K key, V value) {
         this.key = key;
         this.value = value;
     }
 
+    /**
+     * @param loader loads the value on the first {@link #getValue()}, so skipped entries cost no read
+     */
+    public KeyValue(K key, Supplier<V> loader) {
+        this.key = key;
+        this.loader = loader;
+    }
+
     public K getKey() {
         return key;
     }
 
     public V getValue() {
+        if (loader != null) {
+            value = loader.get();
+            loader = null;
+        }
         return value;
     }
 }
@@ -3,10 +3,14 @@ package ru.store.impl;
 import ru.store.api.KeyValueStore;
 import ru.store.exceptions.StoreEngineOperationException;
 
+import java.nio.channels.ReadableByteChannel;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Stream;
 
 
@@ -19,14 +23,25 @@ public final class KeyValueFSStoreWrapper implements KeyValueStore<String, byte[
     }
 
 
+    /**
+     * The whole value is written by {@link StoreEngine#write(Comparable, Object)}, so concurrent puts of a key
+     * are coalesced and the value is compressed like the values of the sync puts
+     */
     @Override
     public CompletableFuture<Boolean> put(String key, byte[] value, CompletableFuture<Boolean> handler) {
+        CompletableFuture<Boolean> result = handler == null ? new CompletableFuture<>() : handler;
         try {
-            return storeEngine.write(key, Collections.singleton(value).iterator(), handler);
+            storeEngine.write(key, value).whenComplete((written, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                } else {
+                    result.complete(true);
+                }
+            });
         } catch (StoreEngineOperationException e) {
-            handler.completeExceptionally(e);
-            return handler;
+            result.completeExceptionally(e);
         }
+        return result;
     }
 
     @Override
@@ -39,9 +54,35 @@ public final class KeyValueFSStoreWrapper implements KeyValueStore<String, byte[
         }
     }
 
+    @Override
+    public long getVersion(String key) {
+        return storeEngine.version(key);
+    }
+
+    @Override
+    public boolean putIfVersion(String key, byte[] value, long expectedVersion) {
+        try {
+            return storeEngine.writeIfVersion(key, value, expectedVersion);
+        } catch (StoreEngineOperationException e) {
+            return false;
+        }
+    }
+
     @Override
     public CompletableFuture<byte[]> get(String key, CompletableFuture<byte[]> handler) {
-        return null;
+        CompletableFuture<byte[]> result = handler == null ? new CompletableFuture<>() : handler;
+        try {
+            storeEngine.read(key).whenComplete((value, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(value);
+                }
+            });
+        } catch (StoreEngineOperationException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
     }
 
     @Override
@@ -62,6 +103,58 @@ public final class KeyValueFSStoreWrapper implements KeyValueStore<String, byte[
         }
     }
 
+    @Override
+    public ReadableByteChannel getChannel(String key) {
+        try {
+            return storeEngine.openValue(key);
+        } catch (StoreEngineOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean putChannel(String key, ReadableByteChannel source) {
+        try {
+            storeEngine.writeFrom(key, source);
+            return true;
+        } catch (StoreEngineOperationException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putAll(Map<String, byte[]> entries) {
+        try {
+            return storeEngine.writeAll(entries);
+        } catch (StoreEngineOperationException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, byte[]>> getAll(Collection<String> keys) {
+        try {
+            return storeEngine.readAll(keys);
+        } catch (StoreEngineOperationException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> removeAll(Collection<String> keys) {
+        try {
+            return storeEngine.removeAll(keys);
+        } catch (StoreEngineOperationException e) {
+            return failed(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
     @Override
     public Stream<KeyValue<String, byte[]>> entries() {
         try {
@@ -82,6 +175,26 @@ public final class KeyValueFSStoreWrapper implements KeyValueStore<String, byte[
         return null;
     }
 
+    @Override
+    public Iterator<String> scan(String fromKey, String toKey) {
+        try {
+            return storeEngine.scan(fromKey, toKey);
+        } catch (StoreEngineOperationException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public Iterator<String> scanPrefix(String prefix) {
+        try {
+            return storeEngine.scanPrefix(prefix);
+        } catch (StoreEngineOperationException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyIterator();
+    }
+
     @Override
     public Collection<byte[]> values() {
         try {
@@ -101,6 +214,15 @@ public final class KeyValueFSStoreWrapper implements KeyValueStore<String, byte[
         }
     }
 
+    @Override
+    public void flush() {
+        try {
+            storeEngine.flush();
+        } catch (StoreEngineOperationException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void close() throws Exception {
         storeEngine.close();
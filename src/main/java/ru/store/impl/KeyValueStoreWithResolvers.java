@@ -2,6 +2,13 @@ package ru.store.impl;
 
 import ru.store.api.KeyValueStore;
 
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
@@ -14,13 +21,24 @@ public class KeyValueStoreWithResolvers<K1, V1, K2, V2> implements KeyValueStore
 
     private final Function<K1, K2> resolverKey;
 
+    private final Function<K2, K1> inverseResolverKey;
+
     private final SerializerProvider<V1, V2> serializer;
 
 
     public KeyValueStoreWithResolvers(KeyValueStore<K2, V2> store, Function<K1, K2> resolverKey, SerializerProvider serializer) {
+        this(store, resolverKey, null, serializer);
+    }
+
+    /**
+     * @param inverseResolverKey turns the keys of the store back into the resolved keys, it enables the scans
+     */
+    public KeyValueStoreWithResolvers(KeyValueStore<K2, V2> store, Function<K1, K2> resolverKey,
+                                      Function<K2, K1> inverseResolverKey, SerializerProvider serializer) {
         this.store = store;
         this.serializer = serializer;
         this.resolverKey = resolverKey;
+        this.inverseResolverKey = inverseResolverKey;
     }
 
     @Override
@@ -33,6 +51,16 @@ public class KeyValueStoreWithResolvers<K1, V1, K2, V2> implements KeyValueStore
         return store.put(resolveKey(key), serializer.serialize(value));
     }
 
+    @Override
+    public long getVersion(K1 key) {
+        return store.getVersion(resolveKey(key));
+    }
+
+    @Override
+    public boolean putIfVersion(K1 key, V1 value, long expectedVersion) {
+        return store.putIfVersion(resolveKey(key), serializer.serialize(value), expectedVersion);
+    }
+
     @Override
     public CompletableFuture<V1> get(K1 key, CompletableFuture<V1> handler) {
         return store.get(resolveKey(key), handler.thenApply(serializer.getSerializer()))
@@ -49,6 +77,47 @@ public class KeyValueStoreWithResolvers<K1, V1, K2, V2> implements KeyValueStore
         store.remove(resolveKey(key));
     }
 
+    /**
+     * Streams aren't serialized, they carry the raw stored content
+     */
+    @Override
+    public ReadableByteChannel getChannel(K1 key) {
+        return store.getChannel(resolveKey(key));
+    }
+
+    @Override
+    public boolean putChannel(K1 key, ReadableByteChannel source) {
+        return store.putChannel(resolveKey(key), source);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putAll(Map<K1, V1> entries) {
+        Map<K2, V2> resolved = new LinkedHashMap<>();
+        entries.forEach((key, value) -> resolved.put(resolveKey(key), serializer.serialize(value)));
+        return store.putAll(resolved);
+    }
+
+    @Override
+    public CompletableFuture<Map<K1, V1>> getAll(Collection<K1> keys) {
+        Map<K2, List<K1>> resolved = keys.stream().collect(Collectors.groupingBy(this::resolveKey));
+        return store.getAll(resolved.keySet()).thenApply(values -> {
+            Map<K1, V1> result = new HashMap<>();
+            values.forEach((key, value) -> {
+                List<K1> originalKeys = resolved.get(key);
+                if (originalKeys != null) {
+                    V1 deSerialized = serializer.deSerialize(value);
+                    originalKeys.forEach(originalKey -> result.put(originalKey, deSerialized));
+                }
+            });
+            return result;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> removeAll(Collection<K1> keys) {
+        return store.removeAll(keys.stream().map(this::resolveKey).collect(Collectors.toList()));
+    }
+
     @Override
     public Stream<KeyValue<K1, V1>> entries() {
         return null;
@@ -59,6 +128,27 @@ public class KeyValueStoreWithResolvers<K1, V1, K2, V2> implements KeyValueStore
         return null;
     }
 
+    /**
+     * The range and the order are the ones of the keys of the store, the bounds are resolved like the keys
+     *
+     * @throws UnsupportedOperationException if there is no inverse key resolver
+     */
+    @Override
+    public Iterator<K1> scan(K1 fromKey, K1 toKey) {
+        return inverse(store.scan(fromKey == null ? null : resolveKey(fromKey), toKey == null ? null : resolveKey(toKey)));
+    }
+
+    /**
+     * The prefix is resolved like the keys, so it's meaningful for a resolver which keeps the prefixes,
+     * e.g. {@code String::valueOf}
+     *
+     * @throws UnsupportedOperationException if there is no inverse key resolver
+     */
+    @Override
+    public Iterator<K1> scanPrefix(K1 prefix) {
+        return inverse(store.scanPrefix(resolveKey(prefix)));
+    }
+
     @Override
     public Set<V1> values() {
         return store.values().stream()
@@ -71,6 +161,11 @@ public class KeyValueStoreWithResolvers<K1, V1, K2, V2> implements KeyValueStore
         store.clear();
     }
 
+    @Override
+    public void flush() {
+        store.flush();
+    }
+
     @Override
     public void close() throws Exception {
         store.close();
@@ -79,4 +174,22 @@ public class KeyValueStoreWithResolvers<K1, V1, K2, V2> implements KeyValueStore
     private K2 resolveKey(K1 key) {
         return resolverKey.apply(key);
     }
+
+    private Iterator<K1> inverse(Iterator<K2> keys) {
+        if (inverseResolverKey == null) {
+            throw new UnsupportedOperationException("Scan of keys needs the inverse key resolver");
+        }
+
+        return new Iterator<K1>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public K1 next() {
+                return inverseResolverKey.apply(keys.next());
+            }
+        };
+    }
 }
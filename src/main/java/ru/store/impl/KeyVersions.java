@@ -0,0 +1,72 @@
+package ru.store.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Versions of the stored keys and striped locks which order the changes of a key.
+ * Versions are drawn from one counter seeded by the clock, so they are unique within the store and
+ * a version seen before a restart doesn't match the version of the key after it.
+ * A stored key gets its version with its first change or query.
+ */
+public final class KeyVersions {
+
+    /**
+     * Version of a key which isn't stored
+     */
+    public static final long ABSENT = 0;
+
+    private static final int COUNT_STRIPES = 64;
+
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[COUNT_STRIPES];
+    private final AtomicLong counter = new AtomicLong(System.currentTimeMillis() << 20);
+
+    public KeyVersions() {
+        for (int i = 0; i < COUNT_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return lock of the stripe of the key, changes of the key are made under it
+     */
+    public Lock lockOf(String key) {
+        return stripeOf(key);
+    }
+
+    private ReentrantLock stripeOf(String key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (COUNT_STRIPES - 1)];
+    }
+
+    /**
+     * @param stored whether the key is stored now
+     */
+    public long get(String key, boolean stored) {
+        if (!stored) {
+            return ABSENT;
+        }
+        return versions.computeIfAbsent(key, k -> counter.incrementAndGet());
+    }
+
+    /**
+     * Assigns a new version to the changed key
+     */
+    public long next(String key) {
+        long version = counter.incrementAndGet();
+        versions.put(key, version);
+        return version;
+    }
+
+    public void remove(String key) {
+        versions.remove(key);
+    }
+
+    public void clear() {
+        versions.clear();
+    }
+}
@@ -0,0 +1,254 @@
+package ru.store.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Layout of the data files: {@code <dataPath>/ab/cd/abcd...<sha-256 of key>.data}.
+ * Names of the files have fixed length whatever the key is, and the two-level fan-out keeps
+ * every directory small (256 x 256 shards). The original key is stored in a header of the file
+ * followed by the value: magic(4), keyLength(4), key in UTF-8.
+ * A compressed value has its own magic and the header goes on with codecId(1) and the length
+ * of the raw value(8), so compressed and raw files live side by side.
+ */
+final class ShardedLayout {
+
+    static final int MAGIC = 0x4B565331;
+    static final int MAGIC_ENCODED = 0x4B565332;
+    static final int CODEC_HEADER_LENGTH = 9;
+    static final int HEADER_FIXED_LENGTH = 8;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Pattern SHARD_NAME = Pattern.compile("[0-9a-f]{2}");
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Path dataPath;
+    private final String extension;
+    private final Set<Path> shards = ConcurrentHashMap.newKeySet();
+
+    ShardedLayout(Path dataPath, String extension) {
+        this.dataPath = dataPath;
+        this.extension = extension;
+    }
+
+    Path pathOf(String key) {
+        String name = hash(key);
+        return dataPath.resolve(name.substring(0, 2)).resolve(name.substring(2, 4)).resolve(name + extension);
+    }
+
+    /**
+     * @return number of the shard directory of the key, {@code 0xabcd} for {@code ab/cd}
+     */
+    static int shardOf(String key) {
+        byte[] digest = DIGEST.get().digest(key.getBytes(StandardCharsets.UTF_8));
+        return (digest[0] & 0xFF) << 8 | digest[1] & 0xFF;
+    }
+
+    private Path shardPath(int shard) {
+        return dataPath.resolve(hex(shard >>> 8)).resolve(hex(shard & 0xFF));
+    }
+
+    private static String hex(int value) {
+        return new String(new char[]{HEX[(value >> 4) & 0xF], HEX[value & 0xF]});
+    }
+
+    /**
+     * @return fixed-length name of the file of the key without the extension
+     */
+    static String hash(String key) {
+        byte[] digest = DIGEST.get().digest(key.getBytes(StandardCharsets.UTF_8));
+        char[] name = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            name[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            name[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(name);
+    }
+
+    static byte[] header(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER_FIXED_LENGTH + rawKey.length)
+                         .putInt(MAGIC)
+                         .putInt(rawKey.length)
+                         .put(rawKey)
+                         .array();
+    }
+
+    /**
+     * @param rawLength length of the value before the compression
+     */
+    static byte[] header(String key, byte codecId, long rawLength) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER_FIXED_LENGTH + rawKey.length + CODEC_HEADER_LENGTH)
+                         .putInt(MAGIC_ENCODED)
+                         .putInt(rawKey.length)
+                         .put(rawKey)
+                         .put(codecId)
+                         .putLong(rawLength)
+                         .array();
+    }
+
+    /**
+     * @return offset of the raw value in the file of the key, the codec header of a compressed value starts there
+     */
+    static long valueOffset(String key) {
+        return HEADER_FIXED_LENGTH + key.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Creates the shard directories of the file if they aren't known yet
+     *
+     * @return true if any directory has been created
+     */
+    boolean ensureShard(Path file) throws IOException {
+        Path shard = file.getParent();
+        if (shards.contains(shard)) {
+            return false;
+        }
+
+        boolean created = !Files.isDirectory(shard);
+        Files.createDirectories(shard);
+        shards.add(shard);
+        return created;
+    }
+
+    /**
+     * @return header of the data file
+     */
+    static FileHeader readHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(HEADER_FIXED_LENGTH);
+            readFully(channel, fixed, 0);
+            int magic = fixed.getInt(0);
+            if (magic != MAGIC && magic != MAGIC_ENCODED) {
+                throw new IOException("Unknown format of data file " + file);
+            }
+
+            long size = channel.size();
+            int keyLength = fixed.getInt(4);
+            int codecLength = magic == MAGIC_ENCODED ? CODEC_HEADER_LENGTH : 0;
+            if (keyLength < 0 || keyLength > size - HEADER_FIXED_LENGTH - codecLength) {
+                throw new IOException("Corrupted header of data file " + file);
+            }
+            ByteBuffer rest = ByteBuffer.allocate(keyLength + codecLength);
+            readFully(channel, rest, HEADER_FIXED_LENGTH);
+            String key = new String(rest.array(), 0, keyLength, StandardCharsets.UTF_8);
+            long valueOffset = HEADER_FIXED_LENGTH + keyLength;
+            if (codecLength == 0) {
+                return new FileHeader(key, (byte) 0, size - valueOffset, valueOffset);
+            }
+            return new FileHeader(key, rest.get(keyLength), rest.getLong(keyLength + 1), valueOffset + codecLength);
+        }
+    }
+
+    /**
+     * @return data files of all shards
+     */
+    Stream<Path> dataFiles() throws IOException {
+        return Files.walk(dataPath, 3)
+                    .filter(path -> dataPath.relativize(path).getNameCount() == 3
+                            && isShard(path.getParent()) && isShard(path.getParent().getParent())
+                            && path.getFileName().toString().endsWith(extension)
+                            && Files.isRegularFile(path));
+    }
+
+    /**
+     * @return data files of the shard
+     */
+    Stream<Path> dataFiles(int shard) throws IOException {
+        Path shardPath = shardPath(shard);
+        if (!Files.isDirectory(shardPath)) {
+            return Stream.empty();
+        }
+        return Files.list(shardPath)
+                    .filter(path -> path.getFileName().toString().endsWith(extension) && Files.isRegularFile(path));
+    }
+
+    /**
+     * A shard directory is modified whenever a data file is moved into it or removed from it,
+     * so only the modified shards may differ from a snapshot of the keys taken at the given time
+     *
+     * @return shards modified since the time
+     */
+    BitSet modifiedShards(long sinceMillis) throws IOException {
+        BitSet modified = new BitSet(1 << 16);
+        try (DirectoryStream<Path> firstLevel = Files.newDirectoryStream(dataPath, ShardedLayout::isShardDirectory)) {
+            for (Path first : firstLevel) {
+                int high = Integer.parseInt(first.getFileName().toString(), 16);
+                try (DirectoryStream<Path> secondLevel = Files.newDirectoryStream(first, ShardedLayout::isShardDirectory)) {
+                    for (Path second : secondLevel) {
+                        if (Files.getLastModifiedTime(second).toMillis() >= sinceMillis) {
+                            modified.set(high << 8 | Integer.parseInt(second.getFileName().toString(), 16));
+                        }
+                    }
+                }
+            }
+        }
+        return modified;
+    }
+
+    private static boolean isShardDirectory(Path path) {
+        return isShard(path) && Files.isDirectory(path);
+    }
+
+    /**
+     * @return data files of the flat layout, {@code <dataPath>/<key>.data}
+     */
+    Stream<Path> flatDataFiles() throws IOException {
+        return Files.list(dataPath)
+                    .filter(path -> path.getFileName().toString().endsWith(extension) && Files.isRegularFile(path));
+    }
+
+    private static boolean isShard(Path directory) {
+        return SHARD_NAME.matcher(directory.getFileName().toString()).matches();
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of data file");
+            }
+        }
+    }
+
+    static final class FileHeader {
+
+        final String key;
+        /**
+         * Id of the codec of the value, 0 for a raw value
+         */
+        final byte codecId;
+        final long rawLength;
+        /**
+         * Offset of the stored (maybe compressed) value
+         */
+        final long valueOffset;
+
+        private FileHeader(String key, byte codecId, long rawLength, long valueOffset) {
+            this.key = key;
+            this.codecId = codecId;
+            this.rawLength = rawLength;
+            this.valueOffset = valueOffset;
+        }
+    }
+}
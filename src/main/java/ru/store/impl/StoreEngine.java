@@ -1,11 +1,17 @@
 package ru.store.impl;
 
 import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.async.Pipeline;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -19,10 +25,53 @@ public interface StoreEngine<K extends Comparable, V> extends AutoCloseable {
 
     V readSync(String key) throws StoreEngineOperationException;
 
+    /**
+     * @return read-only view of the stored value, empty if the key isn't stored
+     */
+    ByteBuffer readBuffer(String key) throws StoreEngineOperationException;
+
     CompletableFuture<Boolean> read(String key, Consumer<V> listener) throws StoreEngineOperationException;
 
+    /**
+     * Streams the value to the listener chunk by chunk. The listener borrows the buffer of a chunk only until it returns,
+     * the buffer is reused for the next chunks afterwards.
+     */
+    CompletableFuture<Boolean> readChunks(String key, Consumer<ByteBuffer> listener) throws StoreEngineOperationException;
+
     CompletableFuture<Boolean> write(String key, Iterator<V> dataIter, CompletableFuture<Boolean> completableFuture) throws StoreEngineOperationException;
 
+    /**
+     * @return channel of the stored value, which must be closed by the caller, or null if the key isn't stored
+     */
+    ReadableByteChannel openValue(String key) throws StoreEngineOperationException;
+
+    /**
+     * Stores the content of the source until its end, the length doesn't have to be known in advance
+     *
+     * @return length of the stored value
+     */
+    long writeFrom(String key, ReadableByteChannel source) throws StoreEngineOperationException;
+
+    /**
+     * Writes the stored value into the target, which must be a blocking channel
+     *
+     * @return count of transferred bytes, or -1 if the key isn't stored
+     */
+    long transferTo(String key, WritableByteChannel target) throws StoreEngineOperationException;
+
+    /**
+     * @return version of the stored value, {@link KeyVersions#ABSENT} if the key isn't stored
+     */
+    long version(String key);
+
+    /**
+     * Writes the value only if the version of the key is the expected one, {@link KeyVersions#ABSENT} expects
+     * the key isn't stored
+     *
+     * @return false if the version has been changed
+     */
+    boolean writeIfVersion(String key, V value, long expectedVersion) throws StoreEngineOperationException;
+
     boolean remove(K key) throws StoreEngineOperationException;
 
     int size() throws StoreEngineOperationException;
@@ -34,4 +83,83 @@ public interface StoreEngine<K extends Comparable, V> extends AutoCloseable {
     Stream<KeyValue<K, V>> entryStream() throws StoreEngineOperationException;
 
     void clear() throws StoreEngineOperationException;
+
+    /**
+     * Writes the writes acknowledged from memory to the storage, engines which write straight to the storage
+     * have nothing to flush
+     */
+    default void flush() throws StoreEngineOperationException {
+    }
+
+    /**
+     * Writes all the entries keeping many writes in flight
+     *
+     * @return future completed when all the entries are written, exceptionally with the first failure
+     */
+    default CompletableFuture<Boolean> writeAll(Map<K, V> entries) throws StoreEngineOperationException {
+        return Pipeline.forEach(entries.entrySet().iterator(), Pipeline.DEFAULT_MAX_IN_FLIGHT,
+                                entry -> write(entry.getKey(), entry.getValue()))
+                       .thenApply(v -> true);
+    }
+
+    /**
+     * Reads the stored keys of the collection keeping many reads in flight
+     *
+     * @return future of the values of the stored keys, keys which aren't stored are absent in the map
+     */
+    default CompletableFuture<Map<String, V>> readAll(Collection<String> keys) throws StoreEngineOperationException {
+        Set<K> stored = keys();
+        Map<String, V> result = new ConcurrentHashMap<>();
+        return Pipeline.forEach(keys.iterator(), Pipeline.DEFAULT_MAX_IN_FLIGHT, key -> {
+            String resultKey = key == null ? "null" : key;
+            if (!stored.contains(resultKey)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return read(resultKey).thenAccept(value -> {
+                if (value != null) {
+                    result.put(resultKey, value);
+                }
+            });
+        }).thenApply(v -> result);
+    }
+
+    /**
+     * @return future of the count of removed keys
+     */
+    default CompletableFuture<Integer> removeAll(Collection<K> keys) throws StoreEngineOperationException {
+        int removed = 0;
+        for (K key : keys) {
+            if (remove(key)) {
+                removed++;
+            }
+        }
+        return CompletableFuture.completedFuture(removed);
+    }
+
+    /**
+     * Sorts all the keys, engines with a sorted index of the keys find the range in O(log n + k)
+     *
+     * @param fromKey lowest key, inclusive, null for no lower bound
+     * @param toKey   highest key, exclusive, null for no upper bound
+     * @return stored keys of the range in ascending order
+     */
+    @SuppressWarnings("unchecked")
+    default Iterator<K> scan(K fromKey, K toKey) throws StoreEngineOperationException {
+        return keys().stream()
+                     .filter(key -> (fromKey == null || key.compareTo(fromKey) >= 0) && (toKey == null || key.compareTo(toKey) < 0))
+                     .sorted()
+                     .iterator();
+    }
+
+    /**
+     * @param prefix prefix of the keys, null or empty for all the keys
+     * @return stored keys starting with the prefix in ascending order
+     */
+    default Iterator<String> scanPrefix(String prefix) throws StoreEngineOperationException {
+        return keys().stream()
+                     .map(String::valueOf)
+                     .filter(key -> prefix == null || key.startsWith(prefix))
+                     .sorted()
+                     .iterator();
+    }
 }
@@ -0,0 +1,106 @@
+package ru.store.impl;
+
+import ru.store.impl.codec.Codec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Listener of the chunks of a whole data file which skips its header and passes the value to the consumer.
+ * Chunks of a raw value are passed as they are, a compressed value is decompressed incrementally chunk by chunk,
+ * so the memory doesn't depend on the length of the value.
+ */
+final class ValueChunkDecoder implements Consumer<ByteBuffer>, AutoCloseable {
+
+    private final ByteBuffer header;
+    private final Function<Byte, Codec> codecs;
+    private final Consumer<ByteBuffer> consumer;
+    private boolean headerRead;
+    private Codec.Decoder decoder;
+
+    /**
+     * @param key    key of the file, it defines the length of the header
+     * @param codecs codecs by id
+     */
+    ValueChunkDecoder(String key, Function<Byte, Codec> codecs, Consumer<ByteBuffer> consumer) {
+        int valueOffset = (int) ShardedLayout.valueOffset(key);
+        this.header = ByteBuffer.allocate(valueOffset + ShardedLayout.CODEC_HEADER_LENGTH);
+        this.header.limit(valueOffset);
+        this.codecs = codecs;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void accept(ByteBuffer chunk) {
+        if (!headerRead && !readHeader(chunk)) {
+            return;
+        }
+        if (!chunk.hasRemaining()) {
+            return;
+        }
+
+        if (decoder == null) {
+            consumer.accept(chunk);
+            return;
+        }
+        try {
+            decoder.decode(chunk, consumer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return whether the whole header has been read
+     */
+    private boolean readHeader(ByteBuffer chunk) {
+        copy(chunk);
+        if (header.hasRemaining()) {
+            return false;
+        }
+
+        int magic = header.getInt(0);
+        if (magic == ShardedLayout.MAGIC) {
+            headerRead = true;
+            return true;
+        }
+        if (magic != ShardedLayout.MAGIC_ENCODED) {
+            throw new IllegalStateException("Unknown format of data file");
+        }
+
+        if (header.limit() < header.capacity()) {
+            header.limit(header.capacity());
+            copy(chunk);
+            if (header.hasRemaining()) {
+                return false;
+            }
+        }
+
+        byte codecId = header.get(header.capacity() - ShardedLayout.CODEC_HEADER_LENGTH);
+        Codec codec = codecs.apply(codecId);
+        if (codec == null) {
+            throw new IllegalStateException("Unknown codec of data file: " + codecId);
+        }
+        decoder = codec.newDecoder();
+        headerRead = true;
+        return true;
+    }
+
+    private void copy(ByteBuffer chunk) {
+        int length = Math.min(chunk.remaining(), header.remaining());
+        ByteBuffer part = chunk.duplicate();
+        part.limit(part.position() + length);
+        header.put(part);
+        chunk.position(chunk.position() + length);
+    }
+
+    @Override
+    public void close() {
+        if (decoder != null) {
+            decoder.close();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ru.store.impl.async;
+
+import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.exceptions.StoreOverloadedException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the count and the bytes of async operations in flight. An operation is in flight from its start
+ * until its future is completed; when it doesn't fit the limits it's handled by the {@link OverloadPolicy}.
+ * An operation larger than the limit of bytes is admitted alone, otherwise it would never fit.
+ * There are no limits by default.
+ */
+public final class AdmissionController {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Deque<Deferred<?>> deferred = new ArrayDeque<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    private int maxOperations = Integer.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+    private OverloadPolicy policy = OverloadPolicy.BLOCK;
+    private int inFlight;
+    private long inFlightBytes;
+    private int blocked;
+
+    /**
+     * Operations deferred by the previous limits are started if they fit the new ones
+     */
+    public void setLimits(int maxOperations, long maxBytes, OverloadPolicy policy) {
+        if (maxOperations < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException(String.format("Limits must be positive: %d operations, %d bytes", maxOperations, maxBytes));
+        }
+
+        lock.lock();
+        try {
+            this.maxOperations = maxOperations;
+            this.maxBytes = maxBytes;
+            this.policy = policy;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * @param bytes    bytes the operation keeps referenced until it's over
+     * @param operation starts the operation
+     * @return future of the operation
+     */
+    public <T> CompletableFuture<T> submit(long bytes, Operation<T> operation) {
+        lock.lock();
+        try {
+            if (!fits(bytes) || !deferred.isEmpty()) {
+                switch (policy) {
+                    case FAIL_FAST:
+                        rejected.increment();
+                        return failed(new StoreOverloadedException(String.format(
+                                "Limits of operations in flight are reached: %d operations, %d bytes", inFlight, inFlightBytes)));
+                    case DEFER:
+                        Deferred<T> waiting = new Deferred<>(bytes, operation);
+                        deferred.add(waiting);
+                        return waiting.result;
+                    case BLOCK:
+                    default:
+                        blocked++;
+                        try {
+                            while (!fits(bytes)) {
+                                released.await();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return failed(new StoreEngineOperationException("Interrupted wait of capacity", e));
+                        } finally {
+                            blocked--;
+                        }
+                }
+            }
+            acquire(bytes);
+        } finally {
+            lock.unlock();
+        }
+        return start(bytes, operation);
+    }
+
+    /**
+     * Waits until there are no operations in flight or deferred
+     *
+     * @return false if the timeout elapsed before
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (inFlight > 0 || !deferred.isEmpty()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = released.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlightCount() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getInFlightBytes() {
+        lock.lock();
+        try {
+            return inFlightBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return count of operations deferred or blocked until there is capacity
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return deferred.size() + blocked;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return count of operations failed fast
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private boolean fits(long bytes) {
+        return inFlight == 0 || inFlight < maxOperations && inFlightBytes + bytes <= maxBytes;
+    }
+
+    private void acquire(long bytes) {
+        inFlight++;
+        inFlightBytes += bytes;
+    }
+
+    private <T> CompletableFuture<T> start(long bytes, Operation<T> operation) {
+        CompletableFuture<T> result;
+        try {
+            result = operation.start();
+        } catch (Exception e) {
+            result = failed(e);
+        }
+        // the capacity is released before dependents of the operation see it completed
+        return result.whenComplete((r, e) -> release(bytes));
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            inFlight--;
+            inFlightBytes -= bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * Starts the deferred operations which fit. Operations completed synchronously don't recurse
+     * into a new drain but make the running one loop again.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            List<Deferred<?>> ready = new ArrayList<>();
+            lock.lock();
+            try {
+                while (!deferred.isEmpty() && fits(deferred.peek().bytes)) {
+                    Deferred<?> next = deferred.poll();
+                    acquire(next.bytes);
+                    ready.add(next);
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (Deferred<?> next : ready) {
+                next.start();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    @FunctionalInterface
+    public interface Operation<T> {
+
+        CompletableFuture<T> start() throws Exception;
+    }
+
+    private final class Deferred<T> {
+
+        private final long bytes;
+        private final Operation<T> operation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Deferred(long bytes, Operation<T> operation) {
+            this.bytes = bytes;
+            this.operation = operation;
+        }
+
+        private void start() {
+            AdmissionController.this.start(bytes, operation).whenComplete((r, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(r);
+                }
+            });
+        }
+    }
+}
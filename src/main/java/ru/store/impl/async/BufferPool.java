@@ -0,0 +1,111 @@
+package ru.store.impl.async;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of reusable direct buffers in power-of-two size classes.
+ * Direct buffers are read into by the channels without the temporary copy the JDK does for heap buffers,
+ * and reusing them keeps streamed reads almost free of allocation.
+ * A released buffer is dropped instead of pooled when its class already retains the max count of buffers.
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_MIN_SIZE = 4096;
+    public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_POOLED_PER_CLASS = 64;
+
+    private static final int MAX_CLASS_SIZE = 1 << 30;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int maxPooledPerClass;
+    private final List<Queue<ByteBuffer>> classes;
+    private final AtomicInteger[] pooled;
+    private final LongAdder allocations = new LongAdder();
+
+    public BufferPool() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_POOLED_PER_CLASS);
+    }
+
+    /**
+     * @param minSize           capacity of the smallest class, rounded up to a power of two
+     * @param maxSize           capacity of the largest class, larger requests get it; rounded up to a power of two
+     *                          not above 2^30
+     * @param maxPooledPerClass max count of retained buffers of every class
+     */
+    public BufferPool(int minSize, int maxSize, int maxPooledPerClass) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException(String.format("Invalid sizes of buffers [%d, %d]", minSize, maxSize));
+        }
+        this.minSize = roundUp(minSize);
+        this.maxSize = roundUp(maxSize);
+        this.maxPooledPerClass = maxPooledPerClass;
+
+        int countClasses = Integer.numberOfTrailingZeros(this.maxSize) - Integer.numberOfTrailingZeros(this.minSize) + 1;
+        this.classes = new ArrayList<>(countClasses);
+        this.pooled = new AtomicInteger[countClasses];
+        for (int i = 0; i < countClasses; i++) {
+            classes.add(new ConcurrentLinkedQueue<>());
+            pooled[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * @param size wanted count of bytes, the buffer is limited to it (or to the max size of the pool)
+     * @return cleared buffer which must be given back with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquire(int size) {
+        int capacity = roundUp(Math.min(maxSize, Math.max(size, minSize)));
+        int classIndex = classIndex(capacity);
+        ByteBuffer buffer = classes.get(classIndex).poll();
+        if (buffer == null) {
+            allocations.increment();
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } else {
+            pooled[classIndex].decrementAndGet();
+        }
+
+        buffer.clear();
+        buffer.limit(Math.min(Math.max(size, 1), capacity));
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1 || capacity < minSize || capacity > maxSize) {
+            return;
+        }
+
+        int classIndex = classIndex(capacity);
+        if (pooled[classIndex].incrementAndGet() > maxPooledPerClass) {
+            pooled[classIndex].decrementAndGet();
+            return;
+        }
+        classes.get(classIndex).offer(buffer);
+    }
+
+    /**
+     * @return count of buffers allocated because the pool had none of the class
+     */
+    public long getAllocationCount() {
+        return allocations.sum();
+    }
+
+    private int classIndex(int capacity) {
+        return Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(minSize);
+    }
+
+    private static int roundUp(int size) {
+        if (size >= MAX_CLASS_SIZE) {
+            return MAX_CLASS_SIZE;
+        }
+        int highest = Integer.highestOneBit(size);
+        return highest == size ? size : highest << 1;
+    }
+}
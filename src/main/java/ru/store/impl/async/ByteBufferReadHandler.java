@@ -12,50 +12,85 @@ public class ByteBufferReadHandler implements CompletionHandler<Integer, ByteBuf
 
     private final CompletableFuture<Boolean> handlerCons;
     private final AsynchronousFileChannel channel;
-    private final Consumer<byte[]> consumer;
-    private int position = 0;
+    private final Consumer<ByteBuffer> consumer;
+    private final BufferPool bufferPool;
+    private long position;
+    private int chunkLength = -1;
 
     public ByteBufferReadHandler(CompletableFuture<Boolean> handlerCons, AsynchronousFileChannel channel,
                                  Consumer<byte[]> consumer) {
+        this(handlerCons, channel, consumer, 0);
+    }
+
+    /**
+     * @param position position of the first read in the file
+     */
+    public ByteBufferReadHandler(CompletableFuture<Boolean> handlerCons, AsynchronousFileChannel channel,
+                                 Consumer<byte[]> consumer, long position) {
+        this(handlerCons, channel, null, position, copying(consumer));
+    }
+
+    /**
+     * @param bufferPool pool the read buffer is released to when the read is over, null if it isn't pooled
+     * @param consumer   listener of the chunks, it borrows the buffer only until it returns
+     */
+    public ByteBufferReadHandler(CompletableFuture<Boolean> handlerCons, AsynchronousFileChannel channel,
+                                 BufferPool bufferPool, long position, Consumer<ByteBuffer> consumer) {
         this.handlerCons = handlerCons;
         this.channel = channel;
         this.consumer = consumer;
+        this.bufferPool = bufferPool;
+        this.position = position;
+    }
+
+    /**
+     * @return listener of borrowed buffers which passes a copy of every chunk to the consumer
+     */
+    public static Consumer<ByteBuffer> copying(Consumer<byte[]> consumer) {
+        return buffer -> {
+            byte[] res = new byte[buffer.remaining()];
+            buffer.get(res);
+            consumer.accept(res);
+        };
     }
 
     @Override
     public void completed(Integer result, ByteBuffer attachment) {
         if(result != -1) {
+            if (chunkLength < 0) {
+                chunkLength = attachment.limit();
+            }
             try {
                 attachment.flip();
-                byte[] res = new byte[result];
-                attachment.get(res);
-                consumer.accept(res);
+                consumer.accept(attachment);
             } catch (Exception e) {
+                close(attachment);
                 handlerCons.completeExceptionally(e);
                 return;
             }
 
             attachment.clear();
+            attachment.limit(chunkLength);
             position += result;
             //pass the same completion handler
             channel.read(attachment, position, attachment, this);
         } else {
-            close();
+            close(attachment);
             handlerCons.complete(true);
         }
     }
 
     @Override
     public void failed(Throwable exc, ByteBuffer attachment) {
+        close(attachment);
         if (exc instanceof NoSuchFileException) {
             handlerCons.complete(null);
         } else {
             handlerCons.completeExceptionally(exc);
-    }
-        close();
+        }
     }
 
-    private void close() {
+    private void close(ByteBuffer attachment) {
         if (channel.isOpen()) {
             try {
                 channel.close();
@@ -63,6 +98,9 @@ public class ByteBufferReadHandler implements CompletionHandler<Integer, ByteBuf
                 e.printStackTrace();
             }
         }
+        if (bufferPool != null) {
+            bufferPool.release(attachment);
+        }
     }
 
 }
@@ -10,7 +10,7 @@ import java.util.concurrent.CompletableFuture;
 public class ByteBufferWriteHandler implements CompletionHandler<Integer, ByteBuffer> {
     private final CompletableFuture<Boolean> handlerCons;
     private final Iterator<byte[]> data;
-    private int position = 0;
+    private long position = 0;
     private AsynchronousFileChannel channel;
 
     public ByteBufferWriteHandler(AsynchronousFileChannel channel, CompletableFuture<Boolean> handlerCons, Iterator<byte[]> data) {
@@ -21,25 +21,31 @@ public class ByteBufferWriteHandler implements CompletionHandler<Integer, ByteBu
 
     @Override
     public void completed(Integer result, ByteBuffer attachment) {
-        if(attachment.remaining() == 0) {
-            if (!data.hasNext()) {
-                close();
-                handlerCons.complete(true);
-                return;
-            }
-        } else {
-            position += result;
+        position += result;
+        if (attachment.hasRemaining()) {
             //pass the same completion handler
             channel.write(attachment, position, attachment, this);
             return;
         }
 
-        position += result;
+        if (!data.hasNext()) {
+            close();
+            handlerCons.complete(true);
+            return;
+        }
+
         byte[] value = data.next();
         ByteBuffer buffer = value == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(value);
         channel.write(buffer, position, buffer, this);
     }
 
+    /**
+     * @return count of written bytes
+     */
+    public long getPosition() {
+        return position;
+    }
+
     @Override
     public void failed(Throwable exc, ByteBuffer attachment) {
         handlerCons.completeExceptionally(exc);
@@ -0,0 +1,85 @@
+package ru.store.impl.async;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Executors of the engine I/O. Virtual threads are looked up by reflection, so the engines keep
+ * the Java 8 target and use virtual threads when they run on a JDK which has them (21+).
+ */
+public final class EngineExecutors {
+
+    private static final Logger LOG = Logger.getLogger(EngineExecutors.class.getName());
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final AtomicBoolean FALLBACK_WARNED = new AtomicBoolean();
+
+    private EngineExecutors() {
+    }
+
+    /**
+     * @param countThreads size of the pool for {@link ExecutionMode#FIXED_POOLS}, and for
+     *                     {@link ExecutionMode#VIRTUAL_THREADS} on a JDK without virtual threads
+     */
+    public static ExecutorService newExecutor(ExecutionMode mode, int countThreads) {
+        if (mode == ExecutionMode.VIRTUAL_THREADS) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor != null) {
+                return executor;
+            }
+            if (FALLBACK_WARNED.compareAndSet(false, true)) {
+                LOG.warning("Virtual threads aren't supported by the JDK, fixed pools of platform threads are used");
+            }
+            return Executors.newFixedThreadPool(countThreads, daemonThreads());
+        }
+        return Executors.newFixedThreadPool(countThreads);
+    }
+
+    /**
+     * @return count of tasks queued by a pool of threads, 0 for executors without a visible queue
+     */
+    public static long queueDepth(ExecutorService executor) {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            return null;
+        }
+
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            // preview of virtual threads which isn't enabled
+            return null;
+        }
+    }
+
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return runnable -> {
+            Thread thread = new Thread(runnable, "store-io-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package ru.store.impl.async;
+
+/**
+ * Threads the I/O of an engine runs on
+ */
+public enum ExecutionMode {
+
+    /**
+     * Fixed pools of platform threads sized by the settings of the engine
+     */
+    FIXED_POOLS,
+
+    /**
+     * A virtual thread per task, so blocked operations don't hold a platform thread.
+     * On a JDK without virtual threads the fixed pools of {@link #FIXED_POOLS} are used instead.
+     */
+    VIRTUAL_THREADS
+}
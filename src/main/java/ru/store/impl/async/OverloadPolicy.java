@@ -0,0 +1,22 @@
+package ru.store.impl.async;
+
+/**
+ * What an operation does when the limits of operations in flight are reached
+ */
+public enum OverloadPolicy {
+
+    /**
+     * The caller is blocked until there is capacity for the operation
+     */
+    BLOCK,
+
+    /**
+     * The returned future fails at once with {@link ru.store.exceptions.StoreOverloadedException}
+     */
+    FAIL_FAST,
+
+    /**
+     * The operation is queued and started when there is capacity, the returned future completes with it
+     */
+    DEFER
+}
@@ -0,0 +1,103 @@
+package ru.store.impl.async;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs an async operation for every item of a batch keeping a bounded number of them in flight,
+ * so a large batch neither waits for every single operation nor opens thousands of files at once.
+ * After the first failure no new operations are started.
+ */
+public final class Pipeline<T> {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private final Iterator<T> items;
+    private final int maxInFlight;
+    private final Operation<T> operation;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private Pipeline(Iterator<T> items, int maxInFlight, Operation<T> operation) {
+        this.items = items;
+        this.maxInFlight = maxInFlight;
+        this.operation = operation;
+    }
+
+    /**
+     * @return future completed when the operations of all items are completed,
+     * exceptionally with the first failure
+     */
+    public static <T> CompletableFuture<Void> forEach(Iterator<T> items, int maxInFlight, Operation<T> operation) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max count of operations in flight must be positive: " + maxInFlight);
+        }
+
+        Pipeline<T> pipeline = new Pipeline<>(items, maxInFlight, operation);
+        pipeline.drain();
+        return pipeline.result;
+    }
+
+    /**
+     * Starts operations while there are free slots. Operations completed synchronously don't recurse
+     * into a new drain but make the running one loop again.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            while (inFlight.get() < maxInFlight) {
+                if (failure.get() != null || !items.hasNext()) {
+                    if (inFlight.get() == 0) {
+                        complete();
+                    }
+                    break;
+                }
+
+                T item = items.next();
+                inFlight.incrementAndGet();
+                start(item).whenComplete((r, e) -> {
+                    if (e != null) {
+                        failure.compareAndSet(null, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    }
+                    inFlight.decrementAndGet();
+                    drain();
+                });
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private CompletableFuture<?> start(T item) {
+        try {
+            return operation.start(item);
+        } catch (Exception e) {
+            CompletableFuture<?> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private void complete() {
+        Throwable e = failure.get();
+        if (e != null) {
+            result.completeExceptionally(e);
+        } else {
+            result.complete(null);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Operation<T> {
+
+        CompletableFuture<?> start(T item) throws Exception;
+    }
+}
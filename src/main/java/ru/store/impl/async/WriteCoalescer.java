@@ -0,0 +1,118 @@
+package ru.store.impl.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent writes of the same key: while a write of the key is in flight, newer writes only
+ * replace the pending value, and the last pending value is written when the running write is over.
+ * Writes superseded by the pending value are completed together with it, as if they were written and
+ * overwritten at once, so a storm of writes of a hot key costs at most two writes in flight and pending.
+ */
+public final class WriteCoalescer<V> {
+
+    private final ConcurrentHashMap<String, Slot<V>> slots = new ConcurrentHashMap<>();
+    private final Writer<V> writer;
+    private final LongAdder coalesced = new LongAdder();
+
+    public WriteCoalescer(Writer<V> writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * @return future completed with the result of the write which has stored the value or superseded it
+     */
+    public CompletableFuture<Boolean> write(String key, V value) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        boolean[] started = {false};
+        slots.compute(key, (k, slot) -> {
+            if (slot == null) {
+                started[0] = true;
+                return new Slot<>();
+            }
+
+            if (!slot.pendingWaiters.isEmpty()) {
+                coalesced.increment();
+            }
+            slot.pendingValue = value;
+            slot.pendingWaiters.add(result);
+            return slot;
+        });
+
+        if (started[0]) {
+            List<CompletableFuture<Boolean>> waiters = new ArrayList<>(1);
+            waiters.add(result);
+            start(key, value, waiters);
+        }
+        return result;
+    }
+
+    /**
+     * @return count of values replaced by a newer value before their write has started
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return count of keys with a write in flight
+     */
+    public int getInFlightCount() {
+        return slots.size();
+    }
+
+    private void start(String key, V value, List<CompletableFuture<Boolean>> waiters) {
+        CompletableFuture<Boolean> written;
+        try {
+            written = writer.write(key, value);
+        } catch (Exception e) {
+            written = new CompletableFuture<>();
+            written.completeExceptionally(e);
+        }
+
+        written.whenComplete((res, e) -> {
+            for (CompletableFuture<Boolean> waiter : waiters) {
+                if (e != null) {
+                    waiter.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                } else {
+                    waiter.complete(res);
+                }
+            }
+            startPending(key);
+        });
+    }
+
+    private void startPending(String key) {
+        AtomicReference<Slot<V>> pending = new AtomicReference<>();
+        slots.computeIfPresent(key, (k, slot) -> {
+            if (slot.pendingWaiters.isEmpty()) {
+                return null;
+            }
+
+            pending.set(slot);
+            return new Slot<>();
+        });
+
+        Slot<V> slot = pending.get();
+        if (slot != null) {
+            start(key, slot.pendingValue, slot.pendingWaiters);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Writer<V> {
+
+        CompletableFuture<Boolean> write(String key, V value) throws Exception;
+    }
+
+    private static final class Slot<V> {
+
+        private V pendingValue;
+        private final List<CompletableFuture<Boolean>> pendingWaiters = new ArrayList<>();
+    }
+}
@@ -0,0 +1,361 @@
+package ru.store.impl.cache;
+
+import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.KeyValue;
+import ru.store.impl.StoreEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Decorator of {@link StoreEngine} which serves reads of whole values from a {@link ValueCache}.
+ * <p>
+ * Every mutation bumps the stamp of the stripe of the key and invalidates it before and after the
+ * delegate completes. A value loaded on a miss is cached only if the stamp didn't change during
+ * the load, otherwise it could be a value already overwritten by a concurrent write.
+ * Cached arrays aren't handed out to the callers, who may modify them: the reads of arrays return copies,
+ * only the reads of buffers share the cached values as read-only views.
+ */
+public class CachingStoreEngine implements StoreEngine<String, byte[]> {
+
+    private static final int STRIPES = 64;
+
+    private final StoreEngine<String, byte[]> delegate;
+    private final ValueCache cache;
+    private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+
+    public CachingStoreEngine(StoreEngine<String, byte[]> delegate, ValueCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    public ValueCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> write(String key, byte[] value) throws StoreEngineOperationException {
+        String cacheKey = normalize(key);
+        mutated(cacheKey);
+        try {
+            return delegate.write(key, value).whenComplete((r, e) -> mutated(cacheKey));
+        } catch (StoreEngineOperationException | RuntimeException e) {
+            mutated(cacheKey);
+            throw e;
+        }
+    }
+
+    @Override
+    public byte[] writeSync(String key, byte[] value) throws StoreEngineOperationException {
+        String cacheKey = normalize(key);
+        mutated(cacheKey);
+        try {
+            return delegate.writeSync(key, value);
+        } finally {
+            mutated(cacheKey);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> write(String key, Iterator<byte[]> dataIter, CompletableFuture<Boolean> completableFuture)
+            throws StoreEngineOperationException {
+        String cacheKey = normalize(key);
+        mutated(cacheKey);
+        try {
+            CompletableFuture<Boolean> result = delegate.write(key, dataIter, completableFuture);
+            result.whenComplete((r, e) -> mutated(cacheKey));
+            return result;
+        } catch (StoreEngineOperationException | RuntimeException e) {
+            mutated(cacheKey);
+            throw e;
+        }
+    }
+
+    @Override
+    public long writeFrom(String key, ReadableByteChannel source) throws StoreEngineOperationException {
+        String cacheKey = normalize(key);
+        mutated(cacheKey);
+        try {
+            return delegate.writeFrom(key, source);
+        } finally {
+            mutated(cacheKey);
+        }
+    }
+
+    /**
+     * Streams aren't cached, the values they are opened for may be too large for the cache
+     */
+    @Override
+    public ReadableByteChannel openValue(String key) throws StoreEngineOperationException {
+        byte[] cached = cache.get(normalize(key));
+        if (cached != null) {
+            return Channels.newChannel(new ByteArrayInputStream(cached));
+        }
+        return delegate.openValue(key);
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws StoreEngineOperationException {
+        byte[] cached = cache.get(normalize(key));
+        if (cached == null) {
+            return delegate.transferTo(key, target);
+        }
+
+        try {
+            ByteBuffer value = ByteBuffer.wrap(cached);
+            while (value.hasRemaining()) {
+                target.write(value);
+            }
+            return cached.length;
+        } catch (IOException e) {
+            throw new StoreEngineOperationException("Error transfer key " + key, e);
+        }
+    }
+
+    @Override
+    public long version(String key) {
+        return delegate.version(key);
+    }
+
+    @Override
+    public boolean writeIfVersion(String key, byte[] value, long expectedVersion) throws StoreEngineOperationException {
+        String cacheKey = normalize(key);
+        mutated(cacheKey);
+        try {
+            return delegate.writeIfVersion(key, value, expectedVersion);
+        } finally {
+            mutated(cacheKey);
+        }
+    }
+
+    @Override
+    public boolean remove(String key) throws StoreEngineOperationException {
+        String cacheKey = normalize(key);
+        mutated(cacheKey);
+        try {
+            return delegate.remove(key);
+        } finally {
+            mutated(cacheKey);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> writeAll(Map<String, byte[]> entries) throws StoreEngineOperationException {
+        return mutateAll(entries.keySet(), () -> delegate.writeAll(entries));
+    }
+
+    @Override
+    public CompletableFuture<Integer> removeAll(Collection<String> keys) throws StoreEngineOperationException {
+        return mutateAll(keys, () -> delegate.removeAll(keys));
+    }
+
+    /**
+     * Hits are served by the cache, only the missed keys are read by the delegate
+     */
+    @Override
+    public CompletableFuture<Map<String, byte[]>> readAll(Collection<String> keys) throws StoreEngineOperationException {
+        Map<String, byte[]> result = new ConcurrentHashMap<>();
+        Map<String, Long> missed = new HashMap<>();
+        for (String key : keys) {
+            String cacheKey = normalize(key);
+            byte[] cached = cache.get(cacheKey);
+            if (cached != null) {
+                result.put(cacheKey, cached.clone());
+            } else {
+                missed.put(cacheKey, stamp(cacheKey));
+            }
+        }
+        if (missed.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        return delegate.readAll(missed.keySet()).thenApply(loaded -> {
+            loaded.forEach((key, value) -> {
+                cacheLoaded(key, value, missed.get(key));
+                result.put(key, value);
+            });
+            return result;
+        });
+    }
+
+    private <T> CompletableFuture<T> mutateAll(Collection<String> keys, BatchMutation<T> mutation) throws StoreEngineOperationException {
+        List<String> cacheKeys = keys.stream().map(CachingStoreEngine::normalize).collect(Collectors.toList());
+        cacheKeys.forEach(this::mutated);
+        try {
+            CompletableFuture<T> result = mutation.start();
+            result.whenComplete((r, e) -> cacheKeys.forEach(this::mutated));
+            return result;
+        } catch (StoreEngineOperationException | RuntimeException e) {
+            cacheKeys.forEach(this::mutated);
+            throw e;
+        }
+    }
+
+    @Override
+    public void clear() throws StoreEngineOperationException {
+        for (int i = 0; i < STRIPES; i++) {
+            stamps.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+        try {
+            delegate.clear();
+        } finally {
+            for (int i = 0; i < STRIPES; i++) {
+                stamps.incrementAndGet(i);
+            }
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public CompletableFuture<byte[]> read(String key) throws StoreEngineOperationException {
+        String cacheKey = normalize(key);
+        byte[] cached = cache.get(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.clone());
+        }
+
+        long stamp = stamp(cacheKey);
+        return delegate.read(key).thenApply(value -> {
+            cacheLoaded(cacheKey, value, stamp);
+            return value;
+        });
+    }
+
+    @Override
+    public byte[] readSync(String key) throws StoreEngineOperationException {
+        String cacheKey = normalize(key);
+        byte[] cached = cache.get(cacheKey);
+        if (cached != null) {
+            return cached.clone();
+        }
+
+        long stamp = stamp(cacheKey);
+        byte[] value = delegate.readSync(key);
+        cacheLoaded(cacheKey, value, stamp);
+        return value;
+    }
+
+    @Override
+    public ByteBuffer readBuffer(String key) throws StoreEngineOperationException {
+        byte[] cached = cache.get(normalize(key));
+        if (cached != null) {
+            return ByteBuffer.wrap(cached).asReadOnlyBuffer();
+        }
+        return delegate.readBuffer(key);
+    }
+
+    /**
+     * Streamed reads aren't cached, the cache is only used when the whole value is there
+     */
+    @Override
+    public CompletableFuture<Boolean> read(String key, Consumer<byte[]> listener) throws StoreEngineOperationException {
+        byte[] cached = cache.get(normalize(key));
+        if (cached != null) {
+            listener.accept(cached.clone());
+            return CompletableFuture.completedFuture(true);
+        }
+        return delegate.read(key, listener);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> readChunks(String key, Consumer<ByteBuffer> listener) throws StoreEngineOperationException {
+        byte[] cached = cache.get(normalize(key));
+        if (cached != null) {
+            listener.accept(ByteBuffer.wrap(cached).asReadOnlyBuffer());
+            return CompletableFuture.completedFuture(true);
+        }
+        return delegate.readChunks(key, listener);
+    }
+
+    @Override
+    public int size() throws StoreEngineOperationException {
+        return delegate.size();
+    }
+
+    @Override
+    public Set<String> keys() throws StoreEngineOperationException {
+        return delegate.keys();
+    }
+
+    @Override
+    public Iterator<String> scan(String fromKey, String toKey) throws StoreEngineOperationException {
+        return delegate.scan(fromKey, toKey);
+    }
+
+    @Override
+    public Iterator<String> scanPrefix(String prefix) throws StoreEngineOperationException {
+        return delegate.scanPrefix(prefix);
+    }
+
+    @Override
+    public Collection<byte[]> values() throws StoreEngineOperationException {
+        return delegate.values();
+    }
+
+    @Override
+    public Stream<KeyValue<String, byte[]>> entryStream() throws StoreEngineOperationException {
+        return delegate.entryStream();
+    }
+
+    @Override
+    public void flush() throws StoreEngineOperationException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws Exception {
+        cache.invalidateAll();
+        delegate.close();
+    }
+
+    private void cacheLoaded(String key, byte[] value, long stamp) {
+        if (value == null || value.length == 0) {
+            return;
+        }
+        cache.put(key, value.clone());
+        if (stamp(key) != stamp) {
+            cache.invalidate(key);
+        }
+    }
+
+    private void mutated(String key) {
+        stamps.incrementAndGet(stripe(key));
+        cache.invalidate(key);
+    }
+
+    private long stamp(String key) {
+        return stamps.get(stripe(key));
+    }
+
+    @FunctionalInterface
+    private interface BatchMutation<T> {
+
+        CompletableFuture<T> start() throws StoreEngineOperationException;
+    }
+
+    private static int stripe(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private static String normalize(String key) {
+        return key == null ? "null" : key;
+    }
+}
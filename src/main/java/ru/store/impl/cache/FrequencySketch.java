@@ -0,0 +1,74 @@
+package ru.store.impl.cache;
+
+/**
+ * Count-min sketch of the popularity of keys (TinyLFU).
+ * Counters are saturated at {@link #MAX_COUNT} and halved every sample period,
+ * so the history ages and recently popular keys win over formerly popular ones.
+ * Not thread-safe, the owner must guard it.
+ */
+final class FrequencySketch {
+
+    static final int MAX_COUNT = 15;
+
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x97cb3127, 0x9e3779b9, 0x85ebca6b, 0xc2b2ae35};
+
+    private final byte[][] table;
+    private final int mask;
+    private final int samplePeriod;
+    private int additions;
+
+    /**
+     * @param expectedKeys number of keys expected to be cached, defines the width of the sketch
+     */
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(16, Math.min(expectedKeys, 1 << 24)) - 1) << 1;
+        this.table = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.samplePeriod = 10 * width;
+    }
+
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (table[i][index] < MAX_COUNT) {
+                table[i][index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= samplePeriod) {
+            reset();
+        }
+    }
+
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (byte[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash + SEEDS[row]) * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,370 @@
+package ru.store.impl.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of values kept in direct memory, so it can grow far beyond the heap without GC pressure.
+ * <p>
+ * Memory is allocated lazily in slabs of equal size up to the budget. Every slab is cut into chunks
+ * of one size class (classes grow by {@link #GROWTH_FACTOR}) and a value takes the smallest chunk
+ * that fits it. When a class has no free chunk and the budget is spent, the least recently used
+ * values of the class are evicted, if the candidate is more popular than them (TinyLFU admission).
+ * A class which holds no values gets a slab of the class with the most slabs, the values of that slab
+ * are evicted under the same admission, so the budget follows the sizes of the workload.
+ * Values larger than a slab aren't cached.
+ * <p>
+ * The budget must fit into {@code -XX:MaxDirectMemorySize}.
+ */
+public class OffHeapValueCache implements ValueCache {
+
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+
+    private final int slabSize;
+    private final int maxSlabs;
+    private final int[] chunkSizes;
+    private final SizeClass[] sizeClasses;
+    private final Map<String, SizeClass> index = new HashMap<>();
+    private final FrequencySketch sketch;
+    private int allocatedSlabs;
+    private long weightedSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public OffHeapValueCache(long maxBytes) {
+        this(maxBytes, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param maxBytes  budget of direct memory
+     * @param slabSize  size of the unit of allocation, it's also the max size of a cached value
+     */
+    public OffHeapValueCache(long maxBytes, int slabSize) {
+        if (slabSize < MIN_CHUNK_SIZE || maxBytes < slabSize) {
+            throw new IllegalArgumentException(String.format("Invalid budget %d or size of slab %d", maxBytes, slabSize));
+        }
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, maxBytes / slabSize);
+        this.chunkSizes = chunkSizes(slabSize);
+        this.sizeClasses = new SizeClass[chunkSizes.length];
+        for (int i = 0; i < chunkSizes.length; i++) {
+            sizeClasses[i] = new SizeClass(chunkSizes[i]);
+        }
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxBytes / 1024));
+    }
+
+    @Override
+    public byte[] get(String key) {
+        ByteBuffer target = null;
+        synchronized (this) {
+            sketch.increment(key);
+            Chunk chunk = touch(key);
+            if (chunk != null) {
+                target = ByteBuffer.allocate(chunk.length);
+                chunk.copyTo(target);
+            }
+        }
+        count(target != null);
+        return target == null ? null : target.array();
+    }
+
+    /**
+     * Copies the cached value into the buffer of the caller
+     *
+     * @return length of the value or -1 if it isn't cached or doesn't fit into the remaining of target
+     */
+    public int get(String key, ByteBuffer target) {
+        int length = -1;
+        synchronized (this) {
+            sketch.increment(key);
+            Chunk chunk = touch(key);
+            if (chunk != null && chunk.length <= target.remaining()) {
+                chunk.copyTo(target);
+                length = chunk.length;
+            }
+        }
+        count(length >= 0);
+        return length;
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] value) {
+        remove(key);
+        int classIndex = classIndexOf(value.length);
+        if (classIndex < 0) {
+            return;
+        }
+
+        SizeClass sizeClass = sizeClasses[classIndex];
+        Chunk chunk = allocate(sizeClass, key);
+        if (chunk == null) {
+            return;
+        }
+        chunk.write(value);
+        sizeClass.entries.put(key, chunk);
+        index.put(key, sizeClass);
+        weightedSize += value.length;
+    }
+
+    @Override
+    public synchronized void invalidate(String key) {
+        remove(key);
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        for (SizeClass sizeClass : sizeClasses) {
+            for (Chunk chunk : sizeClass.entries.values()) {
+                sizeClass.free.push(chunk.address);
+            }
+            sizeClass.entries.clear();
+        }
+        index.clear();
+        weightedSize = 0;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public synchronized long getWeightedSize() {
+        return weightedSize;
+    }
+
+    /**
+     * @return direct memory allocated by the cache
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) allocatedSlabs * slabSize;
+    }
+
+    private Chunk touch(String key) {
+        SizeClass sizeClass = index.get(key);
+        return sizeClass == null ? null : sizeClass.entries.get(key);
+    }
+
+    private void count(boolean hit) {
+        if (hit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+    }
+
+    private void remove(String key) {
+        SizeClass sizeClass = index.remove(key);
+        if (sizeClass != null) {
+            Chunk chunk = sizeClass.entries.remove(key);
+            sizeClass.free.push(chunk.address);
+            weightedSize -= chunk.length;
+        }
+    }
+
+    private Chunk allocate(SizeClass sizeClass, String key) {
+        if (sizeClass.free.isEmpty() && allocatedSlabs < maxSlabs) {
+            sizeClass.addSlab(ByteBuffer.allocateDirect(slabSize));
+            allocatedSlabs++;
+        }
+
+        if (sizeClass.free.isEmpty() && sizeClass.entries.isEmpty() && !moveSlab(sizeClass, key)) {
+            return null;
+        }
+
+        if (sizeClass.free.isEmpty()) {
+            Iterator<Map.Entry<String, Chunk>> eldest = sizeClass.entries.entrySet().iterator();
+            if (!eldest.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, Chunk> victim = eldest.next();
+            if (sketch.frequency(key) <= sketch.frequency(victim.getKey())) {
+                return null;
+            }
+            eldest.remove();
+            index.remove(victim.getKey());
+            sizeClass.free.push(victim.getValue().address);
+            weightedSize -= victim.getValue().length;
+            evictions.increment();
+        }
+
+        return sizeClass.chunk(sizeClass.free.pop());
+    }
+
+    /**
+     * Moves a slab of the class with the most slabs to the target class. A slab holding values is the slab
+     * of the least recently used value of the class, its values are evicted if the candidate is more popular.
+     *
+     * @return whether the target class got the slab
+     */
+    private boolean moveSlab(SizeClass target, String key) {
+        SizeClass donor = null;
+        for (SizeClass candidate : sizeClasses) {
+            if (candidate != target && (donor == null || candidate.countSlabs > donor.countSlabs)) {
+                donor = candidate;
+            }
+        }
+        if (donor == null || donor.countSlabs == 0) {
+            return false;
+        }
+
+        int slabIndex;
+        if (donor.entries.isEmpty()) {
+            slabIndex = donor.anySlab();
+        } else {
+            Map.Entry<String, Chunk> eldest = donor.entries.entrySet().iterator().next();
+            if (sketch.frequency(key) <= sketch.frequency(eldest.getKey())) {
+                return false;
+            }
+            slabIndex = SizeClass.slabIndexOf(eldest.getValue().address);
+        }
+
+        Iterator<Map.Entry<String, Chunk>> entries = donor.entries.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Chunk> entry = entries.next();
+            if (SizeClass.slabIndexOf(entry.getValue().address) == slabIndex) {
+                entries.remove();
+                index.remove(entry.getKey());
+                weightedSize -= entry.getValue().length;
+                evictions.increment();
+            }
+        }
+        target.addSlab(donor.removeSlab(slabIndex));
+        return true;
+    }
+
+    private int classIndexOf(int length) {
+        for (int i = 0; i < chunkSizes.length; i++) {
+            if (length <= chunkSizes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] chunkSizes(int slabSize) {
+        List<Integer> sizes = new ArrayList<>();
+        long size = MIN_CHUNK_SIZE;
+        while (size < slabSize) {
+            sizes.add((int) size);
+            size = (long) Math.ceil(size * GROWTH_FACTOR / 8) * 8;
+        }
+        sizes.add(slabSize);
+        return sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Slabs of one chunk size, their free chunks and LRU of their values.
+     * Indexes of moved out slabs are vacant until a slab is added again.
+     */
+    private static final class SizeClass {
+
+        private final int chunkSize;
+        private final List<ByteBuffer> slabs = new ArrayList<>();
+        private final ArrayDeque<Integer> vacant = new ArrayDeque<>();
+        private final ArrayDeque<Long> free = new ArrayDeque<>();
+        private final LinkedHashMap<String, Chunk> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private int countSlabs;
+
+        private SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        private void addSlab(ByteBuffer slab) {
+            long slabIndex;
+            if (vacant.isEmpty()) {
+                slabIndex = slabs.size();
+                slabs.add(slab);
+            } else {
+                slabIndex = vacant.pop();
+                slabs.set((int) slabIndex, slab);
+            }
+            countSlabs++;
+            for (int offset = 0; offset + chunkSize <= slab.capacity(); offset += chunkSize) {
+                free.push(slabIndex << 32 | offset);
+            }
+        }
+
+        /**
+         * @return the slab without its free chunks, chunks of its values must be removed by the caller
+         */
+        private ByteBuffer removeSlab(int slabIndex) {
+            ByteBuffer slab = slabs.set(slabIndex, null);
+            vacant.push(slabIndex);
+            countSlabs--;
+            free.removeIf(address -> slabIndexOf(address) == slabIndex);
+            return slab;
+        }
+
+        private int anySlab() {
+            for (int i = 0; i < slabs.size(); i++) {
+                if (slabs.get(i) != null) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Size class has no slab");
+        }
+
+        private static int slabIndexOf(long address) {
+            return (int) (address >>> 32);
+        }
+
+        /**
+         * @param address index of the slab in the high half and offset in the low half
+         */
+        private Chunk chunk(long address) {
+            return new Chunk(slabs.get(slabIndexOf(address)), address);
+        }
+    }
+
+    private static final class Chunk {
+
+        private final ByteBuffer slab;
+        private final long address;
+        private int length;
+
+        private Chunk(ByteBuffer slab, long address) {
+            this.slab = slab;
+            this.address = address;
+        }
+
+        private int offset() {
+            return (int) address;
+        }
+
+        private void write(byte[] value) {
+            slab.position(offset());
+            slab.put(value);
+            length = value.length;
+        }
+
+        private void copyTo(ByteBuffer target) {
+            ByteBuffer source = slab.duplicate();
+            source.position(offset());
+            source.limit(offset() + length);
+            target.put(source);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package ru.store.impl.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Segmented LRU cache with TinyLFU admission, bounded by the total size of the values.
+ * New entries go to the probation segment and are promoted to the protected one on the next hit.
+ * When the cache is full, a candidate is admitted only if it's more popular than the victim
+ * from the tail of probation, so one-off reads (e.g. full scans) don't flush the hot values.
+ */
+public class TinyLfuValueCache implements ValueCache {
+
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final int EXPECTED_VALUE_SIZE = 1024;
+
+    private final long maxWeight;
+    private final long maxProtectedWeight;
+    private final FrequencySketch sketch;
+
+    private final LinkedHashMap<String, byte[]> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, byte[]> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationWeight;
+    private long protectedWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight max total size in bytes of the cached values
+     */
+    public TinyLfuValueCache(long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Max weight of cache must be positive: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        this.maxProtectedWeight = (long) (maxWeight * PROTECTED_RATIO);
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxWeight / EXPECTED_VALUE_SIZE));
+    }
+
+    @Override
+    public synchronized byte[] get(String key) {
+        sketch.increment(key);
+
+        byte[] value = protectedSegment.get(key);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+
+        value = probation.remove(key);
+        if (value == null) {
+            misses.increment();
+            return null;
+        }
+
+        probationWeight -= value.length;
+        protectedSegment.put(key, value);
+        protectedWeight += value.length;
+        demoteProtected();
+        hits.increment();
+        return value;
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] value) {
+        if (value.length > maxWeight) {
+            remove(key);
+            return;
+        }
+
+        byte[] old = protectedSegment.get(key);
+        if (old != null) {
+            protectedSegment.put(key, value);
+            protectedWeight += value.length - old.length;
+            demoteProtected();
+            evictFor(0);
+            return;
+        }
+
+        old = probation.remove(key);
+        if (old != null) {
+            probationWeight -= old.length;
+        } else if (!admit(key, value.length)) {
+            return;
+        }
+        evictFor(value.length);
+        probation.put(key, value);
+        probationWeight += value.length;
+    }
+
+    @Override
+    public synchronized void invalidate(String key) {
+        remove(key);
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        probation.clear();
+        protectedSegment.clear();
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public synchronized long getWeightedSize() {
+        return probationWeight + protectedWeight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    private void remove(String key) {
+        byte[] old = probation.remove(key);
+        if (old != null) {
+            probationWeight -= old.length;
+        }
+        old = protectedSegment.remove(key);
+        if (old != null) {
+            protectedWeight -= old.length;
+        }
+    }
+
+    /**
+     * TinyLFU filter: the candidate must be more popular than every victim it would evict
+     */
+    private boolean admit(String key, int weight) {
+        long excess = probationWeight + protectedWeight + weight - maxWeight;
+        if (excess <= 0) {
+            return true;
+        }
+
+        int candidateFrequency = sketch.frequency(key);
+        Iterator<Map.Entry<String, byte[]>> victims = new VictimIterator();
+        while (excess > 0 && victims.hasNext()) {
+            Map.Entry<String, byte[]> victim = victims.next();
+            if (candidateFrequency <= sketch.frequency(victim.getKey())) {
+                return false;
+            }
+            excess -= victim.getValue().length;
+        }
+        return true;
+    }
+
+    private void evictFor(int weight) {
+        while (probationWeight + protectedWeight + weight > maxWeight) {
+            LinkedHashMap<String, byte[]> segment = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<Map.Entry<String, byte[]>> eldest = segment.entrySet().iterator();
+            if (!eldest.hasNext()) {
+                return;
+            }
+            int length = eldest.next().getValue().length;
+            eldest.remove();
+            if (segment == probation) {
+                probationWeight -= length;
+            } else {
+                protectedWeight -= length;
+            }
+            evictions.increment();
+        }
+    }
+
+    private void demoteProtected() {
+        Iterator<Map.Entry<String, byte[]>> eldest = protectedSegment.entrySet().iterator();
+        while (protectedWeight > maxProtectedWeight && eldest.hasNext()) {
+            Map.Entry<String, byte[]> entry = eldest.next();
+            eldest.remove();
+            protectedWeight -= entry.getValue().length;
+            probation.put(entry.getKey(), entry.getValue());
+            probationWeight += entry.getValue().length;
+        }
+    }
+
+    /**
+     * Entries in the order of eviction: probation from the eldest, then protected from the eldest
+     */
+    private final class VictimIterator implements Iterator<Map.Entry<String, byte[]>> {
+
+        private final Iterator<Map.Entry<String, byte[]>> probationIter = probation.entrySet().iterator();
+        private final Iterator<Map.Entry<String, byte[]>> protectedIter = protectedSegment.entrySet().iterator();
+
+        @Override
+        public boolean hasNext() {
+            return probationIter.hasNext() || protectedIter.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next() {
+            return probationIter.hasNext() ? probationIter.next() : protectedIter.next();
+        }
+    }
+}
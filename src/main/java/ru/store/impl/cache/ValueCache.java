@@ -0,0 +1,33 @@
+package ru.store.impl.cache;
+
+/**
+ * Bounded cache of the stored values, weighted by their size in bytes.
+ * Implementations must be thread-safe.
+ */
+public interface ValueCache {
+
+    /**
+     * @return cached value or {@code null} if it isn't cached
+     */
+    byte[] get(String key);
+
+    /**
+     * Offers the value to the cache, the policy of the implementation may reject it
+     */
+    void put(String key, byte[] value);
+
+    void invalidate(String key);
+
+    void invalidateAll();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    /**
+     * @return total size in bytes of the cached values
+     */
+    long getWeightedSize();
+}
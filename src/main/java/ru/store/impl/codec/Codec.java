@@ -0,0 +1,47 @@
+package ru.store.impl.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Compression of the values. The id of the codec is stored in the header of every compressed file,
+ * so values of different codecs and raw values can be read side by side.
+ */
+public interface Codec {
+
+    /**
+     * @return id of the codec in the header of the file, 1..127, 0 is reserved for raw values
+     */
+    byte getId();
+
+    /**
+     * @return compressed value
+     */
+    byte[] encode(byte[] value);
+
+    /**
+     * @return decoder of one compressed value which is fed chunk by chunk
+     */
+    Decoder newDecoder();
+
+    /**
+     * Incremental decompression of one value, it isn't thread-safe
+     */
+    interface Decoder extends AutoCloseable {
+
+        /**
+         * Decodes the chunk completely. The decoded bytes are passed to the output in buffers
+         * which are borrowed only until the output returns.
+         */
+        void decode(ByteBuffer chunk, Consumer<ByteBuffer> output) throws IOException;
+
+        /**
+         * @return whether the end of the compressed value has been decoded
+         */
+        boolean isFinished();
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,81 @@
+package ru.store.impl.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Channel of the decoded value read from a channel of the compressed value
+ */
+public class DecodingChannel implements ReadableByteChannel {
+
+    private static final int SIZE_CHUNK = 64 * 1024;
+
+    private final ReadableByteChannel source;
+    private final Codec.Decoder decoder;
+    private final ByteBuffer input = ByteBuffer.allocate(SIZE_CHUNK);
+    private byte[] pending = new byte[SIZE_CHUNK];
+    private int pendingStart;
+    private int pendingEnd;
+    private boolean open = true;
+
+    public DecodingChannel(ReadableByteChannel source, Codec.Decoder decoder) {
+        this.source = source;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+
+        while (pendingStart == pendingEnd) {
+            if (decoder.isFinished()) {
+                return -1;
+            }
+
+            input.clear();
+            if (source.read(input) < 0) {
+                if (!decoder.isFinished()) {
+                    throw new IOException("Unexpected end of compressed value");
+                }
+                return -1;
+            }
+            input.flip();
+            pendingStart = 0;
+            pendingEnd = 0;
+            decoder.decode(input, this::append);
+        }
+
+        int length = Math.min(dst.remaining(), pendingEnd - pendingStart);
+        dst.put(pending, pendingStart, length);
+        pendingStart += length;
+        return length;
+    }
+
+    private void append(ByteBuffer decoded) {
+        int length = decoded.remaining();
+        if (pendingEnd + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingEnd + length));
+        }
+        decoded.get(pending, pendingEnd, length);
+        pendingEnd += length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            decoder.close();
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ru.store.impl.durability;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Retrier which doesn't wait on a thread: the first attempt runs on the calling thread,
+ * and the next ones are handed to the {@link ExecutorByTimeout} with the backoff of the {@link RetryPolicy}
+ * as timeout. The future fails with the failure of the last attempt.
+ * An executor which runs the next attempt on the calling thread makes the attempts loop instead of recursing.
+ */
+public final class AsyncRetrier {
+
+    private static final int SCHEDULING = 0;
+    private static final int SCHEDULED = 1;
+    private static final int INLINE = 2;
+
+    private final RetryPolicy policy;
+    private final ExecutorByTimeout<Runnable> executor;
+
+    public AsyncRetrier(RetryPolicy policy, ExecutorByTimeout<Runnable> executor) {
+        this.policy = policy;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<Void> run(Task task) {
+        return call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return future completed with the result of the first successful attempt,
+     * or exceptionally with the failure which isn't retried
+     */
+    public <T> CompletableFuture<T> call(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(task, result, 1, System.currentTimeMillis());
+        return result;
+    }
+
+    private <T> void attempt(Callable<T> task, CompletableFuture<T> result, int firstAttempt, long start) {
+        Thread caller = Thread.currentThread();
+        for (int attempt = firstAttempt; ; attempt++) {
+            T value;
+            try {
+                value = task.call();
+            } catch (Throwable e) {
+                long delay = policy.delayMillis(attempt);
+                if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(e)
+                        || System.currentTimeMillis() + delay - start > policy.getDeadlineMillis()) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+
+                // SCHEDULING until execute returns, INLINE when the next attempt is left to this loop
+                AtomicInteger state = new AtomicInteger(SCHEDULING);
+                int next = attempt + 1;
+                try {
+                    executor.execute(() -> {
+                        if (Thread.currentThread() != caller || !state.compareAndSet(SCHEDULING, INLINE)) {
+                            attempt(task, result, next, start);
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                } catch (RuntimeException rejected) {
+                    rejected.addSuppressed(e);
+                    result.completeExceptionally(rejected);
+                    return;
+                }
+                if (state.compareAndSet(SCHEDULING, SCHEDULED)) {
+                    return;
+                }
+                continue;
+            }
+            result.complete(value);
+            return;
+        }
+    }
+}
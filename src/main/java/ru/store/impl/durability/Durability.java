@@ -0,0 +1,27 @@
+package ru.store.impl.durability;
+
+/**
+ * How much of a completed write survives a crash of the OS or a power loss
+ */
+public enum Durability {
+
+    /**
+     * Writes stay in the page cache, the OS flushes them whenever it wants
+     */
+    NONE,
+
+    /**
+     * Writes stay in the page cache, a background task flushes them every sync period
+     */
+    PERIODIC,
+
+    /**
+     * Data of every write is flushed before the write completes (DSYNC)
+     */
+    DATA_SYNC,
+
+    /**
+     * Data and metadata of every write and the entry in its directory are flushed before the write completes
+     */
+    FULL
+}
@@ -1,9 +1,32 @@
 package ru.store.impl.durability;
 
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 @FunctionalInterface
 public interface ExecutorByTimeout<T extends Runnable> {
 
     void execute(T task, long timeout, TimeUnit timeUnit);
+
+    /**
+     * @return executor running the tasks on the scheduler when the timeout is over, no thread is held meanwhile
+     */
+    static ExecutorByTimeout<Runnable> scheduled(ScheduledExecutorService scheduler) {
+        return scheduler::schedule;
+    }
+
+    /**
+     * @return executor running the tasks on the calling thread after it has slept for the timeout,
+     * for callers which hold a lock the task needs
+     */
+    static ExecutorByTimeout<Runnable> callerThread() {
+        return (task, timeout, timeUnit) -> {
+            try {
+                timeUnit.sleep(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            task.run();
+        };
+    }
 }
@@ -0,0 +1,182 @@
+package ru.store.impl.durability;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Implements group commit pattern.
+ * Commits which arrive within the window (or until the batch is full) are executed by the committer
+ * and then share one run of the barrier task (e.g. fsync). The future of every commit is completed
+ * only after the barrier of its batch has finished.
+ */
+public class GroupCommitter implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(GroupCommitter.class.getName());
+
+    private static final Commit STOP = new Commit(() -> CompletableFuture.completedFuture(null));
+
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final Task barrier;
+    private final Executor taskExecutor;
+    private final BlockingQueue<Commit> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private volatile boolean closed;
+
+    public GroupCommitter(String name, int maxBatchSize, long window, TimeUnit timeUnit, Task barrier) {
+        this(name, maxBatchSize, window, timeUnit, barrier, Runnable::run);
+    }
+
+    /**
+     * @param taskExecutor executor of the commit tasks of a batch, they are executed in parallel if it allows
+     */
+    public GroupCommitter(String name, int maxBatchSize, long window, TimeUnit timeUnit, Task barrier, Executor taskExecutor) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max size of batch must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = timeUnit.toNanos(window);
+        this.barrier = barrier;
+        this.taskExecutor = taskExecutor;
+        this.committer = new Thread(this::runLoop, name);
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * @param task action of the commit executed by the task executor before the barrier of its batch
+     * @return future which is completed after the barrier of the batch
+     */
+    public CompletableFuture<Void> commit(Task task) {
+        return commitAsync(() -> CompletableFuture.runAsync(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, taskExecutor));
+    }
+
+    /**
+     * @param action starts the action of the commit, the barrier of its batch waits for the returned future,
+     *               so the action doesn't hold a thread while it waits
+     * @return future which is completed after the barrier of the batch
+     */
+    public CompletableFuture<Void> commitAsync(Supplier<CompletableFuture<Void>> action) {
+        Commit commit = new Commit(action);
+        if (closed) {
+            commit.future.completeExceptionally(new RejectedExecutionException("Group committer is closed"));
+            return commit.future;
+        }
+
+        queue.add(commit);
+        if (closed && queue.remove(commit)) {
+            commit.future.completeExceptionally(new RejectedExecutionException("Group committer is closed"));
+        }
+        return commit.future;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        queue.add(STOP);
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Commit> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.remove(STOP);
+        if (!rest.isEmpty()) {
+            execute(rest);
+        }
+    }
+
+    private void runLoop() {
+        List<Commit> batch = new ArrayList<>(maxBatchSize);
+        boolean stop = false;
+        while (!stop) {
+            try {
+                Commit next = queue.take();
+                long deadline = System.nanoTime() + windowNanos;
+                while (next != null) {
+                    if (next == STOP) {
+                        stop = true;
+                        break;
+                    }
+                    batch.add(next);
+                    if (batch.size() >= maxBatchSize) {
+                        break;
+                    }
+                    next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                stop = true;
+            }
+
+            execute(batch);
+            batch.clear();
+        }
+    }
+
+    private void execute(List<Commit> batch) {
+        List<CompletableFuture<Void>> runs = new ArrayList<>(batch.size());
+        for (Commit commit : batch) {
+            CompletableFuture<Void> run;
+            try {
+                run = commit.action.get();
+            } catch (RuntimeException e) {
+                run = new CompletableFuture<>();
+                run.completeExceptionally(e);
+            }
+            runs.add(run);
+        }
+
+        List<Commit> succeeded = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                runs.get(i).join();
+                succeeded.add(batch.get(i));
+            } catch (CompletionException e) {
+                batch.get(i).future.completeExceptionally(e.getCause());
+            }
+        }
+
+        if (succeeded.isEmpty()) {
+            return;
+        }
+
+        try {
+            barrier.run();
+        } catch (Throwable e) {
+            LOG.warning(String.format("Error barrier of batch with %d commits: %s", succeeded.size(), e.getMessage()));
+            succeeded.forEach(commit -> commit.future.completeExceptionally(e));
+            return;
+        }
+        succeeded.forEach(commit -> commit.future.complete(null));
+    }
+
+    private static final class Commit {
+        private final Supplier<CompletableFuture<Void>> action;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Commit(Supplier<CompletableFuture<Void>> action) {
+            this.action = action;
+        }
+    }
+}
@@ -4,7 +4,9 @@ package ru.store.impl.durability;
  * Implementa retrier pattern
  *
  * @author Dmitrii Shakshin d.shakshin@gmail.com
+ * @deprecated retries without backoff on the calling thread, use {@link AsyncRetrier}
  */
+@Deprecated
 public class Retrier {
 
     private final Task task;
@@ -0,0 +1,88 @@
+package ru.store.impl.durability;
+
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Exponential backoff with jitter bounded by a count of attempts and a total deadline.
+ * Only failures accepted by the classification are retried, others fail at once.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Transient failures of renames and deletes: the file is held by another process (reported as a plain
+     * {@link FileSystemException} or {@link AccessDeniedException} on Windows)
+     */
+    public static final Predicate<Throwable> TRANSIENT_FILE_SYSTEM_ERRORS =
+            e -> e instanceof AccessDeniedException || e.getClass() == FileSystemException.class;
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(1000, 1, 100, 2, 0.5, 10_000, TRANSIENT_FILE_SYSTEM_ERRORS);
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final long deadlineMillis;
+    private final Predicate<Throwable> retryOn;
+
+    /**
+     * @param maxAttempts        max count of attempts including the first one
+     * @param initialDelayMillis delay before the first retry
+     * @param maxDelayMillis     max delay between attempts
+     * @param multiplier         growth of the delay after every retry
+     * @param jitter             part of the delay which is random, in [0, 1]
+     * @param deadlineMillis     max time from the first attempt until the last retry starts
+     * @param retryOn            failures which are retried
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, double multiplier,
+                       double jitter, long deadlineMillis, Predicate<Throwable> retryOn) {
+        if (maxAttempts < 1 || initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis || multiplier < 1
+                || jitter < 0 || jitter > 1 || deadlineMillis < 0) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.deadlineMillis = deadlineMillis;
+        this.retryOn = retryOn;
+    }
+
+    public RetryPolicy withMaxAttempts(int maxAttempts) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, jitter, deadlineMillis, retryOn);
+    }
+
+    public RetryPolicy withDeadline(long deadline, TimeUnit timeUnit) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, jitter, timeUnit.toMillis(deadline), retryOn);
+    }
+
+    public RetryPolicy withRetryOn(Predicate<Throwable> retryOn) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, jitter, deadlineMillis, retryOn);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    boolean isRetryable(Throwable e) {
+        return retryOn.test(e);
+    }
+
+    /**
+     * @param attempt count of failed attempts, starting from 1
+     * @return delay before the next attempt
+     */
+    long delayMillis(int attempt) {
+        double delay = Math.min(maxDelayMillis, initialDelayMillis * Math.pow(multiplier, attempt - 1));
+        return (long) (delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+}
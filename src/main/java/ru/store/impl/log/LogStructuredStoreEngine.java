@@ -0,0 +1,896 @@
+package ru.store.impl.log;
+
+import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.FSUtils;
+import ru.store.impl.KeyValue;
+import ru.store.impl.KeyVersions;
+import ru.store.impl.StoreEngine;
+import ru.store.impl.durability.Durability;
+import ru.store.impl.durability.GroupCommitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Log-structured engine (Bitcask-like).
+ * Every put and remove is appended as a record to the active segment file, the in-memory key directory keeps
+ * the location of the latest record of each key. Segments with a big share of dead records are compacted:
+ * live records are copied to the active segment and the old segment file is deleted.
+ */
+public class LogStructuredStoreEngine implements StoreEngine<String, byte[]> {
+
+    private static final Logger LOG = Logger.getLogger(LogStructuredStoreEngine.class.getName());
+
+    public static final String DEFAULT_EXTENSION_SEGMENT_FILE = ".segment";
+    private static final String SEGMENT_NAME_FORMAT = "%016d";
+
+    private static final int DEFAULT_COUNT_READ_THREAD = 2;
+    private static final int DEFAULT_COUNT_WRITE_THREADS = 1;
+
+    private static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+    private static final int SIZE_BYTE_BUFFER = 4096;
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    private static final int MAX_READ_ATTEMPTS = 3;
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+    private static final long DEFAULT_SYNC_PERIOD_MILLIS = 1000;
+    private static final long DEFAULT_MMAP_THRESHOLD = 1024 * 1024;
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final Path dataPath;
+    private final Map<String, RecordPointer> keyDirectory = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+    private final KeyVersions versions = new KeyVersions();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private volatile Segment activeSegment;
+
+    private final ExecutorService readerExecutor;
+    private final ExecutorService writerExecutor;
+    private final boolean ownsExecutors;
+
+    private long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    private volatile Durability durability = Durability.FULL;
+    private long syncPeriodMillis = DEFAULT_SYNC_PERIOD_MILLIS;
+    private long mmapThreshold = DEFAULT_MMAP_THRESHOLD;
+    private ScheduledExecutorService syncScheduler;
+    private GroupCommitter groupCommitter;
+
+    public LogStructuredStoreEngine(String dataPath) throws StoreEngineOperationException {
+        this(dataPath, DEFAULT_COUNT_READ_THREAD, DEFAULT_COUNT_WRITE_THREADS);
+    }
+
+    public LogStructuredStoreEngine(String dataPath, int countReadThreads, int countWriteThreads) throws StoreEngineOperationException {
+        this(dataPath, Executors.newFixedThreadPool(countReadThreads), Executors.newFixedThreadPool(countWriteThreads), true);
+    }
+
+    /**
+     * @param readerExecutor executor of the async reads, it isn't shut down by the engine
+     * @param writerExecutor executor of the async writes, it isn't shut down by the engine
+     */
+    public LogStructuredStoreEngine(String dataPath, ExecutorService readerExecutor, ExecutorService writerExecutor)
+            throws StoreEngineOperationException {
+        this(dataPath, readerExecutor, writerExecutor, false);
+    }
+
+    /**
+     * @param ownsExecutors whether the executors are shut down by {@link #close()}, which waits for the writes in flight
+     */
+    public LogStructuredStoreEngine(String dataPath, ExecutorService readerExecutor, ExecutorService writerExecutor,
+                                    boolean ownsExecutors) throws StoreEngineOperationException {
+        this.dataPath = Paths.get(dataPath);
+        this.readerExecutor = readerExecutor;
+        this.writerExecutor = writerExecutor;
+        this.ownsExecutors = ownsExecutors;
+
+        try {
+            Files.createDirectories(this.dataPath);
+            open();
+        } catch (IOException e) {
+            throw new StoreEngineOperationException(String.format("Error open segments of dataPath[%s]", dataPath), e);
+        }
+    }
+
+    public long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    public void setMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold share of dead bytes in a segment starting from which the segment is compacted
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public long getMmapThreshold() {
+        return mmapThreshold;
+    }
+
+    /**
+     * @param mmapThreshold size of value starting from which {@link #readBuffer(String)} maps it from its segment
+     */
+    public void setMmapThreshold(long mmapThreshold) {
+        this.mmapThreshold = mmapThreshold;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * {@link Durability#DATA_SYNC} and {@link Durability#FULL} force the segment on every append,
+     * {@link Durability#FULL} also syncs the data directory when a segment is created
+     */
+    public synchronized void setDurability(Durability durability) {
+        this.durability = durability;
+        restartPeriodicSync();
+    }
+
+    public long getSyncPeriodMillis() {
+        return syncPeriodMillis;
+    }
+
+    /**
+     * @param syncPeriodMillis period of the background sync for {@link Durability#PERIODIC}
+     */
+    public synchronized void setSyncPeriodMillis(long syncPeriodMillis) {
+        this.syncPeriodMillis = syncPeriodMillis;
+        restartPeriodicSync();
+    }
+
+    /**
+     * Force the active segment
+     */
+    public void sync() throws StoreEngineOperationException {
+        try {
+            activeSegment.force();
+        } catch (IOException e) {
+            throw new StoreEngineOperationException(String.format("Error sync segment of dataPath[%s]", dataPath), e);
+        }
+    }
+
+    /**
+     * Shuts the scheduler down and waits for its running sync, so it doesn't race with the segments closed after
+     */
+    private static void stop(ScheduledExecutorService scheduler) {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warning("Periodic sync isn't completed on stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void restartPeriodicSync() {
+        if (syncScheduler != null) {
+            stop(syncScheduler);
+            syncScheduler = null;
+        }
+
+        if (durability == Durability.PERIODIC) {
+            syncScheduler = Executors.newSingleThreadScheduledExecutor();
+            syncScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                } catch (StoreEngineOperationException e) {
+                    LOG.warning(e.getMessage() + e.getCause().getMessage());
+                }
+            }, syncPeriodMillis, syncPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Group commit is used for {@link Durability#DATA_SYNC} and {@link Durability#FULL}.
+     * Appends don't sync the segment on their own anymore: writes which arrive within the window
+     * (or until the batch is full) share one force of the active segment.
+     */
+    public synchronized void enableGroupCommit(int maxBatchSize, long windowMillis) {
+        disableGroupCommit();
+        groupCommitter = new GroupCommitter("group-commit-" + dataPath.getFileName(), maxBatchSize, windowMillis,
+                                            TimeUnit.MILLISECONDS, () -> activeSegment.force());
+    }
+
+    public synchronized void disableGroupCommit() {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+            groupCommitter = null;
+        }
+    }
+
+    @Override
+    public CompletableFuture<byte[]> write(String key, byte[] value) {
+        GroupCommitter committer = activeGroupCommitter();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                appendPut(key, value, committer);
+            } catch (StoreEngineOperationException e) {
+                throw new CompletionException(e);
+            }
+        }, writerExecutor).thenCompose(v -> commit(committer)).thenApply(v -> value);
+    }
+
+    @Override
+    public byte[] writeSync(String key, byte[] value) throws StoreEngineOperationException {
+        GroupCommitter committer = activeGroupCommitter();
+        appendPut(key, value, committer);
+        try {
+            commit(committer).join();
+        } catch (CompletionException e) {
+            throw new StoreEngineOperationException("Error commit key " + key, e.getCause());
+        }
+
+        return value;
+    }
+
+    private void appendPut(String key, byte[] value, GroupCommitter committer) throws StoreEngineOperationException {
+        if (key == null) {
+            key = "null";
+        }
+
+        ByteBuffer record = Record.encode(Record.TYPE_PUT, key, value);
+        int valueLength = value == null ? 0 : value.length;
+        synchronized (writeLock) {
+            try {
+                RecordPointer pointer = appendLocked(record, valueLength, committer == null && isSyncDurability());
+                markDead(keyDirectory.put(key, pointer));
+                versions.next(key);
+            } catch (IOException e) {
+                throw new StoreEngineOperationException("Error append record of key " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Records of the batch are appended under one acquisition of the write lock and share one force of the segment
+     * (or one group commit)
+     */
+    @Override
+    public CompletableFuture<Boolean> writeAll(Map<String, byte[]> entries) {
+        GroupCommitter committer = activeGroupCommitter();
+        return CompletableFuture.runAsync(() -> {
+            synchronized (writeLock) {
+                try {
+                    for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                        String key = entry.getKey() == null ? "null" : entry.getKey();
+                        byte[] value = entry.getValue();
+                        RecordPointer pointer = appendLocked(Record.encode(Record.TYPE_PUT, key, value),
+                                                             value == null ? 0 : value.length, false);
+                        markDead(keyDirectory.put(key, pointer));
+                        versions.next(key);
+                    }
+                    if (committer == null && isSyncDurability()) {
+                        activeSegment.force();
+                    }
+                } catch (IOException e) {
+                    throw new CompletionException(new StoreEngineOperationException("Error append batch", e));
+                }
+            }
+        }, writerExecutor).thenCompose(v -> commit(committer)).thenApply(v -> true);
+    }
+
+    @Override
+    public CompletableFuture<Integer> removeAll(Collection<String> keys) {
+        GroupCommitter committer = activeGroupCommitter();
+        return CompletableFuture.supplyAsync(() -> {
+            int removed = 0;
+            synchronized (writeLock) {
+                try {
+                    for (String key : keys) {
+                        key = key == null ? "null" : key;
+                        if (keyDirectory.containsKey(key)) {
+                            RecordPointer pointer = appendLocked(Record.encode(Record.TYPE_DELETE, key, null), 0, false);
+                            markDead(keyDirectory.remove(key));
+                            versions.remove(key);
+                            segments.get(pointer.getSegmentId()).addDeadBytes(pointer.getRecordLength());
+                            removed++;
+                        }
+                    }
+                    if (removed > 0 && committer == null && isSyncDurability()) {
+                        activeSegment.force();
+                    }
+                } catch (IOException e) {
+                    throw new CompletionException(new StoreEngineOperationException("Error append batch", e));
+                }
+            }
+            return removed;
+        }, writerExecutor).thenCompose(removed -> commit(committer).thenApply(v -> removed));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> write(String key,
+                                            Iterator<byte[]> data,
+                                            CompletableFuture<Boolean> resultFuture) {
+        final CompletableFuture<Boolean> handlerCons = resultFuture == null ? new CompletableFuture<>() : resultFuture;
+        try {
+            writerExecutor.execute(() -> {
+                GroupCommitter committer = activeGroupCommitter();
+                try {
+                    ByteArrayOutputStream value = new ByteArrayOutputStream();
+                    while (data.hasNext()) {
+                        byte[] chunk = data.next();
+                        if (chunk != null) {
+                            value.write(chunk, 0, chunk.length);
+                        }
+                    }
+                    appendPut(key, value.toByteArray(), committer);
+                } catch (StoreEngineOperationException | RuntimeException e) {
+                    handlerCons.completeExceptionally(e);
+                    return;
+                }
+                commit(committer).whenComplete((v, e) -> {
+                    if (e != null) {
+                        handlerCons.completeExceptionally(e);
+                    } else {
+                        handlerCons.complete(true);
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            handlerCons.completeExceptionally(e);
+        }
+
+        return handlerCons;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> read(String key) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return readSync(key);
+            } catch (StoreEngineOperationException e) {
+                throw new CompletionException(e);
+            }
+        }, readerExecutor);
+    }
+
+    @Override
+    public byte[] readSync(String key) throws StoreEngineOperationException {
+        if (key == null) {
+            key = "null";
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            RecordPointer pointer = keyDirectory.get(key);
+            if (pointer == null) {
+                return EMPTY_BYTES;
+            }
+
+            Segment segment = segments.get(pointer.getSegmentId());
+            try {
+                if (segment == null) {
+                    throw new ClosedChannelException();
+                }
+                ByteBuffer value = ByteBuffer.allocate(pointer.getValueLength());
+                segment.read(value, pointer.getValueOffset());
+                return value.array();
+            } catch (ClosedChannelException e) {
+                // the segment has been compacted meanwhile, the key directory already points to the new location
+                if (attempt >= MAX_READ_ATTEMPTS) {
+                    throw new StoreEngineOperationException("Error read key " + key, e);
+                }
+            } catch (IOException e) {
+                throw new StoreEngineOperationException("Error read key " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Values starting from the mmap threshold are returned as a read-only memory mapping of their segment region.
+     * Segments are append-only and a compacted segment is only unlinked, so the mapping stays valid.
+     */
+    @Override
+    public ByteBuffer readBuffer(String key) throws StoreEngineOperationException {
+        if (key == null) {
+            key = "null";
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            RecordPointer pointer = keyDirectory.get(key);
+            if (pointer == null) {
+                return EMPTY_BUFFER;
+            }
+            if (pointer.getValueLength() < mmapThreshold) {
+                return ByteBuffer.wrap(readSync(key)).asReadOnlyBuffer();
+            }
+
+            Segment segment = segments.get(pointer.getSegmentId());
+            try {
+                if (segment == null) {
+                    throw new ClosedChannelException();
+                }
+                return segment.getChannel().map(FileChannel.MapMode.READ_ONLY, pointer.getValueOffset(), pointer.getValueLength());
+            } catch (ClosedChannelException e) {
+                if (attempt >= MAX_READ_ATTEMPTS) {
+                    throw new StoreEngineOperationException("Error map key " + key, e);
+                }
+            } catch (IOException e) {
+                throw new StoreEngineOperationException("Error map key " + key, e);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> read(String key, Consumer<byte[]> listener) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        readerExecutor.execute(() -> {
+            try {
+                byte[] value = readSync(key);
+                if (value.length == 0) {
+                    listener.accept(EMPTY_BYTES);
+                }
+                for (int position = 0; position < value.length; position += SIZE_BYTE_BUFFER) {
+                    byte[] chunk = new byte[Math.min(SIZE_BYTE_BUFFER, value.length - position)];
+                    System.arraycopy(value, position, chunk, 0, chunk.length);
+                    listener.accept(chunk);
+                }
+                result.complete(true);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * A value is a record of a segment and is read as a whole, so it's limited by the heap
+     */
+    @Override
+    public ReadableByteChannel openValue(String key) throws StoreEngineOperationException {
+        if (!keyDirectory.containsKey(key == null ? "null" : key)) {
+            return null;
+        }
+        return Channels.newChannel(new ByteArrayInputStream(readSync(key)));
+    }
+
+    /**
+     * The value is transferred from its segment region by {@link FileChannel#transferTo}.
+     * A compacted segment is retried only while nothing has been written into the target.
+     */
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws StoreEngineOperationException {
+        if (key == null) {
+            key = "null";
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            RecordPointer pointer = keyDirectory.get(key);
+            if (pointer == null) {
+                return -1;
+            }
+
+            Segment segment = segments.get(pointer.getSegmentId());
+            long transferred = 0;
+            try {
+                if (segment == null) {
+                    throw new ClosedChannelException();
+                }
+                while (transferred < pointer.getValueLength()) {
+                    transferred += segment.getChannel().transferTo(pointer.getValueOffset() + transferred,
+                                                                   pointer.getValueLength() - transferred, target);
+                }
+                return transferred;
+            } catch (ClosedChannelException e) {
+                if (transferred > 0 || attempt >= MAX_READ_ATTEMPTS || !target.isOpen()) {
+                    throw new StoreEngineOperationException("Error transfer key " + key, e);
+                }
+            } catch (IOException e) {
+                throw new StoreEngineOperationException("Error transfer key " + key, e);
+            }
+        }
+    }
+
+    /**
+     * A value is appended as one record, so the source is collected in the heap first
+     */
+    @Override
+    public long writeFrom(String key, ReadableByteChannel source) throws StoreEngineOperationException {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE_BYTE_BUFFER);
+        try {
+            while (source.read(buffer) >= 0) {
+                value.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new StoreEngineOperationException("Error read stream of key " + key, e);
+        }
+        writeSync(key, value.toByteArray());
+        return value.size();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> readChunks(String key, Consumer<ByteBuffer> listener) {
+        return read(key, chunk -> listener.accept(ByteBuffer.wrap(chunk)));
+    }
+
+    @Override
+    public long version(String key) {
+        if (key == null) {
+            key = "null";
+        }
+        return versions.get(key, keyDirectory.containsKey(key));
+    }
+
+    /**
+     * Records are appended under the write lock, so it orders the check and the write
+     */
+    @Override
+    public boolean writeIfVersion(String key, byte[] value, long expectedVersion) throws StoreEngineOperationException {
+        GroupCommitter committer = activeGroupCommitter();
+        synchronized (writeLock) {
+            if (version(key) != expectedVersion) {
+                return false;
+            }
+            appendPut(key, value, committer);
+        }
+        try {
+            commit(committer).join();
+        } catch (CompletionException e) {
+            throw new StoreEngineOperationException("Error commit key " + key, e.getCause());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(String key) throws StoreEngineOperationException {
+        if (key == null) {
+            key = "null";
+        }
+
+        ByteBuffer record = Record.encode(Record.TYPE_DELETE, key, null);
+        GroupCommitter committer = activeGroupCommitter();
+        synchronized (writeLock) {
+            if (!keyDirectory.containsKey(key)) {
+                return false;
+            }
+
+            try {
+                RecordPointer pointer = appendLocked(record, 0, committer == null && isSyncDurability());
+                markDead(keyDirectory.remove(key));
+                versions.remove(key);
+                segments.get(pointer.getSegmentId()).addDeadBytes(pointer.getRecordLength());
+            } catch (IOException e) {
+                throw new StoreEngineOperationException("Error remove key " + key, e);
+            }
+        }
+        try {
+            commit(committer).join();
+        } catch (CompletionException e) {
+            throw new StoreEngineOperationException("Error commit key " + key, e.getCause());
+        }
+
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return keyDirectory.size();
+    }
+
+    @Override
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(keyDirectory.keySet());
+    }
+
+    @Override
+    public Collection<byte[]> values() {
+        return entryStream().map(KeyValue::getValue).collect(Collectors.toList());
+    }
+
+    @Override
+    public Stream<KeyValue<String, byte[]>> entryStream() {
+        return keyDirectory.keySet().stream()
+                           .map(key -> {
+                               try {
+                                   return new KeyValue<>(key, readSync(key));
+                               } catch (StoreEngineOperationException e) {
+                                   LOG.warning(e.getMessage() + e.getCause().getMessage());
+                                   return null;
+                               }
+                           }).filter(Objects::nonNull);
+    }
+
+    @Override
+    public void clear() throws StoreEngineOperationException {
+        synchronized (writeLock) {
+            try {
+                long nextId = activeSegment.getId() + 1;
+                for (Segment segment : segments.values()) {
+                    segment.delete();
+                }
+                segments.clear();
+                keyDirectory.clear();
+                versions.clear();
+                activeSegment = openSegment(nextId);
+            } catch (IOException e) {
+                throw new StoreEngineOperationException(String.format("Error clear store of dataPath[%s]", dataPath), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws StoreEngineOperationException {
+        if (ownsExecutors) {
+            writerExecutor.shutdown();
+            readerExecutor.shutdown();
+            try {
+                writerExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        disableGroupCommit();
+        synchronized (this) {
+            if (syncScheduler != null) {
+                stop(syncScheduler);
+                syncScheduler = null;
+            }
+        }
+
+        synchronized (writeLock) {
+            try {
+                activeSegment.force();
+                for (Segment segment : segments.values()) {
+                    segment.close();
+                }
+            } catch (IOException e) {
+                throw new StoreEngineOperationException(String.format("Error close segments of dataPath[%s]", dataPath), e);
+            }
+        }
+    }
+
+    /**
+     * Rewrite live records of the segments whose share of dead bytes exceeds the compaction threshold
+     * and delete them
+     */
+    public void compact() throws StoreEngineOperationException {
+        compactionLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment != activeSegment && segment.deadRatio() >= compactionThreshold) {
+                    compact(segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new StoreEngineOperationException(String.format("Error compact segments of dataPath[%s]", dataPath), e);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        boolean oldest = segments.firstKey() == segment.getId();
+        scan(segment, (record, position, length) -> {
+            if (record.getType() == Record.TYPE_PUT) {
+                RecordPointer pointer = keyDirectory.get(record.getKey());
+                if (pointer == null || pointer.getSegmentId() != segment.getId() || pointer.getRecordOffset() != position) {
+                    return;
+                }
+
+                ByteBuffer raw = readRaw(segment, position, length);
+                synchronized (writeLock) {
+                    if (keyDirectory.get(record.getKey()) == pointer) {
+                        keyDirectory.put(record.getKey(), appendLocked(raw, pointer.getValueLength(), false));
+                    }
+                }
+            } else if (!oldest) {
+                // older segments may still keep a put of the key, so the tombstone has to survive
+                ByteBuffer raw = readRaw(segment, position, length);
+                synchronized (writeLock) {
+                    if (!keyDirectory.containsKey(record.getKey())) {
+                        RecordPointer pointer = appendLocked(raw, 0, false);
+                        segments.get(pointer.getSegmentId()).addDeadBytes(length);
+                    }
+                }
+            }
+        });
+
+        synchronized (writeLock) {
+            activeSegment.force();
+            segments.remove(segment.getId());
+        }
+        segment.delete();
+    }
+
+    private void scheduleCompaction() {
+        try {
+            writerExecutor.execute(() -> {
+                if (compactionLock.isLocked()) {
+                    return;
+                }
+                try {
+                    compact();
+                } catch (StoreEngineOperationException e) {
+                    LOG.warning(e.getMessage() + e.getCause().getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.fine("compaction skipped, engine is closing");
+        }
+    }
+
+    private boolean isSyncDurability() {
+        Durability current = durability;
+        return current == Durability.FULL || current == Durability.DATA_SYNC;
+    }
+
+    private GroupCommitter activeGroupCommitter() {
+        return isSyncDurability() ? groupCommitter : null;
+    }
+
+    /**
+     * @return future which is completed when the appended records are durable
+     */
+    private CompletableFuture<Void> commit(GroupCommitter committer) {
+        if (committer == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return committer.commit(() -> {
+        });
+    }
+
+    private RecordPointer appendLocked(ByteBuffer record, int valueLength, boolean sync) throws IOException {
+        int recordLength = record.remaining();
+        if (activeSegment.size() > 0 && activeSegment.size() + recordLength > maxSegmentSize) {
+            roll();
+        }
+
+        Segment segment = activeSegment;
+        long offset = segment.append(record);
+        if (sync) {
+            segment.force();
+        }
+
+        return new RecordPointer(segment.getId(), offset, recordLength, valueLength);
+    }
+
+    private void roll() throws IOException {
+        activeSegment.force();
+        activeSegment = openSegment(activeSegment.getId() + 1);
+        scheduleCompaction();
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path path = dataPath.resolve(String.format(SEGMENT_NAME_FORMAT, id) + DEFAULT_EXTENSION_SEGMENT_FILE);
+        boolean created = !Files.exists(path);
+        Segment segment = new Segment(id, path);
+        segments.put(id, segment);
+        if (created && durability == Durability.FULL) {
+            FSUtils.syncDirectory(dataPath);
+        }
+        return segment;
+    }
+
+    private void markDead(RecordPointer pointer) {
+        if (pointer == null) {
+            return;
+        }
+
+        Segment segment = segments.get(pointer.getSegmentId());
+        if (segment != null) {
+            segment.addDeadBytes(pointer.getRecordLength());
+        }
+    }
+
+    private void open() throws IOException {
+        List<Path> segmentPaths;
+        try (Stream<Path> paths = Files.list(dataPath)) {
+            segmentPaths = paths.filter(path -> path.getFileName().toString().endsWith(DEFAULT_EXTENSION_SEGMENT_FILE))
+                                .sorted()
+                                .collect(Collectors.toList());
+        }
+
+        for (int i = 0; i < segmentPaths.size(); i++) {
+            Path path = segmentPaths.get(i);
+            String name = path.getFileName().toString();
+            Segment segment = openSegment(Long.parseLong(name.substring(0, name.length() - DEFAULT_EXTENSION_SEGMENT_FILE.length())));
+            long validSize = scan(segment, (record, position, length) -> load(segment, record, position, length));
+            if (validSize < segment.size()) {
+                // only the active segment can end with a torn write, an invalid record of a sealed one is corruption
+                if (i < segmentPaths.size() - 1) {
+                    throw new IOException(String.format("Corrupted record of sealed segment[%s] at %d", path, validSize));
+                }
+                LOG.warning(String.format("Truncate corrupted tail of segment[%s] from %d to %d", path, segment.size(), validSize));
+                segment.truncate(validSize);
+            }
+        }
+
+        activeSegment = segments.isEmpty() ? openSegment(1) : segments.lastEntry().getValue();
+    }
+
+    private void load(Segment segment, Record record, long position, int length) {
+        if (record.getType() == Record.TYPE_PUT) {
+            markDead(keyDirectory.put(record.getKey(), new RecordPointer(segment.getId(), position, length, record.getValueLength())));
+        } else {
+            markDead(keyDirectory.remove(record.getKey()));
+            segment.addDeadBytes(length);
+        }
+    }
+
+    /**
+     * @return size of the valid prefix of the segment
+     */
+    private static long scan(Segment segment, RecordVisitor visitor) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Record.HEADER_SIZE);
+        long size = segment.size();
+        long position = 0;
+        while (position + Record.HEADER_SIZE <= size) {
+            header.clear();
+            segment.read(header, position);
+            int keyLength = Record.keyLength(header);
+            int valueLength = Record.valueLength(header);
+            long length = (long) Record.HEADER_SIZE + keyLength + valueLength;
+            if (keyLength < 0 || valueLength < 0 || position + length > size) {
+                break;
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(keyLength + valueLength);
+            segment.read(body, position + Record.HEADER_SIZE);
+            Record record = Record.decode(header, body);
+            if (record == null) {
+                break;
+            }
+
+            visitor.visit(record, position, (int) length);
+            position += length;
+        }
+
+        return position;
+    }
+
+    private static ByteBuffer readRaw(Segment segment, long position, int length) throws IOException {
+        ByteBuffer raw = ByteBuffer.allocate(length);
+        segment.read(raw, position);
+        raw.flip();
+        return raw;
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(Record record, long position, int length) throws IOException;
+    }
+}
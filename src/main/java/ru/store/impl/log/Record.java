@@ -0,0 +1,92 @@
+package ru.store.impl.log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Record format of a segment:
+ * <pre>
+ * | crc32 (4) | type (1) | key length (4) | value length (4) | key | value |
+ * </pre>
+ * crc32 covers everything after itself.
+ */
+final class Record {
+
+    static final int HEADER_SIZE = 4 + 1 + 4 + 4;
+
+    static final byte TYPE_PUT = 0;
+    static final byte TYPE_DELETE = 1;
+
+    private final byte type;
+    private final String key;
+    private final int valueLength;
+
+    Record(byte type, String key, int valueLength) {
+        this.type = type;
+        this.key = key;
+        this.valueLength = valueLength;
+    }
+
+    static ByteBuffer encode(byte type, String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? 0 : value.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + valueLength);
+        buffer.position(4);
+        buffer.put(type)
+              .putInt(keyBytes.length)
+              .putInt(valueLength)
+              .put(keyBytes);
+        if (value != null) {
+            buffer.put(value);
+        }
+        buffer.putInt(0, checksum(buffer.array(), 4, buffer.capacity() - 4));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return decoded record or {@code null} if the header and the body don't match the checksum
+     */
+    static Record decode(ByteBuffer header, ByteBuffer body) {
+        int crc = header.getInt(0);
+        byte type = header.get(4);
+        int keyLength = header.getInt(5);
+        int valueLength = header.getInt(9);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(header.array(), 4, HEADER_SIZE - 4);
+        crc32.update(body.array(), 0, keyLength + valueLength);
+        if ((int) crc32.getValue() != crc) {
+            return null;
+        }
+
+        return new Record(type, new String(body.array(), 0, keyLength, StandardCharsets.UTF_8), valueLength);
+    }
+
+    static int keyLength(ByteBuffer header) {
+        return header.getInt(5);
+    }
+
+    static int valueLength(ByteBuffer header) {
+        return header.getInt(9);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    byte getType() {
+        return type;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    int getValueLength() {
+        return valueLength;
+    }
+}
@@ -0,0 +1,39 @@
+package ru.store.impl.log;
+
+/**
+ * Location of the latest value of a key inside the segments
+ */
+final class RecordPointer {
+
+    private final long segmentId;
+    private final long recordOffset;
+    private final int recordLength;
+    private final int valueLength;
+
+    RecordPointer(long segmentId, long recordOffset, int recordLength, int valueLength) {
+        this.segmentId = segmentId;
+        this.recordOffset = recordOffset;
+        this.recordLength = recordLength;
+        this.valueLength = valueLength;
+    }
+
+    long getSegmentId() {
+        return segmentId;
+    }
+
+    long getRecordOffset() {
+        return recordOffset;
+    }
+
+    int getRecordLength() {
+        return recordLength;
+    }
+
+    int getValueLength() {
+        return valueLength;
+    }
+
+    long getValueOffset() {
+        return recordOffset + recordLength - valueLength;
+    }
+}
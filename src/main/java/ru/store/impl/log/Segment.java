@@ -0,0 +1,91 @@
+package ru.store.impl.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only segment file of the log-structured engine.
+ * Appends are serialized by the engine, reads are positional and may run concurrently.
+ */
+final class Segment {
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private final AtomicLong size;
+    private final AtomicLong deadBytes = new AtomicLong();
+
+    Segment(long id, Path path) throws IOException {
+        this.id = id;
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.size = new AtomicLong(channel.size());
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long size() {
+        return size.get();
+    }
+
+    void addDeadBytes(long count) {
+        deadBytes.addAndGet(count);
+    }
+
+    double deadRatio() {
+        long currentSize = size.get();
+        return currentSize == 0 ? 0 : (double) deadBytes.get() / currentSize;
+    }
+
+    /**
+     * @return offset of the first byte of the appended buffer
+     */
+    long append(ByteBuffer buffer) throws IOException {
+        long offset = size.get();
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        size.set(position);
+        return offset;
+    }
+
+    void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException(String.format("Unexpected end of segment[%s] at %d", path, position));
+            }
+            position += count;
+        }
+    }
+
+    void truncate(long newSize) throws IOException {
+        channel.truncate(newSize);
+        size.set(newSize);
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+}
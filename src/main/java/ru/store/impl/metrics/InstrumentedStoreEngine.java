@@ -0,0 +1,272 @@
+package ru.store.impl.metrics;
+
+import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.KeyValue;
+import ru.store.impl.StoreEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Decorator of {@link StoreEngine} which records the latency, the transferred bytes and the failures of every
+ * operation in {@link StoreMetrics}. Async operations are measured until their future is completed,
+ * streamed reads count the bytes passed to the listener.
+ */
+public class InstrumentedStoreEngine implements StoreEngine<String, byte[]> {
+
+    public static final String WRITE = "write";
+    public static final String WRITE_SYNC = "writeSync";
+    public static final String WRITE_STREAM = "writeStream";
+    public static final String WRITE_FROM = "writeFrom";
+    public static final String WRITE_IF_VERSION = "writeIfVersion";
+    public static final String WRITE_ALL = "writeAll";
+    public static final String READ = "read";
+    public static final String READ_SYNC = "readSync";
+    public static final String READ_BUFFER = "readBuffer";
+    public static final String READ_STREAM = "readStream";
+    public static final String READ_CHUNKS = "readChunks";
+    public static final String READ_ALL = "readAll";
+    public static final String OPEN_VALUE = "openValue";
+    public static final String TRANSFER_TO = "transferTo";
+    public static final String REMOVE = "remove";
+    public static final String REMOVE_ALL = "removeAll";
+    public static final String FLUSH = "flush";
+
+    private final StoreEngine<String, byte[]> delegate;
+    private final StoreMetrics metrics;
+
+    public InstrumentedStoreEngine(StoreEngine<String, byte[]> delegate, StoreMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    public StoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> write(String key, byte[] value) throws StoreEngineOperationException {
+        return async(WRITE, length(value), () -> delegate.write(key, value), null);
+    }
+
+    @Override
+    public byte[] writeSync(String key, byte[] value) throws StoreEngineOperationException {
+        return sync(WRITE_SYNC, length(value), () -> delegate.writeSync(key, value), null);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> write(String key, Iterator<byte[]> dataIter, CompletableFuture<Boolean> completableFuture)
+            throws StoreEngineOperationException {
+        LongAdder bytes = new LongAdder();
+        Iterator<byte[]> counting = new Iterator<byte[]>() {
+            @Override
+            public boolean hasNext() {
+                return dataIter.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                byte[] chunk = dataIter.next();
+                bytes.add(length(chunk));
+                return chunk;
+            }
+        };
+        return async(WRITE_STREAM, 0, () -> delegate.write(key, counting, completableFuture), r -> bytes.sum());
+    }
+
+    @Override
+    public long writeFrom(String key, ReadableByteChannel source) throws StoreEngineOperationException {
+        return sync(WRITE_FROM, 0, () -> delegate.writeFrom(key, source), Long::longValue);
+    }
+
+    @Override
+    public boolean writeIfVersion(String key, byte[] value, long expectedVersion) throws StoreEngineOperationException {
+        return sync(WRITE_IF_VERSION, 0, () -> delegate.writeIfVersion(key, value, expectedVersion),
+                    written -> written ? length(value) : 0);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> writeAll(Map<String, byte[]> entries) throws StoreEngineOperationException {
+        long bytes = entries.values().stream().mapToLong(InstrumentedStoreEngine::length).sum();
+        return async(WRITE_ALL, bytes, () -> delegate.writeAll(entries), null);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> read(String key) throws StoreEngineOperationException {
+        return async(READ, 0, () -> delegate.read(key), InstrumentedStoreEngine::length);
+    }
+
+    @Override
+    public byte[] readSync(String key) throws StoreEngineOperationException {
+        return sync(READ_SYNC, 0, () -> delegate.readSync(key), InstrumentedStoreEngine::length);
+    }
+
+    @Override
+    public ByteBuffer readBuffer(String key) throws StoreEngineOperationException {
+        return sync(READ_BUFFER, 0, () -> delegate.readBuffer(key), buffer -> buffer == null ? 0 : buffer.remaining());
+    }
+
+    @Override
+    public CompletableFuture<Boolean> read(String key, Consumer<byte[]> listener) throws StoreEngineOperationException {
+        LongAdder bytes = new LongAdder();
+        return async(READ_STREAM, 0, () -> delegate.read(key, chunk -> {
+            bytes.add(length(chunk));
+            listener.accept(chunk);
+        }), r -> bytes.sum());
+    }
+
+    @Override
+    public CompletableFuture<Boolean> readChunks(String key, Consumer<ByteBuffer> listener) throws StoreEngineOperationException {
+        LongAdder bytes = new LongAdder();
+        return async(READ_CHUNKS, 0, () -> delegate.readChunks(key, chunk -> {
+            bytes.add(chunk.remaining());
+            listener.accept(chunk);
+        }), r -> bytes.sum());
+    }
+
+    @Override
+    public CompletableFuture<Map<String, byte[]>> readAll(Collection<String> keys) throws StoreEngineOperationException {
+        return async(READ_ALL, 0, () -> delegate.readAll(keys),
+                     values -> values.values().stream().mapToLong(InstrumentedStoreEngine::length).sum());
+    }
+
+    /**
+     * Only opening is measured, the channel is read by the caller
+     */
+    @Override
+    public ReadableByteChannel openValue(String key) throws StoreEngineOperationException {
+        return sync(OPEN_VALUE, 0, () -> delegate.openValue(key), null);
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws StoreEngineOperationException {
+        return sync(TRANSFER_TO, 0, () -> delegate.transferTo(key, target), Long::longValue);
+    }
+
+    @Override
+    public long version(String key) {
+        return delegate.version(key);
+    }
+
+    @Override
+    public boolean remove(String key) throws StoreEngineOperationException {
+        return sync(REMOVE, 0, () -> delegate.remove(key), null);
+    }
+
+    @Override
+    public CompletableFuture<Integer> removeAll(Collection<String> keys) throws StoreEngineOperationException {
+        return async(REMOVE_ALL, 0, () -> delegate.removeAll(keys), null);
+    }
+
+    @Override
+    public int size() throws StoreEngineOperationException {
+        return delegate.size();
+    }
+
+    @Override
+    public Set<String> keys() throws StoreEngineOperationException {
+        return delegate.keys();
+    }
+
+    @Override
+    public Iterator<String> scan(String fromKey, String toKey) throws StoreEngineOperationException {
+        return delegate.scan(fromKey, toKey);
+    }
+
+    @Override
+    public Iterator<String> scanPrefix(String prefix) throws StoreEngineOperationException {
+        return delegate.scanPrefix(prefix);
+    }
+
+    @Override
+    public Collection<byte[]> values() throws StoreEngineOperationException {
+        return delegate.values();
+    }
+
+    @Override
+    public Stream<KeyValue<String, byte[]>> entryStream() throws StoreEngineOperationException {
+        return delegate.entryStream();
+    }
+
+    @Override
+    public void clear() throws StoreEngineOperationException {
+        delegate.clear();
+    }
+
+    @Override
+    public void flush() throws StoreEngineOperationException {
+        sync(FLUSH, 0, () -> {
+            delegate.flush();
+            return null;
+        }, null);
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            delegate.close();
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    /**
+     * @param resultBytes count of bytes carried by the result, null if the bytes are known beforehand
+     */
+    private <T> T sync(String operation, long bytes, SyncOperation<T> call, ToLongFunction<T> resultBytes)
+            throws StoreEngineOperationException {
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.call();
+        } catch (StoreEngineOperationException | RuntimeException e) {
+            metrics.record(operation, start, 0, true);
+            throw e;
+        }
+        metrics.record(operation, start, bytes(bytes, result, resultBytes), false);
+        return result;
+    }
+
+    private <T> CompletableFuture<T> async(String operation, long bytes, AsyncOperation<T> call, ToLongFunction<T> resultBytes)
+            throws StoreEngineOperationException {
+        long start = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = call.call();
+        } catch (StoreEngineOperationException | RuntimeException e) {
+            metrics.record(operation, start, 0, true);
+            throw e;
+        }
+        return result.whenComplete((r, e) -> metrics.record(operation, start, e == null ? bytes(bytes, r, resultBytes) : 0, e != null));
+    }
+
+    private static <T> long bytes(long bytes, T result, ToLongFunction<T> resultBytes) {
+        return resultBytes == null || result == null ? bytes : resultBytes.applyAsLong(result);
+    }
+
+    private static long length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    @FunctionalInterface
+    private interface SyncOperation<T> {
+
+        T call() throws StoreEngineOperationException;
+    }
+
+    @FunctionalInterface
+    private interface AsyncOperation<T> {
+
+        CompletableFuture<T> call() throws StoreEngineOperationException;
+    }
+}
@@ -0,0 +1,36 @@
+package ru.store.impl.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Statistics of the operations and values of the gauges at one moment
+ */
+public final class MetricsSnapshot {
+
+    private final Map<String, OperationStats> operations;
+    private final Map<String, Long> gauges;
+
+    MetricsSnapshot(Map<String, OperationStats> operations, Map<String, Long> gauges) {
+        this.operations = Collections.unmodifiableMap(operations);
+        this.gauges = Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * @return statistics of the operations which have been called, by name of the operation
+     */
+    public Map<String, OperationStats> getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return statistics of the operation, null if it hasn't been called
+     */
+    public OperationStats getOperation(String name) {
+        return operations.get(name);
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+}
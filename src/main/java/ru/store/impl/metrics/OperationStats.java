@@ -0,0 +1,77 @@
+package ru.store.impl.metrics;
+
+/**
+ * Immutable statistics of one operation, latencies in micros
+ */
+public final class OperationStats {
+
+    private final String name;
+    private final long count;
+    private final long errors;
+    private final long bytes;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p90Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+
+    OperationStats(String name, long errors, long bytes, LatencyHistogram latency) {
+        this.name = name;
+        this.count = latency.getCount();
+        this.errors = errors;
+        this.bytes = bytes;
+        this.meanMicros = latency.getMean() / 1000;
+        this.p50Micros = latency.getValueAtPercentile(50) / 1000.0;
+        this.p90Micros = latency.getValueAtPercentile(90) / 1000.0;
+        this.p99Micros = latency.getValueAtPercentile(99) / 1000.0;
+        this.p999Micros = latency.getValueAtPercentile(99.9) / 1000.0;
+        this.maxMicros = latency.getMax() / 1000.0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP90Micros() {
+        return p90Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getP999Micros() {
+        return p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: count=%d errors=%d bytes=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                             name, count, errors, bytes, meanMicros, p50Micros, p99Micros, p999Micros, maxMicros);
+    }
+}
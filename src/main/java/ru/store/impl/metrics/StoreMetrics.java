@@ -0,0 +1,151 @@
+package ru.store.impl.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Latency histograms, byte and error counters of the operations of a store, and gauges of its internals
+ * (queue depths, retries). Everything is recorded with lock-free atomic increments, so it can stay on
+ * in production. Counters are striped {@link LongAdder}s, the buckets of a latency histogram are shared
+ * atomic counters, so concurrent operations of the same latency contend on one bucket. Published as an MXBean {@code ru.store:type=StoreMetrics,name=<name>} by {@link #register()}.
+ */
+public class StoreMetrics implements StoreMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(StoreMetrics.class.getName());
+
+    /**
+     * Metrics registered under a name, guarded by the class
+     */
+    private static final Map<ObjectName, StoreMetrics> REGISTERED = new HashMap<>();
+
+    private final String name;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    public StoreMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} at the start of the operation
+     */
+    public void record(String operation, long startNanos, long bytes, boolean failed) {
+        Operation metrics = operations.computeIfAbsent(operation, k -> new Operation());
+        metrics.latency.record(System.nanoTime() - startNanos);
+        if (bytes > 0) {
+            metrics.bytes.add(bytes);
+        }
+        if (failed) {
+            metrics.errors.increment();
+        }
+    }
+
+    /**
+     * Registers a gauge which is read at every snapshot
+     */
+    public void gauge(String gauge, LongSupplier supplier) {
+        gauges.put(gauge, supplier);
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<String, OperationStats> stats = new TreeMap<>();
+        operations.forEach((operation, metrics) -> stats.put(operation, metrics.stats(operation)));
+        return new MetricsSnapshot(stats, getGauges());
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        return new ArrayList<>(snapshot().getOperations().values());
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        gauges.forEach((gauge, supplier) -> values.put(gauge, supplier.getAsLong()));
+        return values;
+    }
+
+    @Override
+    public void reset() {
+        operations.values().forEach(Operation::reset);
+    }
+
+    /**
+     * Publishes the metrics in the platform MBean server, a registered bean of the same name is replaced
+     */
+    public void register() {
+        synchronized (StoreMetrics.class) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                objectName = new ObjectName("ru.store:type=StoreMetrics,name=" + ObjectName.quote(name));
+                try {
+                    server.registerMBean(this, objectName);
+                } catch (InstanceAlreadyExistsException e) {
+                    server.unregisterMBean(objectName);
+                    server.registerMBean(this, objectName);
+                }
+                REGISTERED.put(objectName, this);
+            } catch (JMException e) {
+                LOG.warning(String.format("Error register metrics of store[%s]: %s", name, e.getMessage()));
+                objectName = null;
+            }
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server unless they have been replaced by metrics of the same name
+     */
+    public void unregister() {
+        synchronized (StoreMetrics.class) {
+            if (objectName == null) {
+                return;
+            }
+
+            if (REGISTERED.remove(objectName, this)) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (InstanceNotFoundException e) {
+                    // has been unregistered bypassing the metrics
+                } catch (JMException e) {
+                    LOG.warning(String.format("Error unregister metrics of store[%s]: %s", name, e.getMessage()));
+                }
+            }
+            objectName = null;
+        }
+    }
+
+    private static final class Operation {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private OperationStats stats(String name) {
+            return new OperationStats(name, errors.sum(), bytes.sum(), latency);
+        }
+
+        private void reset() {
+            latency.reset();
+            bytes.reset();
+            errors.reset();
+        }
+    }
+}
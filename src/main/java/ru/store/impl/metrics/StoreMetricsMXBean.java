@@ -0,0 +1,16 @@
+package ru.store.impl.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX view of {@link StoreMetrics}
+ */
+public interface StoreMetricsMXBean {
+
+    List<OperationStats> getOperations();
+
+    Map<String, Long> getGauges();
+
+    void reset();
+}
@@ -0,0 +1,544 @@
+package ru.store.impl.writebehind;
+
+import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.KeyValue;
+import ru.store.impl.StoreEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Decorator of {@link StoreEngine} which acknowledges writes and removes once they are in memory
+ * and flushes them to the delegate in the background.
+ * <p>
+ * The pending values are kept in a memtable, a newer value of a key replaces its pending value, so a burst
+ * of writes of a key costs one write of the delegate. A flush takes all the pending entries and writes them
+ * as one batch; the background flush runs every half of the max age and as soon as the pending values
+ * take half of the max dirty bytes. Writes over the max dirty bytes wait for a flush.
+ * Reads of a key see its pending value; operations over all the keys ({@link #keys()}, {@link #entryStream()}...)
+ * and versioned writes flush the pending writes first.
+ * Acknowledged writes not flushed yet are lost on a crash, {@link #flush()} makes them reach the delegate.
+ * The memtable keeps copies of the written arrays and the reads of arrays return copies of the pending values,
+ * so the callers can't change a value before it's flushed.
+ */
+public class WriteBehindStoreEngine implements StoreEngine<String, byte[]> {
+
+    private static final Logger LOG = Logger.getLogger(WriteBehindStoreEngine.class.getName());
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    private static final long WAIT_FLUSH_MILLIS = 100;
+
+    private final StoreEngine<String, byte[]> delegate;
+    private final long maxDirtyBytes;
+    private final long maxAgeMillis;
+    private final ConcurrentHashMap<String, Pending> memtable = new ConcurrentHashMap<>();
+    private final AtomicLong dirtyBytes = new AtomicLong();
+    private final AtomicLong oldestDirtyNanos = new AtomicLong();
+    private final Object flushLock = new Object();
+    private final Object capacity = new Object();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService flushScheduler;
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedEntries = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param maxDirtyBytes max total size of the pending values, a single larger value is accepted alone
+     * @param maxAgeMillis  max time a write stays pending while the flushes succeed
+     */
+    public WriteBehindStoreEngine(StoreEngine<String, byte[]> delegate, long maxDirtyBytes, long maxAgeMillis) {
+        if (maxDirtyBytes < 1 || maxAgeMillis < 1) {
+            throw new IllegalArgumentException(String.format("Invalid limits of write-behind: %d bytes, %d ms",
+                                                             maxDirtyBytes, maxAgeMillis));
+        }
+        this.delegate = delegate;
+        this.maxDirtyBytes = maxDirtyBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "store-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, maxAgeMillis / 2);
+        flushScheduler.scheduleWithFixedDelay(this::flushQuietly, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public long getMaxDirtyBytes() {
+        return maxDirtyBytes;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * @return total size of the values not flushed yet
+     */
+    public long getDirtyBytes() {
+        return dirtyBytes.get();
+    }
+
+    /**
+     * @return count of keys with a write or remove not flushed yet
+     */
+    public int getDirtyCount() {
+        return memtable.size();
+    }
+
+    /**
+     * @return age of the oldest write not flushed yet, 0 if there is none
+     */
+    public long getFlushLagMillis() {
+        long oldest = oldestDirtyNanos.get();
+        return oldest == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    /**
+     * @return count of pending entries written or removed by the flushes
+     */
+    public long getFlushedCount() {
+        return flushedEntries.sum();
+    }
+
+    public long getFlushFailureCount() {
+        return flushFailures.sum();
+    }
+
+    /**
+     * @return count of pending values replaced by a newer value before their flush
+     */
+    public long getCoalescedWriteCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Writes all the pending entries to the delegate, the entries pending when it's called are flushed
+     * when it returns
+     */
+    @Override
+    public void flush() throws StoreEngineOperationException {
+        synchronized (flushLock) {
+            long startNanos = System.nanoTime();
+            Map<String, Pending> batch = new HashMap<>(memtable);
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            Map<String, byte[]> values = new HashMap<>();
+            List<String> removed = new ArrayList<>();
+            batch.forEach((key, pending) -> {
+                if (pending.value == null) {
+                    removed.add(key);
+                } else {
+                    values.put(key, pending.value);
+                }
+            });
+            try {
+                if (!values.isEmpty()) {
+                    delegate.writeAll(values).get();
+                }
+                if (!removed.isEmpty()) {
+                    delegate.removeAll(removed).get();
+                }
+            } catch (ExecutionException e) {
+                flushFailures.increment();
+                throw new StoreEngineOperationException("Error flush pending writes", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StoreEngineOperationException("Flush of pending writes is interrupted", e);
+            }
+
+            batch.forEach(this::flushed);
+            flushes.increment();
+            flushedEntries.add(batch.size());
+            oldestDirtyNanos.set(0);
+            if (!memtable.isEmpty()) {
+                oldestDirtyNanos.compareAndSet(0, startNanos);
+            }
+        }
+        releaseCapacity();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> write(String key, byte[] value) throws StoreEngineOperationException {
+        byte[] data = value == null ? EMPTY_BYTES : value;
+        put(normalize(key), data);
+        return CompletableFuture.completedFuture(data);
+    }
+
+    @Override
+    public byte[] writeSync(String key, byte[] value) throws StoreEngineOperationException {
+        byte[] data = value == null ? EMPTY_BYTES : value;
+        put(normalize(key), data);
+        return data;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> writeAll(Map<String, byte[]> entries) throws StoreEngineOperationException {
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            put(normalize(entry.getKey()), entry.getValue() == null ? EMPTY_BYTES : entry.getValue());
+        }
+        return CompletableFuture.completedFuture(true);
+    }
+
+    /**
+     * Streamed values aren't kept in memory, they are written through after the pending value of the key
+     */
+    @Override
+    public CompletableFuture<Boolean> write(String key, Iterator<byte[]> dataIter, CompletableFuture<Boolean> completableFuture)
+            throws StoreEngineOperationException {
+        flushKey(normalize(key));
+        return delegate.write(key, dataIter, completableFuture);
+    }
+
+    @Override
+    public long writeFrom(String key, ReadableByteChannel source) throws StoreEngineOperationException {
+        flushKey(normalize(key));
+        return delegate.writeFrom(key, source);
+    }
+
+    @Override
+    public long version(String key) {
+        try {
+            flushKey(normalize(key));
+        } catch (StoreEngineOperationException e) {
+            LOG.warning(String.format("Error flush key[%s]: %s", key, e.getMessage()));
+        }
+        return delegate.version(key);
+    }
+
+    @Override
+    public boolean writeIfVersion(String key, byte[] value, long expectedVersion) throws StoreEngineOperationException {
+        flushKey(normalize(key));
+        return delegate.writeIfVersion(key, value, expectedVersion);
+    }
+
+    @Override
+    public boolean remove(String key) throws StoreEngineOperationException {
+        String pendingKey = normalize(key);
+        Pending pending = memtable.get(pendingKey);
+        boolean stored = pending != null ? pending.value != null : delegate.keys().contains(pendingKey);
+        put(pendingKey, null);
+        return stored;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> read(String key) throws StoreEngineOperationException {
+        Pending pending = memtable.get(normalize(key));
+        if (pending != null) {
+            return CompletableFuture.completedFuture(pending.copyOrEmpty());
+        }
+        return delegate.read(key);
+    }
+
+    @Override
+    public byte[] readSync(String key) throws StoreEngineOperationException {
+        Pending pending = memtable.get(normalize(key));
+        if (pending != null) {
+            return pending.copyOrEmpty();
+        }
+        return delegate.readSync(key);
+    }
+
+    @Override
+    public ByteBuffer readBuffer(String key) throws StoreEngineOperationException {
+        Pending pending = memtable.get(normalize(key));
+        if (pending != null) {
+            return ByteBuffer.wrap(pending.valueOrEmpty()).asReadOnlyBuffer();
+        }
+        return delegate.readBuffer(key);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> read(String key, Consumer<byte[]> listener) throws StoreEngineOperationException {
+        Pending pending = memtable.get(normalize(key));
+        if (pending != null) {
+            listener.accept(pending.copyOrEmpty());
+            return CompletableFuture.completedFuture(true);
+        }
+        return delegate.read(key, listener);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> readChunks(String key, Consumer<ByteBuffer> listener) throws StoreEngineOperationException {
+        Pending pending = memtable.get(normalize(key));
+        if (pending != null) {
+            listener.accept(ByteBuffer.wrap(pending.valueOrEmpty()).asReadOnlyBuffer());
+            return CompletableFuture.completedFuture(true);
+        }
+        return delegate.readChunks(key, listener);
+    }
+
+    /**
+     * Pending values are served from the memtable, only the other keys are read by the delegate
+     */
+    @Override
+    public CompletableFuture<Map<String, byte[]>> readAll(Collection<String> keys) throws StoreEngineOperationException {
+        Map<String, byte[]> result = new ConcurrentHashMap<>();
+        List<String> missed = new ArrayList<>();
+        for (String key : keys) {
+            String pendingKey = normalize(key);
+            Pending pending = memtable.get(pendingKey);
+            if (pending == null) {
+                missed.add(pendingKey);
+            } else if (pending.value != null) {
+                result.put(pendingKey, pending.value.clone());
+            }
+        }
+        if (missed.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        return delegate.readAll(missed).thenApply(loaded -> {
+            result.putAll(loaded);
+            return result;
+        });
+    }
+
+    @Override
+    public ReadableByteChannel openValue(String key) throws StoreEngineOperationException {
+        Pending pending = memtable.get(normalize(key));
+        if (pending != null) {
+            return pending.value == null ? null : Channels.newChannel(new ByteArrayInputStream(pending.value));
+        }
+        return delegate.openValue(key);
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws StoreEngineOperationException {
+        Pending pending = memtable.get(normalize(key));
+        if (pending == null) {
+            return delegate.transferTo(key, target);
+        }
+        if (pending.value == null) {
+            return -1;
+        }
+
+        try {
+            ByteBuffer value = ByteBuffer.wrap(pending.value);
+            while (value.hasRemaining()) {
+                target.write(value);
+            }
+            return pending.value.length;
+        } catch (IOException e) {
+            throw new StoreEngineOperationException("Error transfer key " + key, e);
+        }
+    }
+
+    @Override
+    public int size() throws StoreEngineOperationException {
+        flush();
+        return delegate.size();
+    }
+
+    @Override
+    public Set<String> keys() throws StoreEngineOperationException {
+        flush();
+        return delegate.keys();
+    }
+
+    @Override
+    public Iterator<String> scan(String fromKey, String toKey) throws StoreEngineOperationException {
+        flush();
+        return delegate.scan(fromKey, toKey);
+    }
+
+    @Override
+    public Iterator<String> scanPrefix(String prefix) throws StoreEngineOperationException {
+        flush();
+        return delegate.scanPrefix(prefix);
+    }
+
+    @Override
+    public Collection<byte[]> values() throws StoreEngineOperationException {
+        flush();
+        return delegate.values();
+    }
+
+    @Override
+    public Stream<KeyValue<String, byte[]>> entryStream() throws StoreEngineOperationException {
+        flush();
+        return delegate.entryStream();
+    }
+
+    @Override
+    public void clear() throws StoreEngineOperationException {
+        synchronized (flushLock) {
+            memtable.clear();
+            dirtyBytes.set(0);
+            oldestDirtyNanos.set(0);
+            delegate.clear();
+        }
+        releaseCapacity();
+    }
+
+    /**
+     * Stops the background flush and flushes all the pending entries before the delegate is closed
+     */
+    @Override
+    public void close() throws Exception {
+        try {
+            flushScheduler.shutdown();
+            flushScheduler.awaitTermination(maxAgeMillis, TimeUnit.MILLISECONDS);
+            flush();
+        } finally {
+            delegate.close();
+        }
+    }
+
+    /**
+     * @param value value of the key, null for a remove
+     */
+    private void put(String key, byte[] value) throws StoreEngineOperationException {
+        Pending pending = new Pending(value);
+        awaitCapacity(pending.size);
+        Pending previous = memtable.put(key, pending);
+        if (previous != null) {
+            coalesced.increment();
+        }
+        long dirty = dirtyBytes.addAndGet(pending.size - (previous == null ? 0 : previous.size));
+        oldestDirtyNanos.compareAndSet(0, System.nanoTime());
+        if (dirty >= maxDirtyBytes / 2) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Writes the pending entry of the key to the delegate, so the next operation of the delegate with the key
+     * isn't overwritten by a later flush of it
+     */
+    private void flushKey(String key) throws StoreEngineOperationException {
+        if (!memtable.containsKey(key)) {
+            return;
+        }
+
+        synchronized (flushLock) {
+            Pending pending = memtable.get(key);
+            if (pending == null) {
+                return;
+            }
+
+            try {
+                if (pending.value == null) {
+                    delegate.remove(key);
+                } else {
+                    delegate.writeSync(key, pending.value);
+                }
+            } catch (StoreEngineOperationException | RuntimeException e) {
+                flushFailures.increment();
+                throw e;
+            }
+            flushed(key, pending);
+            flushedEntries.increment();
+        }
+        releaseCapacity();
+    }
+
+    private void flushed(String key, Pending pending) {
+        if (memtable.remove(key, pending)) {
+            dirtyBytes.addAndGet(-pending.size);
+        }
+    }
+
+    private void awaitCapacity(long size) throws StoreEngineOperationException {
+        if (dirtyBytes.get() + size <= maxDirtyBytes) {
+            return;
+        }
+
+        synchronized (capacity) {
+            while (dirtyBytes.get() > 0 && dirtyBytes.get() + size > maxDirtyBytes) {
+                requestFlush();
+                try {
+                    capacity.wait(WAIT_FLUSH_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StoreEngineOperationException("Wait for flush of pending writes is interrupted", e);
+                }
+            }
+        }
+    }
+
+    private void releaseCapacity() {
+        synchronized (capacity) {
+            capacity.notifyAll();
+        }
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            try {
+                flushScheduler.execute(() -> {
+                    flushRequested.set(false);
+                    flushQuietly();
+                });
+            } catch (RuntimeException e) {
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (StoreEngineOperationException e) {
+            LOG.warning(String.format("%s: %s", e.getMessage(), e.getCause()));
+        }
+    }
+
+    private static String normalize(String key) {
+        return key == null ? "null" : key;
+    }
+
+    private static final class Pending {
+
+        /**
+         * null for a remove
+         */
+        private final byte[] value;
+        private final long size;
+
+        private Pending(byte[] value) {
+            this.value = value == null ? null : value.clone();
+            this.size = value == null ? 0 : value.length;
+        }
+
+        /**
+         * The pending value is shared by the flush and the readers of buffers, so it isn't handed out
+         */
+        private byte[] valueOrEmpty() {
+            return value == null ? EMPTY_BYTES : value;
+        }
+
+        private byte[] copyOrEmpty() {
+            return value == null ? EMPTY_BYTES : value.clone();
+        }
+    }
+}
@@ -1,9 +1,33 @@
 package ru.store.api;
 
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import ru.store.impl.FSStoreEngine;
+import ru.store.impl.SerializerProvider;
+import ru.store.impl.async.ExecutionMode;
+import ru.store.impl.codec.DeflateCodec;
+import ru.store.impl.metrics.StoreMetrics;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+@ExtendWith(TemporaryFolderExtension.class)
 class KeyValueFactoryTest {
 
     @Test
@@ -15,4 +39,212 @@ class KeyValueFactoryTest {
         store.close();
     }
 
+    @Test
+    void buildTwice(TemporaryFolder folder) throws Exception {
+        KeyValueFactory.KeyValueBuilder<String, byte[]> builder = KeyValueFactory.create(folder.getRoot().getPath());
+        KeyValueStore<String, byte[]> store = builder.build();
+        KeyValueStore<String, byte[]> same = builder.build();
+        byte[] value = {1, 2, 3};
+
+        assertTrue(store.put("key", value));
+        assertArrayEquals(value, same.get("key"));
+        // another engine of the path gets its own temp directory
+        KeyValueStore<String, byte[]> other = KeyValueFactory.create(folder.getRoot().getPath()).build();
+        assertArrayEquals(value, other.get("key"));
+
+        other.close();
+        store.close();
+    }
+
+    @Test
+    void createLogStructured(TemporaryFolder folder) throws Exception {
+        KeyValueStore<String, byte[]> store = KeyValueFactory.create(folder.getRoot().getPath(), EngineType.LOG_STRUCTURED).build();
+        byte[] value = {1, 2, 3};
+
+        assertTrue(store.put("key", value));
+        assertArrayEquals(value, store.get("key"));
+
+        store.close();
+    }
+
+    @Test
+    void asyncGet(TemporaryFolder folder) throws Exception {
+        KeyValueStore<String, byte[]> store = KeyValueFactory.create(folder.getRoot().getPath()).build();
+        byte[] value = {1, 2, 3};
+        assertTrue(store.put("key", value, new CompletableFuture<>()).get(10, TimeUnit.SECONDS));
+
+        CompletableFuture<byte[]> handler = new CompletableFuture<>();
+        assertSame(handler, store.get("key", handler));
+        assertArrayEquals(value, handler.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(value, store.get("key", null).get(10, TimeUnit.SECONDS));
+
+        store.close();
+    }
+
+    @Test
+    void writeBehind(TemporaryFolder folder) throws Exception {
+        KeyValueStore<String, byte[]> store = KeyValueFactory.create(folder.getRoot().getPath())
+                                                             .withWriteBehind(1024 * 1024, 1000)
+                                                             .withMetrics("writeBehind")
+                                                             .build();
+        byte[] value = {1, 2, 3};
+
+        assertTrue(store.put("key", value));
+        assertArrayEquals(value, store.get("key"));
+        store.flush();
+        assertEquals(Collections.singleton("key"), store.keys());
+
+        store.close();
+        KeyValueStore<String, byte[]> reopened = KeyValueFactory.create(folder.getRoot().getPath()).build();
+        assertArrayEquals(value, reopened.get("key"));
+        reopened.close();
+    }
+
+    @Test
+    void closeWaitsForAsyncPuts(TemporaryFolder folder) throws Exception {
+        for (EngineType engineType : EngineType.values()) {
+            String path = folder.createDirectory(engineType.name()).getPath();
+            KeyValueStore<String, byte[]> store = KeyValueFactory.create(path, engineType).build();
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(store.put("key" + i, ("value" + i).getBytes(StandardCharsets.UTF_8), new CompletableFuture<>()));
+            }
+            store.close();
+
+            for (CompletableFuture<Boolean> future : futures) {
+                assertTrue(future.isDone());
+            }
+            KeyValueStore<String, byte[]> reopened = KeyValueFactory.create(path, engineType).build();
+            assertEquals(100, reopened.keys().size());
+            assertArrayEquals("value99".getBytes(StandardCharsets.UTF_8), reopened.get("key99"));
+            reopened.close();
+        }
+    }
+
+    @Test
+    void asyncPutsOfHotKeyAreCoalesced(TemporaryFolder folder) throws Exception {
+        StoreMetrics metrics = new StoreMetrics("asyncPuts");
+        KeyValueStore<String, byte[]> store = KeyValueFactory.create(folder.getRoot().getPath()).withMetrics(metrics).build();
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(store.put("key", ("value" + i).getBytes(StandardCharsets.UTF_8), new CompletableFuture<>()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertTrue(futures.get(7).get());
+        assertArrayEquals("value199".getBytes(StandardCharsets.UTF_8), store.get("key"));
+        assertTrue(metrics.snapshot().getGauges().get("coalescedWrites") > 0);
+
+        store.close();
+    }
+
+    @Test
+    void asyncPutIsCompressed(TemporaryFolder folder) throws Exception {
+        KeyValueStore<String, byte[]> store = KeyValueFactory.create(folder.getRoot().getPath())
+                                                             .withCompression(new DeflateCodec(), 64)
+                                                             .build();
+        byte[] value = new byte[100_000];
+        Arrays.fill(value, (byte) 'a');
+
+        assertTrue(store.put("key", value, new CompletableFuture<>()).get(10, TimeUnit.SECONDS));
+
+        long stored;
+        try (Stream<Path> files = Files.walk(folder.getRoot().toPath())) {
+            stored = files.filter(path -> path.toString().endsWith(FSStoreEngine.DEFAULT_EXTENSION_DATA_FILE))
+                          .mapToLong(path -> path.toFile().length())
+                          .sum();
+        }
+        assertTrue(stored > 0 && stored < value.length / 10, "stored " + stored);
+        assertArrayEquals(value, store.get("key"));
+
+        store.close();
+    }
+
+    @Test
+    void batchWithKeyResolver(TemporaryFolder folder) throws Exception {
+        KeyValueStore<Integer, String> store = KeyValueFactory.create(folder.getRoot().getPath())
+                                                              .<Integer, String>withKeyResolver(String::valueOf, new SerializerProvider<>(
+                                                                      value -> value.getBytes(StandardCharsets.UTF_8),
+                                                                      raw -> new String(raw, StandardCharsets.UTF_8)))
+                                                              .build();
+        Map<Integer, String> entries = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            entries.put(i, "value" + i);
+        }
+
+        assertTrue(store.putAll(entries).get(10, TimeUnit.SECONDS));
+        assertEquals(entries, store.getAll(entries.keySet()).get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonMap(99, "value99"), store.getAll(Arrays.asList(99, 100)).get(10, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(2), store.removeAll(Arrays.asList(1, 2, 100)).get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonMap(3, "value3"), store.getAll(Arrays.asList(1, 2, 3)).get(10, TimeUnit.SECONDS));
+
+        store.close();
+    }
+
+    @Test
+    void scanWithKeyResolver(TemporaryFolder folder) throws Exception {
+        KeyValueStore<Integer, String> store = KeyValueFactory.create(folder.getRoot().getPath())
+                                                              .<Integer, String>withKeyResolver(String::valueOf, Integer::valueOf, new SerializerProvider<>(
+                                                                      value -> value.getBytes(StandardCharsets.UTF_8),
+                                                                      raw -> new String(raw, StandardCharsets.UTF_8)))
+                                                              .build();
+        for (int i = 0; i < 30; i++) {
+            store.put(i, "value" + i);
+        }
+
+        List<Integer> prefixed = new ArrayList<>();
+        store.scanPrefix(1).forEachRemaining(prefixed::add);
+        assertEquals(Arrays.asList(1, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19), prefixed);
+        List<Integer> range = new ArrayList<>();
+        store.scan(25, 3).forEachRemaining(range::add);
+        assertEquals(Arrays.asList(25, 26, 27, 28, 29), range);
+
+        store.close();
+    }
+
+    @Test
+    void scanNeedsInverseKeyResolver(TemporaryFolder folder) throws Exception {
+        KeyValueStore<Integer, String> store = KeyValueFactory.create(folder.getRoot().getPath())
+                                                              .<Integer, String>withKeyResolver(String::valueOf, new SerializerProvider<>(
+                                                                      value -> value.getBytes(StandardCharsets.UTF_8),
+                                                                      raw -> new String(raw, StandardCharsets.UTF_8)))
+                                                              .build();
+
+        assertThrows(UnsupportedOperationException.class, () -> store.scan(null, null));
+
+        store.close();
+    }
+
+    @Test
+    void virtualThreadsModeStoresOnAnyJdk(TemporaryFolder folder) throws Exception {
+        KeyValueStore<String, byte[]> store = KeyValueFactory.create(folder.getRoot().getPath())
+                                                             .withExecutionMode(ExecutionMode.VIRTUAL_THREADS)
+                                                             .build();
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.put("key" + i, ("value" + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertTrue(store.putAll(entries).get(10, TimeUnit.SECONDS));
+        assertEquals(1000, store.getAll(entries.keySet()).get(10, TimeUnit.SECONDS).size());
+
+        store.close();
+    }
+
+    @Test
+    void injectedExecutorIsNotShutDown(TemporaryFolder folder) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        KeyValueStore<String, byte[]> store = KeyValueFactory.create(folder.getRoot().getPath(), EngineType.LOG_STRUCTURED)
+                                                             .withExecutor(executor)
+                                                             .build();
+        byte[] value = {1, 2, 3};
+
+        assertTrue(store.putAll(Collections.singletonMap("key", value)).get(10, TimeUnit.SECONDS));
+        assertArrayEquals(value, store.get("key"));
+        store.close();
+
+        assertFalse(executor.isShutdown());
+        executor.shutdown();
+    }
+
 }
\ No newline at end of file
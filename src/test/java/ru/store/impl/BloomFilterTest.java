@@ -0,0 +1,68 @@
+package ru.store.impl;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(TemporaryFolderExtension.class)
+class BloomFilterTest {
+
+    @Test
+    void noFalseNegatives() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("tenant/key" + i);
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("tenant/key" + i));
+        }
+        assertEquals(0, filter.getNegativeCount());
+    }
+
+    @Test
+    void falsePositiveRateIsNearTarget() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("key" + i);
+        }
+
+        int positives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("absent" + i)) {
+                positives++;
+            }
+        }
+        assertTrue(positives < 2_000, "false positives " + positives);
+        assertEquals(0.01, filter.getFalsePositiveRate(), 0.002);
+        assertEquals(7, filter.getHashCount());
+        assertTrue(filter.getMemoryBytes() < 13_000);
+    }
+
+    @Test
+    void saveAndLoad(TemporaryFolder folder) throws IOException {
+        BloomFilter filter = BloomFilter.create(1000, 0.001);
+        for (int i = 0; i < 1000; i++) {
+            filter.add("key" + i);
+        }
+        Path file = folder.getRoot().toPath().resolve("keys.bloom");
+        filter.save(file);
+
+        BloomFilter loaded = BloomFilter.load(file);
+
+        assertEquals(filter.getBitCount(), loaded.getBitCount());
+        assertEquals(filter.getHashCount(), loaded.getHashCount());
+        assertEquals(filter.getFalsePositiveRate(), loaded.getFalsePositiveRate(), 1e-9);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(loaded.mightContain("key" + i));
+            assertEquals(filter.mightContain("absent" + i), loaded.mightContain("absent" + i));
+        }
+    }
+}
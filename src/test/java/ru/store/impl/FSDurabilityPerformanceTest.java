@@ -0,0 +1,63 @@
+package ru.store.impl;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import ru.store.api.KeyValueFactory;
+import ru.store.api.KeyValueStore;
+import ru.store.impl.durability.Durability;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+/**
+ * Throughput of async puts for every durability level
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class FSDurabilityPerformanceTest {
+
+    private static final int COUNT_WRITES = 2000;
+    private static final int SIZE_VALUE = 4096;
+
+    @ParameterizedTest
+    @MethodSource("durabilityProvider")
+    void writeThroughput(Durability durability, boolean groupCommit, TemporaryFolder folder) throws Exception {
+        KeyValueFactory.KeyValueBuilder<String, byte[]> builder = KeyValueFactory.create(folder.getRoot().getPath())
+                                                                                 .withDurability(durability);
+        if (durability == Durability.PERIODIC) {
+            builder.withPeriodicSync(100);
+        }
+        if (groupCommit) {
+            builder.withGroupCommit(64, 2);
+        }
+
+        byte[] value = TestUtils.generateValue(SIZE_VALUE);
+        try (KeyValueStore<String, byte[]> store = builder.build()) {
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>(COUNT_WRITES);
+            long start = System.nanoTime();
+            for (int i = 0; i < COUNT_WRITES; i++) {
+                futures.add(store.put("key" + i, value, new CompletableFuture<>()));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(100, TimeUnit.SECONDS);
+            long duration = System.nanoTime() - start;
+
+            System.out.println(String.format("durability %s, group commit %s: %d writes/s", durability, groupCommit,
+                                             COUNT_WRITES * TimeUnit.SECONDS.toNanos(1) / duration));
+            assertArrayEquals(value, store.get("key" + (COUNT_WRITES - 1)));
+        }
+    }
+
+    static Stream<Arguments> durabilityProvider() {
+        return Stream.concat(Stream.of(Durability.values()).map(durability -> arguments(durability, false)),
+                             Stream.of(arguments(Durability.DATA_SYNC, true), arguments(Durability.FULL, true)));
+    }
+}
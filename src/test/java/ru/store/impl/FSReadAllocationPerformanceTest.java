@@ -0,0 +1,72 @@
+package ru.store.impl;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Heap allocated by streamed reads: chunks copied into byte[] against borrowed pooled buffers
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class FSReadAllocationPerformanceTest {
+
+    private static final int COUNT_READS = 2000;
+    private static final int SIZE_VALUE = 256 * 1024;
+
+    @Test
+    void allocationPerRead(TemporaryFolder folder) throws Exception {
+        String dataPath = folder.getRoot().getPath();
+        FSStoreEngine engine = new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp").toString(), 2, 2);
+        engine.setReadChunkSize(64 * 1024);
+        engine.writeSync("key", TestUtils.generateValue(SIZE_VALUE));
+        LongAdder readBytes = new LongAdder();
+
+        ReadOperation copying = () -> engine.read("key", chunk -> readBytes.add(chunk.length)).get(5, TimeUnit.SECONDS);
+        ReadOperation borrowing = () -> engine.readChunks("key", chunk -> readBytes.add(chunk.remaining())).get(5, TimeUnit.SECONDS);
+
+        measure(copying);
+        measure(borrowing);
+        long copyingBytes = measure(copying);
+        long borrowingBytes = measure(borrowing);
+
+        System.out.println(String.format("allocated per read of %d bytes: copied chunks %d bytes, borrowed chunks %d bytes",
+                                         SIZE_VALUE, copyingBytes / COUNT_READS, borrowingBytes / COUNT_READS));
+        assertTrue(borrowingBytes < copyingBytes);
+        assertTrue(borrowingBytes / COUNT_READS < SIZE_VALUE / 10);
+        engine.close();
+    }
+
+    /**
+     * @return bytes allocated in the heap by all threads during the reads
+     */
+    private static long measure(ReadOperation operation) throws Exception {
+        long before = allocatedBytes();
+        for (int i = 0; i < COUNT_READS; i++) {
+            operation.read();
+        }
+        return allocatedBytes() - before;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (long allocatedByThread : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            allocated += Math.max(allocatedByThread, 0);
+        }
+        return allocated;
+    }
+
+    @FunctionalInterface
+    private interface ReadOperation {
+
+        void read() throws Exception;
+    }
+}
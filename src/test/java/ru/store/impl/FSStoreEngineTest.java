@@ -8,21 +8,45 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.async.OverloadPolicy;
+import ru.store.impl.codec.DeflateCodec;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @ExtendWith(TemporaryFolderExtension.class)
@@ -30,15 +54,30 @@ class FSStoreEngineTest {
 
     private FSStoreEngine fsStoreEngine;
 
+    private String dataPath;
+
+    private final List<FSStoreEngine> reopenedEngines = new ArrayList<>();
 
     @BeforeEach
     void setUp(TemporaryFolder folder) throws StoreEngineOperationException {
-        fsStoreEngine = new FSStoreEngine(folder.getRoot().getPath(), Paths.get(folder.getRoot().getPath(),"tmp").toString(), 1, 1);
+        dataPath = folder.getRoot().getPath();
+        fsStoreEngine = new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp").toString(), 1, 1);
     }
 
     @AfterEach
     void tearDown() throws StoreEngineOperationException {
+        for (FSStoreEngine reopened : reopenedEngines) {
+            reopened.close();
+        }
+    }
 
+    /**
+     * @return second engine of the data path, it's closed after the test
+     */
+    private FSStoreEngine reopen() throws StoreEngineOperationException {
+        FSStoreEngine reopened = new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp2").toString(), 1, 1);
+        reopenedEngines.add(reopened);
+        return reopened;
     }
 
     @Test
@@ -58,6 +97,16 @@ class FSStoreEngineTest {
         assertArrayEquals(expectedRaw, result);
     }
 
+    @Test
+    void failedConstructionDoesntLeakThreads() {
+        long before = countRetryThreads();
+
+        assertThrows(StoreEngineOperationException.class,
+                     () -> new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp").toString(), 1, 1));
+
+        assertEquals(before, countRetryThreads());
+    }
+
     @Test
     void size() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
         int expectedSize = 5;
@@ -147,4 +196,558 @@ class FSStoreEngineTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    void keysIsLiveView() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        Set<String> keys = fsStoreEngine.keys();
+
+        fsStoreEngine.write("key", "value".getBytes(StandardCharsets.UTF_8)).get(5, TimeUnit.SECONDS);
+        assertTrue(keys.contains("key"));
+
+        fsStoreEngine.remove("key");
+        assertFalse(keys.contains("key"));
+    }
+
+    @Test
+    void reopenLoadsKeys() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        byte[] expectedRaw = TestUtils.generateValue(1000);
+        fsStoreEngine.write("key", expectedRaw).get(5, TimeUnit.SECONDS);
+
+        FSStoreEngine reopened = reopen();
+
+        assertEquals(1, reopened.size());
+        assertArrayEquals(expectedRaw, reopened.readSync("key"));
+    }
+
+    @Test
+    void scanRangeAndPrefix() throws StoreEngineOperationException {
+        List<String> keys = Arrays.asList("tenant1/order/2", "tenant1/order/1", "tenant1/user/1",
+                                          "tenant2/order/1", "tenant1/order/10", "tenant10/order/1");
+        for (String key : keys) {
+            fsStoreEngine.writeSync(key, key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(Arrays.asList("tenant1/order/1", "tenant1/order/10", "tenant1/order/2"),
+                     toList(fsStoreEngine.scanPrefix("tenant1/order/")));
+        assertEquals(Arrays.asList("tenant1/order/10", "tenant1/order/2", "tenant1/user/1"),
+                     toList(fsStoreEngine.scan("tenant1/order/10", "tenant10")));
+        assertEquals(Arrays.asList("tenant10/order/1", "tenant2/order/1"),
+                     toList(fsStoreEngine.scan("tenant10", null)));
+        assertEquals(6, toList(fsStoreEngine.scanPrefix("")).size());
+        assertFalse(fsStoreEngine.scanPrefix("tenant3/").hasNext());
+
+        fsStoreEngine.remove("tenant1/order/10");
+        assertEquals(Arrays.asList("tenant1/order/1", "tenant1/order/2"),
+                     toList(fsStoreEngine.scanPrefix("tenant1/order/")));
+    }
+
+    @Test
+    void entryStreamReadsLazily() throws StoreEngineOperationException {
+        fsStoreEngine.writeSync("key", "old".getBytes(StandardCharsets.UTF_8));
+
+        KeyValue<String, byte[]> entry;
+        try (Stream<KeyValue<String, byte[]>> entries = fsStoreEngine.entryStream()) {
+            entry = entries.findFirst().get();
+        }
+        fsStoreEngine.writeSync("key", "new".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("key", entry.getKey());
+        assertArrayEquals("new".getBytes(StandardCharsets.UTF_8), entry.getValue());
+    }
+
+    @Test
+    void entryStreamInParallelWithPrefetch() throws StoreEngineOperationException {
+        Map<String, byte[]> expected = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] value = TestUtils.generateValue(10 + i);
+            expected.put("key" + i, value);
+            fsStoreEngine.writeSync("key" + i, value);
+        }
+        fsStoreEngine.setScanPrefetch(8);
+
+        Map<String, byte[]> result;
+        try (Stream<KeyValue<String, byte[]>> entries = fsStoreEngine.entryStream()) {
+            result = entries.parallel().collect(Collectors.toMap(KeyValue::getKey, KeyValue::getValue));
+        }
+        assertEquals(expected.keySet(), result.keySet());
+        expected.forEach((key, value) -> assertArrayEquals(value, result.get(key)));
+
+        try (Stream<KeyValue<String, byte[]>> entries = fsStoreEngine.entryStream()) {
+            assertEquals(10, entries.limit(10).map(KeyValue::getValue).count());
+        }
+        assertEquals(200, fsStoreEngine.values().size());
+    }
+
+    @Test
+    void prefixEnd() {
+        assertEquals("b", KeyDirectory.prefixEnd("a"));
+        assertEquals("tenant0", KeyDirectory.prefixEnd("tenant/"));
+        assertEquals("b", KeyDirectory.prefixEnd("a\uffff"));
+        assertNull(KeyDirectory.prefixEnd("\uffff"));
+        assertNull(KeyDirectory.prefixEnd(""));
+    }
+
+    @Test
+    void reopenLoadsSnapshot() throws StoreEngineOperationException, IOException {
+        for (int i = 0; i < 10; i++) {
+            fsStoreEngine.writeSync("tenant/key" + i, TestUtils.generateValue(100 + i));
+        }
+        fsStoreEngine.close();
+
+        assertEquals(1, countHintFiles());
+        FSStoreEngine reopened = reopen();
+
+        assertEquals(1, countHintFiles());
+        assertEquals(10, reopened.size());
+        assertEquals(Arrays.asList("tenant/key0", "tenant/key1"), toList(reopened.scan("tenant/key0", "tenant/key2")));
+        assertEquals(105, reopened.readSync("tenant/key5").length);
+    }
+
+    @Test
+    void bloomFilterOfKeys() throws StoreEngineOperationException, IOException {
+        for (int i = 0; i < 100; i++) {
+            fsStoreEngine.writeSync("key" + i, ("value" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        fsStoreEngine.setBloomFilter(1000, 0.01);
+        fsStoreEngine.writeSync("added", "value".getBytes(StandardCharsets.UTF_8));
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, fsStoreEngine.readSync("absent" + i).length);
+        }
+        assertTrue(fsStoreEngine.getBloomFilter().getNegativeCount() > 900);
+        assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), fsStoreEngine.readSync("added"));
+        assertArrayEquals("value7".getBytes(StandardCharsets.UTF_8), fsStoreEngine.readSync("key7"));
+        fsStoreEngine.close();
+
+        FSStoreEngine reopened = reopen();
+        assertFalse(Files.exists(Paths.get(dataPath, "keys.data.bloom")));
+        reopened.setBloomFilter(1000, 0.01);
+
+        assertEquals(101, reopened.size());
+        assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), reopened.readSync("added"));
+        assertFalse(reopened.remove("absent"));
+        assertTrue(reopened.remove("key7"));
+        assertEquals(0, reopened.readSync("key7").length);
+    }
+
+    @Test
+    void reusedBloomFilterHoldsKeysWrittenBeforeItsSet() throws StoreEngineOperationException, IOException {
+        fsStoreEngine.writeSync("old", "value".getBytes(StandardCharsets.UTF_8));
+        fsStoreEngine.setBloomFilter(1000, 0.01);
+        fsStoreEngine.close();
+        // the saved filter is reused only when no shard is modified since the snapshot
+        ShardedLayout layout = new ShardedLayout(Paths.get(dataPath), FSStoreEngine.DEFAULT_EXTENSION_DATA_FILE);
+        Files.setLastModifiedTime(layout.pathOf("old").getParent(),
+                                  FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+
+        FSStoreEngine reopened = reopen();
+        reopened.writeSync("fresh", "value".getBytes(StandardCharsets.UTF_8));
+        reopened.setBloomFilter(1000, 0.01);
+
+        assertEquals(new HashSet<>(Arrays.asList("old", "fresh")), reopened.keys());
+        assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), reopened.readSync("fresh"));
+        assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), reopened.readSync("old"));
+    }
+
+    @Test
+    void reopenWalksShardsModifiedSinceSnapshot() throws StoreEngineOperationException, IOException {
+        for (int i = 0; i < 50; i++) {
+            fsStoreEngine.writeSync("key" + i, TestUtils.generateValue(100 + i));
+        }
+        fsStoreEngine.snapshot();
+        ShardedLayout layout = new ShardedLayout(Paths.get(dataPath), FSStoreEngine.DEFAULT_EXTENSION_DATA_FILE);
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i < 50; i++) {
+            Files.setLastModifiedTime(layout.pathOf("key" + i).getParent(), past);
+        }
+        // unmodified shards are trusted to match the snapshot
+        Path unmodified = layout.pathOf("key5");
+        Files.delete(unmodified);
+        Files.setLastModifiedTime(unmodified.getParent(), past);
+
+        fsStoreEngine.remove("key3");
+        fsStoreEngine.writeSync("key4", TestUtils.generateValue(10));
+        fsStoreEngine.writeSync("added", TestUtils.generateValue(20));
+        FSStoreEngine reopened = reopen();
+
+        assertEquals(50, reopened.size());
+        assertFalse(reopened.keys().contains("key3"));
+        assertTrue(reopened.keys().contains("key5"));
+        assertEquals(10, reopened.readSync("key4").length);
+        assertEquals(20, reopened.readSync("added").length);
+        assertEquals(107, reopened.readSync("key7").length);
+    }
+
+    @Test
+    void keysOfFilesLostAfterSnapshotAreDropped() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            fsStoreEngine.writeSync("key" + i, TestUtils.generateValue(100));
+        }
+        fsStoreEngine.snapshot();
+        ShardedLayout layout = new ShardedLayout(Paths.get(dataPath), FSStoreEngine.DEFAULT_EXTENSION_DATA_FILE);
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i < 3; i++) {
+            Files.setLastModifiedTime(layout.pathOf("key" + i).getParent(), past);
+        }
+        for (String lost : Arrays.asList("key1", "key2")) {
+            Files.delete(layout.pathOf(lost));
+            Files.setLastModifiedTime(layout.pathOf(lost).getParent(), past);
+        }
+
+        FSStoreEngine reopened = reopen();
+        assertEquals(3, reopened.size());
+        assertEquals(0, reopened.readSync("key1").length);
+        assertFalse(reopened.remove("key2"));
+
+        assertEquals(1, reopened.size());
+        assertEquals(Collections.singleton("key0"), reopened.keys());
+    }
+
+    @Test
+    void periodicSnapshot() throws StoreEngineOperationException, IOException, InterruptedException {
+        fsStoreEngine.writeSync("key", TestUtils.generateValue(100));
+        fsStoreEngine.setSnapshotPeriodMillis(20);
+
+        for (int i = 0; i < 250 && countHintFiles() == 0; i++) {
+            Thread.sleep(20);
+        }
+        fsStoreEngine.setSnapshotPeriodMillis(0);
+
+        assertEquals(1, countHintFiles());
+    }
+
+    @Test
+    void reopenWithCorruptedSnapshot() throws StoreEngineOperationException, IOException {
+        for (int i = 0; i < 10; i++) {
+            fsStoreEngine.writeSync("key" + i, TestUtils.generateValue(100));
+        }
+        fsStoreEngine.snapshot();
+        Path hint = Paths.get(dataPath, "keys" + FSStoreEngine.DEFAULT_EXTENSION_DATA_FILE + ".hint");
+        Files.write(hint, Arrays.copyOf(Files.readAllBytes(hint), 40));
+
+        FSStoreEngine reopened = reopen();
+
+        assertEquals(10, reopened.size());
+    }
+
+    private long countHintFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(dataPath))) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".hint")).count();
+        }
+    }
+
+    private static long countRetryThreads() {
+        return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().equals("store-retry")).count();
+    }
+
+    private static List<String> toList(Iterator<String> keys) {
+        List<String> res = new ArrayList<>();
+        keys.forEachRemaining(res::add);
+        return res;
+    }
+
+    @Test
+    void longKeyIsSharded() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException, IOException {
+        String key = TestUtils.generateString(1000);
+        byte[] expectedRaw = TestUtils.generateValue(1000);
+        fsStoreEngine.write(key, expectedRaw).get(5, TimeUnit.SECONDS);
+
+        assertArrayEquals(expectedRaw, fsStoreEngine.readSync(key));
+        assertArrayEquals(expectedRaw, fsStoreEngine.read(key).get(5, TimeUnit.SECONDS));
+
+        FSStoreEngine reopened = reopen();
+        assertEquals(Collections.singleton(key), reopened.keys());
+        assertArrayEquals(expectedRaw, reopened.readSync(key));
+    }
+
+    @Test
+    void openMigratesFlatLayout() throws StoreEngineOperationException, IOException {
+        byte[] expectedRaw = TestUtils.generateValue(1000);
+        Path flatPath = Paths.get(dataPath, "flat" + FSStoreEngine.DEFAULT_EXTENSION_DATA_FILE);
+        Files.write(flatPath, expectedRaw);
+
+        FSStoreEngine reopened = reopen();
+
+        assertFalse(Files.exists(flatPath));
+        assertEquals(Collections.singleton("flat"), reopened.keys());
+        assertArrayEquals(expectedRaw, reopened.readSync("flat"));
+    }
+
+    @Test
+    void batch() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            entries.put("key" + i, TestUtils.generateValue(100));
+        }
+
+        assertTrue(fsStoreEngine.writeAll(entries).get(10, TimeUnit.SECONDS));
+        assertEquals(500, fsStoreEngine.size());
+
+        Map<String, byte[]> result = fsStoreEngine.readAll(Arrays.asList("key1", "key499", "absent")).get(10, TimeUnit.SECONDS);
+        assertEquals(new HashSet<>(Arrays.asList("key1", "key499")), result.keySet());
+        assertArrayEquals(entries.get("key499"), result.get("key499"));
+
+        assertEquals(Integer.valueOf(500), fsStoreEngine.removeAll(entries.keySet()).get(10, TimeUnit.SECONDS));
+        assertEquals(0, fsStoreEngine.size());
+    }
+
+    @Test
+    void readChunksWithPooledBuffers() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        fsStoreEngine.setReadChunkSize(8192);
+        byte[] expectedRaw = TestUtils.generateValue(100_000);
+        fsStoreEngine.writeSync("key", expectedRaw);
+
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer result = ByteBuffer.allocate(expectedRaw.length);
+            assertTrue(fsStoreEngine.readChunks("key", chunk -> {
+                assertTrue(chunk.isDirect());
+                assertTrue(chunk.remaining() <= 8192);
+                result.put(chunk);
+            }).get(5, TimeUnit.SECONDS));
+            assertArrayEquals(expectedRaw, result.array());
+        }
+
+        assertEquals(1, fsStoreEngine.getBufferPool().getAllocationCount());
+    }
+
+    @Test
+    void streamValue() throws IOException, StoreEngineOperationException {
+        long length = 20L * 1024 * 1024 + 17;
+        InputStream source = new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                return position < length ? (int) (position++ % 251) : -1;
+            }
+        };
+
+        assertEquals(length, fsStoreEngine.writeFrom("key", Channels.newChannel(source)));
+        assertEquals(1, fsStoreEngine.size());
+        assertNull(fsStoreEngine.openValue("missing"));
+
+        long position = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (ReadableByteChannel channel = fsStoreEngine.openValue("key")) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    assertEquals(position++ % 251, buffer.get() & 0xFF);
+                }
+                buffer.clear();
+            }
+        }
+        assertEquals(length, position);
+    }
+
+    @Test
+    void transferTo() throws StoreEngineOperationException {
+        byte[] expectedRaw = TestUtils.generateValue(100_000);
+        fsStoreEngine.writeSync("key", expectedRaw);
+
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        assertEquals(expectedRaw.length, fsStoreEngine.transferTo("key", Channels.newChannel(target)));
+        assertArrayEquals(expectedRaw, target.toByteArray());
+        assertEquals(-1, fsStoreEngine.transferTo("missing", Channels.newChannel(target)));
+    }
+
+    @Test
+    void compressValues() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException, IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 5000; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"item").append(i % 17).append("\",\"active\":true},");
+        }
+        byte[] expectedRaw = json.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+        byte[] random = TestUtils.generateValue(1000);
+        byte[] small = "{\"id\":1}".getBytes(StandardCharsets.UTF_8);
+        fsStoreEngine.setCompression(new DeflateCodec(), 64);
+        fsStoreEngine.setReadChunkSize(1000);
+
+        fsStoreEngine.writeSync("sync", expectedRaw);
+        fsStoreEngine.write("async", expectedRaw).get(5, TimeUnit.SECONDS);
+        fsStoreEngine.writeAll(Collections.singletonMap("batch", expectedRaw)).get(5, TimeUnit.SECONDS);
+        fsStoreEngine.writeSync("random", random);
+        fsStoreEngine.writeSync("small", small);
+
+        ShardedLayout layout = new ShardedLayout(Paths.get(dataPath), FSStoreEngine.DEFAULT_EXTENSION_DATA_FILE);
+        for (String key : Arrays.asList("sync", "async", "batch")) {
+            assertTrue(Files.size(layout.pathOf(key)) < expectedRaw.length / 5, key);
+            assertArrayEquals(expectedRaw, fsStoreEngine.readSync(key), key);
+            assertArrayEquals(expectedRaw, fsStoreEngine.read(key).get(5, TimeUnit.SECONDS), key);
+        }
+        assertEquals(ShardedLayout.valueOffset("random") + random.length, Files.size(layout.pathOf("random")));
+        assertEquals(ShardedLayout.valueOffset("small") + small.length, Files.size(layout.pathOf("small")));
+        assertArrayEquals(random, fsStoreEngine.read("random").get(5, TimeUnit.SECONDS));
+        assertArrayEquals(small, fsStoreEngine.readSync("small"));
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        List<Integer> chunks = new ArrayList<>();
+        assertTrue(fsStoreEngine.read("sync", chunk -> {
+            chunks.add(chunk.length);
+            streamed.write(chunk, 0, chunk.length);
+        }).get(5, TimeUnit.SECONDS));
+        assertArrayEquals(expectedRaw, streamed.toByteArray());
+        assertTrue(chunks.size() > 1);
+
+        ByteBuffer chunked = ByteBuffer.allocate(expectedRaw.length);
+        assertTrue(fsStoreEngine.readChunks("async", chunked::put).get(5, TimeUnit.SECONDS));
+        assertArrayEquals(expectedRaw, chunked.array());
+
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        assertEquals(expectedRaw.length, fsStoreEngine.transferTo("batch", Channels.newChannel(transferred)));
+        assertArrayEquals(expectedRaw, transferred.toByteArray());
+
+        fsStoreEngine.setMmapThreshold(1);
+        ByteBuffer mapped = fsStoreEngine.readBuffer("sync");
+        assertTrue(mapped.isReadOnly());
+        assertEquals(ByteBuffer.wrap(expectedRaw), mapped);
+        assertArrayEquals(expectedRaw, fsStoreEngine.readSync("async"));
+
+        fsStoreEngine.setCompression(null, 0);
+        FSStoreEngine reopened = reopen();
+        assertEquals(5, reopened.size());
+        assertArrayEquals(expectedRaw, reopened.read("batch").get(5, TimeUnit.SECONDS));
+        ByteBuffer opened = ByteBuffer.allocate(expectedRaw.length + 1);
+        try (ReadableByteChannel channel = reopened.openValue("sync")) {
+            while (channel.read(opened) >= 0) {
+                // read until the end of the value
+            }
+        }
+        opened.flip();
+        assertEquals(ByteBuffer.wrap(expectedRaw), opened);
+    }
+
+    @Test
+    void coalesceWritesOfHotKey() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(fsStoreEngine.write("key", ("value" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertArrayEquals("value7".getBytes(StandardCharsets.UTF_8), futures.get(7).get());
+        assertArrayEquals("value199".getBytes(StandardCharsets.UTF_8), fsStoreEngine.readSync("key"));
+        assertTrue(fsStoreEngine.getCoalescedWriteCount() > 0);
+    }
+
+    @Test
+    void compareAndSetConcurrently() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        assertEquals(KeyVersions.ABSENT, fsStoreEngine.version("counter"));
+        assertTrue(fsStoreEngine.writeIfVersion("counter", "0".getBytes(StandardCharsets.UTF_8), KeyVersions.ABSENT));
+        assertFalse(fsStoreEngine.writeIfVersion("counter", "0".getBytes(StandardCharsets.UTF_8), KeyVersions.ABSENT));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 25; j++) {
+                    while (true) {
+                        long version = fsStoreEngine.version("counter");
+                        int counter = Integer.parseInt(new String(fsStoreEngine.readSync("counter"), StandardCharsets.UTF_8));
+                        if (fsStoreEngine.writeIfVersion("counter", String.valueOf(counter + 1).getBytes(StandardCharsets.UTF_8), version)) {
+                            break;
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertArrayEquals("100".getBytes(StandardCharsets.UTF_8), fsStoreEngine.readSync("counter"));
+        long version = fsStoreEngine.version("counter");
+        fsStoreEngine.writeSync("counter", "0".getBytes(StandardCharsets.UTF_8));
+        assertTrue(fsStoreEngine.version("counter") > version);
+        fsStoreEngine.remove("counter");
+        assertEquals(KeyVersions.ABSENT, fsStoreEngine.version("counter"));
+    }
+
+    @Test
+    void tempKeysAreUnique() {
+        assertFalse(FSStoreEngine.getTempKey("key").equals(FSStoreEngine.getTempKey("key")));
+    }
+
+    @Test
+    void writeWithinLimits() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        fsStoreEngine.setWriteLimits(2, 10_000, OverloadPolicy.DEFER);
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(fsStoreEngine.write("key" + i, TestUtils.generateValue(4000)));
+        }
+        assertTrue(fsStoreEngine.getWriteAdmission().getInFlightCount() <= 2);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertEquals(50, fsStoreEngine.size());
+        assertEquals(0, fsStoreEngine.getWriteAdmission().getInFlightCount());
+        assertEquals(0, fsStoreEngine.getWriteAdmission().getQueueDepth());
+    }
+
+    @Test
+    void streamedWriteWithinLimits() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        fsStoreEngine.setWriteLimits(2, 10_000, OverloadPolicy.DEFER);
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Iterator<byte[]> chunks = Arrays.asList(TestUtils.generateValue(2000), TestUtils.generateValue(2000)).iterator();
+            futures.add(fsStoreEngine.write("key" + i, chunks, new CompletableFuture<>()));
+        }
+        assertTrue(fsStoreEngine.getWriteAdmission().getInFlightCount() <= 2);
+        assertTrue(fsStoreEngine.getWriteAdmission().getInFlightBytes() <= 10_000);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertEquals(50, fsStoreEngine.size());
+        assertEquals(4000, fsStoreEngine.readSync("key7").length);
+        assertEquals(0, fsStoreEngine.getWriteAdmission().getInFlightCount());
+        assertEquals(0, fsStoreEngine.getWriteAdmission().getQueueDepth());
+    }
+
+    @Test
+    void writeWithGroupCommit() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        fsStoreEngine.enableGroupCommit(16, 5);
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            futures.add(fsStoreEngine.write("key" + i, ("value" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        fsStoreEngine.writeSync("key", "value".getBytes(StandardCharsets.UTF_8));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertEquals(33, fsStoreEngine.size());
+        assertArrayEquals("value7".getBytes(StandardCharsets.UTF_8), fsStoreEngine.readSync("key7"));
+        assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), fsStoreEngine.readSync("key"));
+        fsStoreEngine.disableGroupCommit();
+    }
+
+    @Test
+    void readBufferMapped() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        fsStoreEngine.setMmapThreshold(1000);
+        byte[] expectedRaw = TestUtils.generateValue(10_000);
+        fsStoreEngine.writeSync("key", expectedRaw);
+
+        ByteBuffer buffer = fsStoreEngine.readBuffer("key");
+        fsStoreEngine.writeSync("key", "value".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        assertArrayEquals(expectedRaw, result);
+
+        fsStoreEngine.writeSync("key", expectedRaw);
+        assertArrayEquals(expectedRaw, fsStoreEngine.readSync("key"));
+        assertArrayEquals(expectedRaw, fsStoreEngine.read("key").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void readBufferBelowThreshold() throws StoreEngineOperationException {
+        fsStoreEngine.writeSync("key", "value".getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer buffer = fsStoreEngine.readBuffer("key");
+
+        assertFalse(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        assertEquals(ByteBuffer.wrap("value".getBytes(StandardCharsets.UTF_8)), buffer);
+        assertEquals(0, fsStoreEngine.readBuffer("absent").remaining());
+    }
+
+}
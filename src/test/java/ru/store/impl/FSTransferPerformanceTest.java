@@ -0,0 +1,101 @@
+package ru.store.impl;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Throughput of serving a value over a loopback socket: readSync and write of the byte[] against transferTo
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class FSTransferPerformanceTest {
+
+    private static final int COUNT_TRANSFERS = 20;
+    private static final int SIZE_VALUE = 32 * 1024 * 1024;
+
+    @Test
+    void transferOverLoopback(TemporaryFolder folder) throws Exception {
+        String dataPath = folder.getRoot().getPath();
+        FSStoreEngine engine = new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp").toString(), 2, 2);
+        engine.writeSync("key", TestUtils.generateValue(SIZE_VALUE));
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            AtomicLong received = new AtomicLong();
+            Thread drain = new Thread(() -> drain(server, received), "loopback-drain");
+            drain.start();
+
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+                Transfer copying = () -> {
+                    ByteBuffer value = ByteBuffer.wrap(engine.readSync("key"));
+                    while (value.hasRemaining()) {
+                        client.write(value);
+                    }
+                };
+                Transfer zeroCopy = () -> engine.transferTo("key", client);
+
+                measure(copying, received);
+                measure(zeroCopy, received);
+                long copyingNanos = measure(copying, received);
+                long zeroCopyNanos = measure(zeroCopy, received);
+
+                System.out.println(String.format("loopback transfer of %d values of %d bytes: readSync %d MB/s, transferTo %d MB/s",
+                                                 COUNT_TRANSFERS, SIZE_VALUE,
+                                                 throughput(copyingNanos), throughput(zeroCopyNanos)));
+            }
+            drain.join();
+            assertEquals(4L * COUNT_TRANSFERS * SIZE_VALUE, received.get());
+        }
+        engine.close();
+    }
+
+    /**
+     * @return nanos until all transferred bytes have been received
+     */
+    private static long measure(Transfer transfer, AtomicLong received) throws Exception {
+        long expected = received.get() + (long) COUNT_TRANSFERS * SIZE_VALUE;
+        long start = System.nanoTime();
+        for (int i = 0; i < COUNT_TRANSFERS; i++) {
+            transfer.transfer();
+        }
+        while (received.get() < expected) {
+            Thread.yield();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long throughput(long nanos) {
+        return (long) COUNT_TRANSFERS * SIZE_VALUE * 1_000_000_000L / nanos / (1024 * 1024);
+    }
+
+    private static void drain(ServerSocketChannel server, AtomicLong received) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        try (SocketChannel channel = server.accept()) {
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                received.addAndGet(read);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Transfer {
+
+        void transfer() throws Exception;
+    }
+}
@@ -0,0 +1,122 @@
+package ru.store.impl.async;
+
+import org.junit.jupiter.api.Test;
+import ru.store.exceptions.StoreOverloadedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControllerTest {
+
+    private final AdmissionController admission = new AdmissionController();
+    private final List<CompletableFuture<String>> started = new ArrayList<>();
+
+    private CompletableFuture<String> submit(long bytes) {
+        return admission.submit(bytes, () -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            started.add(future);
+            return future;
+        });
+    }
+
+    @Test
+    void failFast() {
+        admission.setLimits(2, 1000, OverloadPolicy.FAIL_FAST);
+        submit(100);
+        submit(100);
+        CompletableFuture<String> rejected = submit(100);
+
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        assertTrue(e.getCause() instanceof StoreOverloadedException);
+        assertEquals(2, started.size());
+        assertEquals(1, admission.getRejectedCount());
+
+        started.get(0).complete("done");
+        assertEquals(1, admission.getInFlightCount());
+        submit(100);
+        assertEquals(3, started.size());
+    }
+
+    @Test
+    void deferByBytes() {
+        admission.setLimits(10, 1000, OverloadPolicy.DEFER);
+        submit(600);
+        CompletableFuture<String> deferred1 = submit(600);
+        CompletableFuture<String> deferred2 = submit(10);
+
+        assertEquals(1, started.size());
+        assertEquals(2, admission.getQueueDepth());
+        assertEquals(600, admission.getInFlightBytes());
+
+        started.get(0).complete("first");
+        assertEquals(3, started.size());
+        assertEquals(0, admission.getQueueDepth());
+
+        started.get(1).complete("second");
+        assertEquals("second", deferred1.join());
+        assertFalse(deferred2.isDone());
+        started.get(2).complete("third");
+        assertEquals("third", deferred2.join());
+        assertEquals(0, admission.getInFlightCount());
+        assertEquals(0, admission.getInFlightBytes());
+    }
+
+    @Test
+    void oversizedOperationIsAdmittedAlone() {
+        admission.setLimits(10, 100, OverloadPolicy.DEFER);
+        submit(1000);
+        submit(1000);
+
+        assertEquals(1, started.size());
+        started.get(0).complete("done");
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    void block() throws Exception {
+        admission.setLimits(1, 1000, OverloadPolicy.BLOCK);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        admission.submit(10, () -> first);
+
+        CompletableFuture<String> blocked = CompletableFuture.supplyAsync(
+                () -> admission.submit(10, () -> CompletableFuture.completedFuture("second")).join());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (admission.getQueueDepth() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, admission.getQueueDepth());
+        assertFalse(blocked.isDone());
+
+        first.complete("first");
+        assertEquals("second", blocked.get(5, TimeUnit.SECONDS));
+        assertEquals(0, admission.getQueueDepth());
+    }
+
+    @Test
+    void awaitIdle() throws Exception {
+        admission.setLimits(1, 1000, OverloadPolicy.DEFER);
+        submit(10);
+        submit(10);
+
+        assertFalse(admission.awaitIdle(10, TimeUnit.MILLISECONDS));
+        CompletableFuture<Boolean> idle = CompletableFuture.supplyAsync(() -> {
+            try {
+                return admission.awaitIdle(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        started.get(0).complete("first");
+        assertFalse(admission.awaitIdle(10, TimeUnit.MILLISECONDS));
+        started.get(1).complete("second");
+        assertTrue(idle.get(5, TimeUnit.SECONDS));
+    }
+}
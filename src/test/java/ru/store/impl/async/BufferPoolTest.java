@@ -0,0 +1,45 @@
+package ru.store.impl.async;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BufferPoolTest {
+
+    @Test
+    void releasedBufferIsReused() {
+        BufferPool pool = new BufferPool(1024, 8192, 4);
+        ByteBuffer buffer = pool.acquire(1500);
+        assertEquals(2048, buffer.capacity());
+        assertEquals(1500, buffer.limit());
+
+        pool.release(buffer);
+
+        assertSame(buffer, pool.acquire(2000));
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    void hugeRequestGetsLargestClass() {
+        BufferPool pool = new BufferPool(1024, 8192, 4);
+
+        ByteBuffer buffer = pool.acquire(Integer.MAX_VALUE);
+
+        assertEquals(8192, buffer.capacity());
+        assertEquals(8192, buffer.limit());
+    }
+
+    @Test
+    void maxSizeAboveLargestPowerOfTwoIsAccepted() {
+        BufferPool pool = new BufferPool(1024, Integer.MAX_VALUE, 4);
+
+        ByteBuffer buffer = pool.acquire(100);
+        pool.release(buffer);
+
+        assertEquals(1024, buffer.capacity());
+        assertSame(buffer, pool.acquire(1000));
+    }
+}
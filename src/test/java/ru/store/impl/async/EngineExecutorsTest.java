@@ -0,0 +1,38 @@
+package ru.store.impl.async;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class EngineExecutorsTest {
+
+    @Test
+    void virtualThreadsWithoutJdkSupportUseBoundedPool() {
+        assumeFalse(EngineExecutors.isVirtualThreadsSupported());
+
+        ExecutorService executor = EngineExecutors.newExecutor(ExecutionMode.VIRTUAL_THREADS, 3);
+        try {
+            assertEquals(3, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void virtualThreadsWithJdkSupportAreNotPooled() {
+        assumeTrue(EngineExecutors.isVirtualThreadsSupported());
+
+        ExecutorService executor = EngineExecutors.newExecutor(ExecutionMode.VIRTUAL_THREADS, 3);
+        try {
+            assertFalse(executor instanceof ThreadPoolExecutor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
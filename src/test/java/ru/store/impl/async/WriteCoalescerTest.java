@@ -0,0 +1,65 @@
+package ru.store.impl.async;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteCoalescerTest {
+
+    private final List<String> written = new ArrayList<>();
+    private final List<CompletableFuture<Boolean>> inFlight = new ArrayList<>();
+
+    private final WriteCoalescer<String> coalescer = new WriteCoalescer<>((key, value) -> {
+        written.add(key + "=" + value);
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        inFlight.add(future);
+        return future;
+    });
+
+    @Test
+    void supersededWritesCompleteWithWinner() {
+        CompletableFuture<Boolean> first = coalescer.write("key", "1");
+        List<CompletableFuture<Boolean>> superseded = new ArrayList<>();
+        for (int i = 2; i <= 10; i++) {
+            superseded.add(coalescer.write("key", String.valueOf(i)));
+        }
+        coalescer.write("other", "1");
+
+        assertEquals(2, written.size());
+        assertEquals("other=1", written.get(1));
+        assertEquals(8, coalescer.getCoalescedCount());
+
+        inFlight.get(0).complete(true);
+        assertTrue(first.isDone());
+        assertEquals("key=10", written.get(2));
+        superseded.forEach(future -> assertFalse(future.isDone()));
+
+        inFlight.get(2).complete(true);
+        superseded.forEach(future -> assertTrue(future.join()));
+        inFlight.get(1).complete(true);
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    void failureCompletesOnlyItsWaiters() {
+        CompletableFuture<Boolean> failed = coalescer.write("key", "1");
+        CompletableFuture<Boolean> next = coalescer.write("key", "2");
+
+        inFlight.get(0).completeExceptionally(new IllegalStateException("disk"));
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertFalse(next.isDone());
+
+        inFlight.get(1).complete(true);
+        assertTrue(next.join());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+}
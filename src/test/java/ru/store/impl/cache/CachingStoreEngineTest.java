@@ -0,0 +1,94 @@
+package ru.store.impl.cache;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.FSStoreEngine;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(TemporaryFolderExtension.class)
+class CachingStoreEngineTest {
+
+    private TinyLfuValueCache cache;
+
+    private CachingStoreEngine engine;
+
+    @BeforeEach
+    void setUp(TemporaryFolder folder) throws StoreEngineOperationException {
+        String dataPath = folder.getRoot().getPath();
+        cache = new TinyLfuValueCache(1024 * 1024);
+        engine = new CachingStoreEngine(new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp").toString(), 1, 1), cache);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        engine.close();
+    }
+
+    @Test
+    void readsAreCached() throws StoreEngineOperationException, InterruptedException, ExecutionException, TimeoutException {
+        engine.writeSync("key", bytes("value"));
+
+        assertArrayEquals(bytes("value"), engine.readSync("key"));
+        assertArrayEquals(bytes("value"), engine.readSync("key"));
+        assertArrayEquals(bytes("value"), engine.read("key").get(5, TimeUnit.SECONDS));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void modifiedResultsDontChangeCachedValue() throws StoreEngineOperationException, InterruptedException, ExecutionException, TimeoutException {
+        engine.writeSync("key", bytes("value"));
+
+        engine.readSync("key")[0] = 'X';
+        engine.readSync("key")[0] = 'X';
+        engine.read("key").get(5, TimeUnit.SECONDS)[0] = 'X';
+        engine.readAll(Collections.singleton("key")).get(5, TimeUnit.SECONDS).get("key")[0] = 'X';
+        engine.read("key", value -> value[0] = 'X').get(5, TimeUnit.SECONDS);
+
+        assertArrayEquals(bytes("value"), engine.readSync("key"));
+        assertEquals(5, cache.getHitCount());
+    }
+
+    @Test
+    void mutationsInvalidate() throws StoreEngineOperationException, InterruptedException, ExecutionException, TimeoutException {
+        engine.writeSync("key", bytes("value1"));
+        engine.readSync("key");
+
+        engine.writeSync("key", bytes("value2"));
+        assertArrayEquals(bytes("value2"), engine.readSync("key"));
+
+        engine.write("key", bytes("value3")).get(5, TimeUnit.SECONDS);
+        assertArrayEquals(bytes("value3"), engine.readSync("key"));
+
+        engine.write("key", Collections.singleton(bytes("value4")).iterator(), null).get(5, TimeUnit.SECONDS);
+        assertArrayEquals(bytes("value4"), engine.readSync("key"));
+
+        engine.remove("key");
+        assertArrayEquals(new byte[0], engine.readSync("key"));
+
+        engine.writeSync("key", bytes("value5"));
+        engine.readSync("key");
+        engine.clear();
+        assertArrayEquals(new byte[0], engine.readSync("key"));
+        assertEquals(0, cache.getWeightedSize());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+package ru.store.impl.cache;
+
+import org.junit.jupiter.api.Test;
+import ru.store.impl.TestUtils;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapValueCacheTest {
+
+    @Test
+    void getPut() {
+        OffHeapValueCache cache = new OffHeapValueCache(64 * 1024, 4096);
+        byte[] value1 = TestUtils.generateValue(100);
+        byte[] value2 = TestUtils.generateValue(3000);
+
+        assertNull(cache.get("key1"));
+        cache.put("key1", value1);
+        cache.put("key2", value2);
+
+        assertArrayEquals(value1, cache.get("key1"));
+        assertArrayEquals(value2, cache.get("key2"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(3100, cache.getWeightedSize());
+        assertEquals(2 * 4096, cache.getAllocatedBytes());
+
+        cache.put("key1", value2);
+        assertArrayEquals(value2, cache.get("key1"));
+        assertEquals(6000, cache.getWeightedSize());
+    }
+
+    @Test
+    void getIntoCallerBuffer() {
+        OffHeapValueCache cache = new OffHeapValueCache(64 * 1024, 4096);
+        byte[] value = TestUtils.generateValue(1000);
+        cache.put("key", value);
+
+        ByteBuffer target = ByteBuffer.allocateDirect(2000);
+        assertEquals(1000, cache.get("key", target));
+        target.flip();
+        byte[] result = new byte[target.remaining()];
+        target.get(result);
+
+        assertArrayEquals(value, result);
+        assertEquals(-1, cache.get("key", ByteBuffer.allocate(10)));
+    }
+
+    @Test
+    void boundedByBudget() {
+        OffHeapValueCache cache = new OffHeapValueCache(8 * 4096, 4096);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get("key" + i);
+            cache.get("key" + i);
+            cache.put("key" + i, TestUtils.generateValue(500));
+        }
+        cache.put("large", TestUtils.generateValue(5000));
+
+        assertTrue(cache.getAllocatedBytes() <= 8 * 4096);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertNull(cache.get("large"));
+        assertNull(cache.get("key0"));
+    }
+
+    @Test
+    void slabsMoveToSizeClassOfLaterValues() {
+        OffHeapValueCache cache = new OffHeapValueCache(4 * 4096, 4096);
+        for (int i = 0; i < 200; i++) {
+            cache.put("small" + i, TestUtils.generateValue(100));
+        }
+        assertEquals(4 * 4096, cache.getAllocatedBytes());
+
+        byte[] large = TestUtils.generateValue(3000);
+        cache.put("large", large);
+        assertNull(cache.get("large"));
+
+        // popular enough to be admitted over the least recently used small values
+        cache.get("large");
+        cache.put("large", large);
+        assertArrayEquals(large, cache.get("large"));
+        assertEquals(4 * 4096, cache.getAllocatedBytes());
+        assertTrue(cache.getEvictionCount() > 0);
+
+        // only the values of the moved slab are evicted
+        int cachedSmall = 0;
+        for (int i = 0; i < 200; i++) {
+            if (cache.get("small" + i) != null) {
+                cachedSmall++;
+            }
+        }
+        assertTrue(cachedSmall >= 100);
+    }
+
+    @Test
+    void invalidate() {
+        OffHeapValueCache cache = new OffHeapValueCache(64 * 1024, 4096);
+        cache.put("key1", new byte[10]);
+        cache.put("key2", new byte[10]);
+
+        cache.invalidate("key1");
+        assertNull(cache.get("key1"));
+        assertEquals(10, cache.getWeightedSize());
+
+        cache.invalidateAll();
+        assertNull(cache.get("key2"));
+        assertEquals(0, cache.getWeightedSize());
+    }
+}
@@ -0,0 +1,81 @@
+package ru.store.impl.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TinyLfuValueCacheTest {
+
+    @Test
+    void hitAndMiss() {
+        TinyLfuValueCache cache = new TinyLfuValueCache(1000);
+
+        assertNull(cache.get("key"));
+        cache.put("key", new byte[]{1, 2, 3});
+
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("key"));
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("key"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(3, cache.getWeightedSize());
+    }
+
+    @Test
+    void boundedByWeight() {
+        TinyLfuValueCache cache = new TinyLfuValueCache(1000);
+
+        for (int i = 0; i < 100; i++) {
+            cache.get("key" + i);
+            cache.get("key" + i);
+            cache.put("key" + i, new byte[100]);
+            assertTrue(cache.getWeightedSize() <= 1000);
+        }
+        cache.put("large", new byte[1001]);
+
+        assertNull(cache.get("large"));
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    @Test
+    void scanDoesNotFlushHotValues() {
+        TinyLfuValueCache cache = new TinyLfuValueCache(1000);
+        for (int i = 0; i < 5; i++) {
+            cache.get("hot" + i);
+            cache.put("hot" + i, new byte[100]);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 5; i++) {
+                cache.get("hot" + i);
+            }
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get("cold" + i);
+            cache.put("cold" + i, new byte[100]);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.get("hot" + i));
+        }
+    }
+
+    @Test
+    void invalidate() {
+        TinyLfuValueCache cache = new TinyLfuValueCache(1000);
+        cache.put("key1", new byte[10]);
+        cache.put("key2", new byte[10]);
+        cache.get("key2");
+
+        cache.invalidate("key1");
+        assertNull(cache.get("key1"));
+        assertEquals(10, cache.getWeightedSize());
+
+        cache.invalidateAll();
+        assertNull(cache.get("key2"));
+        assertEquals(0, cache.getWeightedSize());
+    }
+}
@@ -0,0 +1,80 @@
+package ru.store.impl.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeflateCodecTest {
+
+    private final DeflateCodec codec = new DeflateCodec();
+
+    private static byte[] text(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append("line ").append(i % 100).append(" of the text\n");
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void decodeByChunks() throws IOException {
+        byte[] value = text(100_000);
+        byte[] encoded = codec.encode(value);
+        assertTrue(encoded.length < value.length / 10);
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (Codec.Decoder decoder = codec.newDecoder()) {
+            for (int position = 0; position < encoded.length; position += 7) {
+                assertFalse(decoder.isFinished());
+                ByteBuffer chunk = ByteBuffer.allocateDirect(Math.min(7, encoded.length - position));
+                chunk.put(encoded, position, chunk.capacity()).flip();
+                decoder.decode(chunk, buffer -> decoded.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()));
+                assertFalse(chunk.hasRemaining());
+            }
+            assertTrue(decoder.isFinished());
+        }
+        assertArrayEquals(value, decoded.toByteArray());
+    }
+
+    @Test
+    void decodingChannel() throws IOException {
+        byte[] value = text(50_000);
+        ReadableByteChannel source = Channels.newChannel(new ByteArrayInputStream(codec.encode(value)));
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        try (ReadableByteChannel channel = new DecodingChannel(source, codec.newDecoder())) {
+            while (channel.read(buffer) >= 0) {
+                decoded.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+        assertArrayEquals(value, decoded.toByteArray());
+    }
+
+    @Test
+    void truncatedValue() {
+        byte[] encoded = codec.encode(text(1000));
+        ReadableByteChannel source = Channels.newChannel(new ByteArrayInputStream(Arrays.copyOf(encoded, encoded.length / 2)));
+
+        DecodingChannel channel = new DecodingChannel(source, codec.newDecoder());
+        assertThrows(IOException.class, () -> {
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            while (channel.read(buffer) >= 0) {
+                buffer.clear();
+            }
+        });
+    }
+}
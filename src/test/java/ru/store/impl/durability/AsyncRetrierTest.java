@@ -0,0 +1,96 @@
+package ru.store.impl.durability;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncRetrierTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final RetryPolicy policy = new RetryPolicy(5, 1, 10, 2, 0.5, 10_000, RetryPolicy.TRANSIENT_FILE_SYSTEM_ERRORS);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void successAfterTransientFailures() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Thread caller = Thread.currentThread();
+        CompletableFuture<Thread> result = new AsyncRetrier(policy, ExecutorByTimeout.scheduled(scheduler)).call(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new AccessDeniedException("file");
+            }
+            return Thread.currentThread();
+        });
+
+        assertTrue(result.get(5, TimeUnit.SECONDS) != caller);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void stopAfterMaxAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Void> result = new AsyncRetrier(policy, ExecutorByTimeout.callerThread()).run(() -> {
+            attempts.incrementAndGet();
+            throw new AccessDeniedException("file");
+        });
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof AccessDeniedException);
+        assertEquals(5, attempts.get());
+    }
+
+    @Test
+    void attemptsOnCallerThreadLoop() {
+        AtomicInteger attempts = new AtomicInteger();
+        RetryPolicy many = new RetryPolicy(100_000, 0, 0, 1, 0, 60_000, RetryPolicy.TRANSIENT_FILE_SYSTEM_ERRORS);
+        CompletableFuture<Integer> result = new AsyncRetrier(many, ExecutorByTimeout.callerThread()).call(() -> {
+            if (attempts.incrementAndGet() < 100_000) {
+                throw new AccessDeniedException("file");
+            }
+            return attempts.get();
+        });
+
+        assertTrue(result.isDone());
+        assertEquals(100_000, (int) result.join());
+    }
+
+    @Test
+    void noRetryOfPermanentFailure() {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Void> result = new AsyncRetrier(policy, ExecutorByTimeout.scheduled(scheduler)).run(() -> {
+            attempts.incrementAndGet();
+            throw new NoSuchFileException("file");
+        });
+
+        assertTrue(result.isCompletedExceptionally());
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void stopAtDeadline() {
+        AtomicInteger attempts = new AtomicInteger();
+        RetryPolicy slow = new RetryPolicy(1000, 20, 20, 1, 0, 100, RetryPolicy.TRANSIENT_FILE_SYSTEM_ERRORS);
+        CompletableFuture<Void> result = new AsyncRetrier(slow, ExecutorByTimeout.scheduled(scheduler)).run(() -> {
+            attempts.incrementAndGet();
+            throw new AccessDeniedException("file");
+        });
+
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(attempts.get() <= 6);
+    }
+}
@@ -0,0 +1,94 @@
+package ru.store.impl.durability;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GroupCommitterTest {
+
+    @Test
+    void testCommitsShareBarrier() throws Exception {
+        AtomicInteger countTasks = new AtomicInteger();
+        AtomicInteger countBarriers = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        try (GroupCommitter committer = new GroupCommitter("test", 100, 200, TimeUnit.MILLISECONDS, countBarriers::incrementAndGet)) {
+            for (int i = 0; i < 20; i++) {
+                futures.add(committer.commit(countTasks::incrementAndGet));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(20, countTasks.get());
+        assertTrue(countBarriers.get() < 20);
+    }
+
+    @Test
+    void testFailedTaskDoesNotFailBatch() throws Exception {
+        try (GroupCommitter committer = new GroupCommitter("test", 10, 100, TimeUnit.MILLISECONDS, () -> {
+        })) {
+            CompletableFuture<Void> failed = committer.commit(() -> {
+                throw new IOException();
+            });
+            CompletableFuture<Void> succeeded = committer.commit(() -> {
+            });
+
+            succeeded.get(5, TimeUnit.SECONDS);
+            assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testFailedBarrierFailsBatch() {
+        try (GroupCommitter committer = new GroupCommitter("test", 10, 100, TimeUnit.MILLISECONDS, () -> {
+            throw new IOException();
+        })) {
+            CompletableFuture<Void> future = committer.commit(() -> {
+            });
+
+            assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testBarrierWaitsForAsyncCommit() throws Exception {
+        AtomicInteger countBarriers = new AtomicInteger();
+        CompletableFuture<Void> action = new CompletableFuture<>();
+
+        try (GroupCommitter committer = new GroupCommitter("test", 10, 10, TimeUnit.MILLISECONDS, countBarriers::incrementAndGet)) {
+            CompletableFuture<Void> future = committer.commitAsync(() -> action);
+
+            Thread.sleep(100);
+            assertEquals(0, countBarriers.get());
+            assertFalse(future.isDone());
+
+            action.complete(null);
+            future.get(5, TimeUnit.SECONDS);
+            assertEquals(1, countBarriers.get());
+        }
+    }
+
+    @Test
+    void testCloseCommitsPending() {
+        AtomicInteger countTasks = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter("test", 1000, 10, TimeUnit.SECONDS, () -> {
+        });
+        CompletableFuture<Void> future = committer.commit(countTasks::incrementAndGet);
+
+        committer.close();
+
+        assertTrue(future.isDone());
+        assertEquals(1, countTasks.get());
+    }
+}
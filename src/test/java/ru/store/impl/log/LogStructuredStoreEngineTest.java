@@ -0,0 +1,260 @@
+package ru.store.impl.log;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.KeyVersions;
+import ru.store.impl.TestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(TemporaryFolderExtension.class)
+class LogStructuredStoreEngineTest {
+
+    private String dataPath;
+
+    private LogStructuredStoreEngine engine;
+
+    @BeforeEach
+    void setUp(TemporaryFolder folder) throws StoreEngineOperationException {
+        dataPath = folder.getRoot().getPath();
+        engine = new LogStructuredStoreEngine(dataPath, 1, 1);
+    }
+
+    @AfterEach
+    void tearDown() throws StoreEngineOperationException {
+        engine.close();
+    }
+
+    @Test
+    void writeRead() throws StoreEngineOperationException, InterruptedException, ExecutionException, TimeoutException {
+        byte[] expectedRaw = TestUtils.generateValue(10_000);
+
+        engine.write("key", expectedRaw).get(5, TimeUnit.SECONDS);
+
+        assertArrayEquals(expectedRaw, engine.readSync("key"));
+        assertArrayEquals(expectedRaw, engine.read("key").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void overwriteAndRemove() throws StoreEngineOperationException {
+        engine.writeSync("key", "value1".getBytes(StandardCharsets.UTF_8));
+        engine.writeSync("key", "value2".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(1, engine.size());
+        assertArrayEquals("value2".getBytes(StandardCharsets.UTF_8), engine.readSync("key"));
+
+        assertTrue(engine.remove("key"));
+        assertFalse(engine.remove("key"));
+        assertArrayEquals(new byte[0], engine.readSync("key"));
+        assertEquals(0, engine.size());
+    }
+
+    @Test
+    void reopenRestoresKeyDirectory() throws StoreEngineOperationException {
+        byte[] expectedRaw = TestUtils.generateValue(1000);
+        engine.writeSync("key1", expectedRaw);
+        engine.writeSync("key2", expectedRaw);
+        engine.remove("key2");
+        engine.close();
+
+        engine = new LogStructuredStoreEngine(dataPath, 1, 1);
+
+        assertEquals(new HashSet<>(Arrays.asList("key1")), engine.keys());
+        assertArrayEquals(expectedRaw, engine.readSync("key1"));
+    }
+
+    @Test
+    void reopenTruncatesTornRecord() throws StoreEngineOperationException, IOException {
+        byte[] expectedRaw = TestUtils.generateValue(1000);
+        engine.writeSync("key1", expectedRaw);
+        engine.close();
+
+        Path segment = segmentPaths()[0];
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7}));
+        }
+
+        engine = new LogStructuredStoreEngine(dataPath, 1, 1);
+
+        assertArrayEquals(expectedRaw, engine.readSync("key1"));
+        engine.writeSync("key2", expectedRaw);
+        assertArrayEquals(expectedRaw, engine.readSync("key2"));
+    }
+
+    @Test
+    void reopenFailsOnCorruptedSealedSegment() throws StoreEngineOperationException, IOException {
+        engine.setMaxSegmentSize(16 * 1024);
+        for (int i = 0; i < 50; i++) {
+            engine.writeSync("key" + i, TestUtils.generateValue(1000));
+        }
+        engine.close();
+
+        Path sealed = segmentPaths()[0];
+        ByteBuffer original = ByteBuffer.allocate(1);
+        try (FileChannel channel = FileChannel.open(sealed, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.read(original, 100);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (original.get(0) + 1)}), 100);
+        }
+
+        assertThrows(StoreEngineOperationException.class, () -> new LogStructuredStoreEngine(dataPath, 1, 1));
+
+        original.flip();
+        try (FileChannel channel = FileChannel.open(sealed, StandardOpenOption.WRITE)) {
+            channel.write(original, 100);
+        }
+        engine = new LogStructuredStoreEngine(dataPath, 1, 1);
+        assertEquals(50, engine.size());
+    }
+
+    @Test
+    void compactionDropsDeadSegments() throws StoreEngineOperationException, IOException {
+        engine.setMaxSegmentSize(16 * 1024);
+        engine.setCompactionThreshold(Double.MAX_VALUE);
+        byte[] expectedRaw = TestUtils.generateValue(1000);
+        for (int i = 0; i < 200; i++) {
+            engine.writeSync("key" + (i % 5), TestUtils.generateValue(1000));
+        }
+        engine.writeSync("key0", expectedRaw);
+        int segmentsBefore = segmentPaths().length;
+
+        engine.setCompactionThreshold(0.5);
+        engine.compact();
+
+        assertTrue(segmentPaths().length < segmentsBefore);
+        assertEquals(5, engine.size());
+        assertArrayEquals(expectedRaw, engine.readSync("key0"));
+
+        engine.close();
+        engine = new LogStructuredStoreEngine(dataPath, 1, 1);
+        assertEquals(5, engine.size());
+        assertArrayEquals(expectedRaw, engine.readSync("key0"));
+    }
+
+    @Test
+    void readIterable() throws StoreEngineOperationException, InterruptedException, ExecutionException, TimeoutException {
+        byte[] expectedRaw = TestUtils.generateValue(10_000);
+        engine.write("key", Arrays.asList(Arrays.copyOf(expectedRaw, 5000),
+                                          Arrays.copyOfRange(expectedRaw, 5000, 10_000)).iterator(), null)
+              .get(5, TimeUnit.SECONDS);
+
+        ByteBuffer result = ByteBuffer.allocate(expectedRaw.length);
+        engine.read("key", result::put).get(5, TimeUnit.SECONDS);
+
+        assertArrayEquals(expectedRaw, result.array());
+    }
+
+    @Test
+    void writeIterableFailsWithIterator() throws StoreEngineOperationException {
+        Iterator<byte[]> data = new Iterator<byte[]>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public byte[] next() {
+                throw new IllegalStateException("broken source");
+            }
+        };
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> engine.write("key", data, null).get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertEquals(KeyVersions.ABSENT, engine.version("key"));
+    }
+
+    @Test
+    void writeWithGroupCommit() throws StoreEngineOperationException, InterruptedException, ExecutionException, TimeoutException {
+        engine.enableGroupCommit(16, 5);
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            futures.add(engine.write("key" + i, ("value" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertEquals(32, engine.size());
+        assertArrayEquals("value7".getBytes(StandardCharsets.UTF_8), engine.readSync("key7"));
+    }
+
+    @Test
+    void batch() throws InterruptedException, ExecutionException, TimeoutException, StoreEngineOperationException {
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            entries.put("key" + i, TestUtils.generateValue(100));
+        }
+
+        assertTrue(engine.writeAll(entries).get(10, TimeUnit.SECONDS));
+        assertEquals(500, engine.size());
+
+        Map<String, byte[]> result = engine.readAll(Arrays.asList("key1", "key499", "absent")).get(10, TimeUnit.SECONDS);
+        assertEquals(new HashSet<>(Arrays.asList("key1", "key499")), result.keySet());
+        assertArrayEquals(entries.get("key499"), result.get("key499"));
+
+        assertEquals(Integer.valueOf(2), engine.removeAll(Arrays.asList("key1", "key2", "absent")).get(10, TimeUnit.SECONDS));
+        assertEquals(498, engine.size());
+    }
+
+    @Test
+    void compareAndSet() throws StoreEngineOperationException {
+        assertTrue(engine.writeIfVersion("key", "value1".getBytes(StandardCharsets.UTF_8), KeyVersions.ABSENT));
+        long version = engine.version("key");
+        assertTrue(version != KeyVersions.ABSENT);
+
+        engine.writeSync("key", "value2".getBytes(StandardCharsets.UTF_8));
+        assertFalse(engine.writeIfVersion("key", "value3".getBytes(StandardCharsets.UTF_8), version));
+        assertTrue(engine.writeIfVersion("key", "value3".getBytes(StandardCharsets.UTF_8), engine.version("key")));
+        assertArrayEquals("value3".getBytes(StandardCharsets.UTF_8), engine.readSync("key"));
+    }
+
+    @Test
+    void readBufferMapped() throws StoreEngineOperationException {
+        engine.setMmapThreshold(1000);
+        byte[] expectedRaw = TestUtils.generateValue(10_000);
+        engine.writeSync("key1", "value".getBytes(StandardCharsets.UTF_8));
+        engine.writeSync("key2", expectedRaw);
+
+        ByteBuffer buffer = engine.readBuffer("key2");
+
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        assertEquals(ByteBuffer.wrap(expectedRaw), buffer);
+        assertEquals(ByteBuffer.wrap("value".getBytes(StandardCharsets.UTF_8)), engine.readBuffer("key1"));
+    }
+
+    private Path[] segmentPaths() throws IOException {
+        try (Stream<Path> paths = Files.list(Paths.get(dataPath))) {
+            return paths.filter(path -> path.toString().endsWith(LogStructuredStoreEngine.DEFAULT_EXTENSION_SEGMENT_FILE))
+                        .sorted()
+                        .toArray(Path[]::new);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package ru.store.impl.metrics;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.FSStoreEngine;
+import ru.store.impl.StoreEngine;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(TemporaryFolderExtension.class)
+class InstrumentedStoreEngineTest {
+
+    private StoreMetrics metrics;
+
+    private InstrumentedStoreEngine engine;
+
+    @BeforeEach
+    void setUp(TemporaryFolder folder) throws StoreEngineOperationException {
+        String dataPath = folder.getRoot().getPath();
+        FSStoreEngine fsEngine = new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp").toString(), 1, 1);
+        metrics = new StoreMetrics("test");
+        metrics.gauge("retries", fsEngine::getRetryCount);
+        engine = new InstrumentedStoreEngine(fsEngine, metrics);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        engine.close();
+    }
+
+    @Test
+    void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000, histogram.getMax());
+        assertEquals(5_000_500, histogram.getMean(), 1);
+        assertEquals(5_000_000, histogram.getValueAtPercentile(50), 5_000_000 / 16.0);
+        assertEquals(9_900_000, histogram.getValueAtPercentile(99), 9_900_000 / 16.0);
+        assertEquals(10_000_000, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    void bucketsCoverValues() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.highestValue(index) >= value, "value " + value);
+            assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value, "value " + value);
+        }
+    }
+
+    @Test
+    void recordOperations() throws Exception {
+        engine.writeSync("key1", new byte[100]);
+        engine.write("key2", new byte[200]).get(5, TimeUnit.SECONDS);
+        engine.readSync("key1");
+        engine.read("key2").get(5, TimeUnit.SECONDS);
+        engine.read("key2", chunk -> {
+        }).get(5, TimeUnit.SECONDS);
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertStats(snapshot, InstrumentedStoreEngine.WRITE_SYNC, 1, 100);
+        assertStats(snapshot, InstrumentedStoreEngine.WRITE, 1, 200);
+        assertStats(snapshot, InstrumentedStoreEngine.READ_SYNC, 1, 100);
+        assertStats(snapshot, InstrumentedStoreEngine.READ, 1, 200);
+        assertStats(snapshot, InstrumentedStoreEngine.READ_STREAM, 1, 200);
+        assertNull(snapshot.getOperation(InstrumentedStoreEngine.REMOVE));
+        assertEquals(0L, (long) snapshot.getGauges().get("retries"));
+
+        OperationStats read = snapshot.getOperation(InstrumentedStoreEngine.READ);
+        assertTrue(read.getP50Micros() <= read.getP99Micros());
+        assertTrue(read.getP99Micros() <= read.getMaxMicros());
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getOperation(InstrumentedStoreEngine.READ).getCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void recordErrors() throws Exception {
+        StoreEngine<String, byte[]> failing = mock(StoreEngine.class);
+        when(failing.readSync("key")).thenThrow(new StoreEngineOperationException("Error read", null));
+        StoreMetrics failingMetrics = new StoreMetrics("failing");
+        InstrumentedStoreEngine failingEngine = new InstrumentedStoreEngine(failing, failingMetrics);
+
+        assertThrows(StoreEngineOperationException.class, () -> failingEngine.readSync("key"));
+
+        OperationStats stats = failingMetrics.snapshot().getOperation(InstrumentedStoreEngine.READ_SYNC);
+        assertEquals(1, stats.getCount());
+        assertEquals(1, stats.getErrors());
+        assertEquals(0, stats.getBytes());
+    }
+
+    @Test
+    void publishedByJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("ru.store:type=StoreMetrics,name=\"test\"");
+        metrics.register();
+        engine.writeSync("key", new byte[10]);
+
+        CompositeData[] operations = (CompositeData[]) server.getAttribute(name, "Operations");
+        assertEquals(1, operations.length);
+        assertEquals(InstrumentedStoreEngine.WRITE_SYNC, operations[0].get("name"));
+        assertEquals(10L, operations[0].get("bytes"));
+
+        metrics.unregister();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    void replacedMetricsDoNotUnregisterReplacement() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("ru.store:type=StoreMetrics,name=\"shared\"");
+        StoreMetrics older = new StoreMetrics("shared");
+        StoreMetrics newer = new StoreMetrics("shared");
+        older.register();
+        newer.register();
+
+        older.unregister();
+        assertTrue(server.isRegistered(name));
+
+        newer.unregister();
+        assertFalse(server.isRegistered(name));
+    }
+
+    private static void assertStats(MetricsSnapshot snapshot, String operation, long count, long bytes) {
+        OperationStats stats = snapshot.getOperation(operation);
+        assertEquals(count, stats.getCount(), operation);
+        assertEquals(bytes, stats.getBytes(), operation);
+        assertEquals(0, stats.getErrors(), operation);
+    }
+}
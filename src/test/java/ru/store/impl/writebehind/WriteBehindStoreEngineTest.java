@@ -0,0 +1,145 @@
+package ru.store.impl.writebehind;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import ru.store.exceptions.StoreEngineOperationException;
+import ru.store.impl.FSStoreEngine;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(TemporaryFolderExtension.class)
+class WriteBehindStoreEngineTest {
+
+    private String dataPath;
+
+    private FSStoreEngine fsStoreEngine;
+
+    private WriteBehindStoreEngine engine;
+
+    @BeforeEach
+    void setUp(TemporaryFolder folder) throws StoreEngineOperationException {
+        dataPath = folder.getRoot().getPath();
+        fsStoreEngine = new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp").toString(), 1, 1);
+        engine = new WriteBehindStoreEngine(fsStoreEngine, 1024 * 1024, TimeUnit.HOURS.toMillis(1));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        engine.close();
+    }
+
+    @Test
+    void readsSeePendingValues() throws StoreEngineOperationException, InterruptedException, ExecutionException, TimeoutException {
+        engine.write("key", bytes("value1")).get(5, TimeUnit.SECONDS);
+        engine.writeSync("key", bytes("value2"));
+        engine.writeSync("removed", bytes("value"));
+        assertTrue(engine.remove("removed"));
+
+        assertArrayEquals(bytes("value2"), engine.readSync("key"));
+        assertArrayEquals(bytes("value2"), engine.read("key").get(5, TimeUnit.SECONDS));
+        assertEquals(0, engine.readSync("removed").length);
+        assertEquals(0, fsStoreEngine.readSync("key").length);
+        assertEquals(2, engine.getDirtyCount());
+        assertEquals(6, engine.getDirtyBytes());
+        assertEquals(2, engine.getCoalescedWriteCount());
+
+        Map<String, byte[]> values = engine.readAll(Arrays.asList("key", "removed", "absent")).get(5, TimeUnit.SECONDS);
+        assertEquals(1, values.size());
+        assertArrayEquals(bytes("value2"), values.get("key"));
+    }
+
+    @Test
+    void pendingValuesAreCopied() throws StoreEngineOperationException, InterruptedException, ExecutionException, TimeoutException {
+        byte[] written = bytes("value");
+        engine.writeSync("key", written);
+        written[0] = 'X';
+        engine.readSync("key")[0] = 'X';
+        engine.read("key").get(5, TimeUnit.SECONDS)[0] = 'X';
+        engine.readAll(Arrays.asList("key")).get(5, TimeUnit.SECONDS).get("key")[0] = 'X';
+
+        assertArrayEquals(bytes("value"), engine.readSync("key"));
+        engine.flush();
+        assertArrayEquals(bytes("value"), fsStoreEngine.readSync("key"));
+        assertArrayEquals(new byte[0], engine.write("empty", null).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void flushWritesPendingEntries() throws StoreEngineOperationException {
+        fsStoreEngine.writeSync("removed", bytes("value"));
+        engine.writeSync("key", bytes("value"));
+        assertTrue(engine.remove("removed"));
+        assertFalse(engine.remove("absent"));
+
+        engine.flush();
+
+        assertArrayEquals(bytes("value"), fsStoreEngine.readSync("key"));
+        assertFalse(fsStoreEngine.keys().contains("removed"));
+        assertEquals(0, engine.getDirtyBytes());
+        assertEquals(0, engine.getDirtyCount());
+        assertEquals(0, engine.getFlushLagMillis());
+        assertEquals(1, engine.getFlushCount());
+        assertEquals(3, engine.getFlushedCount());
+        assertEquals(1, engine.size());
+    }
+
+    @Test
+    void flushByAgeAndMemory() throws Exception {
+        engine.close();
+        fsStoreEngine = new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp2").toString(), 1, 1);
+        engine = new WriteBehindStoreEngine(fsStoreEngine, 100, 50);
+
+        engine.writeSync("key", bytes("value"));
+        for (int i = 0; i < 200 && engine.getDirtyCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertArrayEquals(bytes("value"), fsStoreEngine.readSync("key"));
+
+        for (int i = 0; i < 20; i++) {
+            engine.writeSync("key" + i, new byte[40]);
+            assertTrue(engine.getDirtyBytes() <= 100);
+        }
+        engine.flush();
+        assertEquals(21, fsStoreEngine.size());
+    }
+
+    @Test
+    void closeFlushesPendingEntries() throws Exception {
+        engine.writeSync("key", bytes("value"));
+        engine.close();
+
+        FSStoreEngine reopened = new FSStoreEngine(dataPath, Paths.get(dataPath, "tmp2").toString(), 1, 1);
+        engine = new WriteBehindStoreEngine(reopened, 1024, 1000);
+
+        assertArrayEquals(bytes("value"), engine.readSync("key"));
+    }
+
+    @Test
+    void versionedWriteFlushesKey() throws StoreEngineOperationException {
+        engine.writeSync("key", bytes("value1"));
+        long version = engine.version("key");
+
+        assertTrue(engine.writeIfVersion("key", bytes("value2"), version));
+        assertFalse(engine.writeIfVersion("key", bytes("value3"), version));
+        assertArrayEquals(bytes("value2"), engine.readSync("key"));
+        assertEquals(0, engine.getDirtyCount());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}